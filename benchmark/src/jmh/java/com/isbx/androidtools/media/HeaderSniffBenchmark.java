@@ -0,0 +1,56 @@
+package com.isbx.androidtools.media;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures format, dimension and EXIF orientation detection from the header of a JPEG.
+ *
+ * <p>
+ * The stream variant is what {@link ImageProbe} does against a freshly opened source. On device
+ * the cost of opening the source dominates, so this mostly tracks the header buffer allocations.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeaderSniffBenchmark {
+
+    private static final int HEADER_SIZE = 64 * 1024;
+
+    private byte[] header;
+
+    @Setup
+    public void setUp() {
+        header = SyntheticImages.jpegHeader(ExifOrientation.ROTATE_90, HEADER_SIZE);
+    }
+
+    @Benchmark
+    public ImageInfo parseStream() throws IOException {
+        return ImageHeaderParser.parse(new ByteArrayInputStream(header));
+    }
+
+    @Benchmark
+    public ImageInfo parseBytes() {
+        return ImageHeaderParser.parse(header, header.length);
+    }
+
+    @Benchmark
+    public boolean isJpegBytes() {
+        return ImageHeaderParser.isJpeg(header, header.length);
+    }
+
+    @Benchmark
+    public int readOrientation() {
+        return ExifOrientation.read(header, header.length);
+    }
+}
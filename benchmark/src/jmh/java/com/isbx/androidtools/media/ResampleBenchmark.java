@@ -0,0 +1,50 @@
+package com.isbx.androidtools.media;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each {@link ResampleFilter} scaling a decoded bitmap down to a single output size.
+ * The source size matches a 12MP photo decoded at sample sizes 1 and 2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ResampleBenchmark {
+
+    @Param({ "NEAREST", "BILINEAR", "PROGRESSIVE_HALVING", "AREA_AVERAGE" })
+    public ResampleFilter filter;
+
+    @Param({ "4000x3000", "2000x1500" })
+    public String sourceSize;
+
+    @Param({ "1024", "256" })
+    public int targetSize;
+
+    private int[] pixels;
+    private int width;
+    private int height;
+    private int[] outputSize;
+
+    @Setup
+    public void setUp() {
+        String[] parts = sourceSize.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        pixels = SyntheticImages.pixels(width, height);
+        outputSize = ImageGeometry.scaledSize(width, height, targetSize, targetSize);
+    }
+
+    @Benchmark
+    public int[] resample() {
+        return PixelResampler.resample(pixels, width, height, outputSize[0], outputSize[1], filter);
+    }
+}
@@ -0,0 +1,107 @@
+package com.isbx.androidtools.media;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures an end-to-end resize of a synthetic camera image to the default large, medium and
+ * small sizes of {@link ImageResizeConfig}, following the same steps as
+ * {@code ImageResizer.scaleImages}: plan a single sample size, decode, then cascade each output
+ * from the next larger one while applying the EXIF orientation.
+ *
+ * <p>
+ * Decoding at a sample size is approximated by repeated 2x2 box filtering, which is close to what
+ * the JPEG decoder's DCT scaling produces. Encoding is not included, since the platform encoder
+ * has no equivalent on the JVM.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ResizePipelineBenchmark {
+
+    private static final int[] TARGETS = { 1024, 512, 256 };
+
+    @Param({ "12", "24", "48" })
+    public int megapixels;
+
+    @Param({ "PROGRESSIVE_HALVING", "AREA_AVERAGE" })
+    public ResampleFilter filter;
+
+    @Param({ "1", "6" })
+    public int orientation;
+
+    private int[] pixels;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        int[] size = SyntheticImages.size(megapixels);
+        width = size[0];
+        height = size[1];
+        pixels = SyntheticImages.pixels(width, height);
+    }
+
+    @Benchmark
+    public void resize(Blackhole blackhole) {
+        boolean swap = ExifOrientation.swapsDimensions(orientation);
+
+        // Plan a single decode against the largest output
+        int sampleSize = 0;
+        for (int target : TARGETS) {
+            int[] size = ImageGeometry.scaledSize(width, height, orientation, target, target);
+            int candidate = swap
+                ? ImageGeometry.calculateInSampleSize(width, height, size[1], size[0])
+                : ImageGeometry.calculateInSampleSize(width, height, size[0], size[1]);
+            sampleSize = sampleSize == 0 ? candidate : Math.min(sampleSize, candidate);
+        }
+
+        // Decode
+        int[] decoded = pixels;
+        int decodedWidth = width;
+        int decodedHeight = height;
+        for (int sample = sampleSize; sample > 1; sample /= 2) {
+            decoded = PixelResampler.halve(decoded, decodedWidth, decodedHeight);
+            decodedWidth /= 2;
+            decodedHeight /= 2;
+        }
+
+        // Cascade from largest to smallest, orienting the first output only
+        int[] previous = null;
+        int previousWidth = 0;
+        int previousHeight = 0;
+        for (int target : TARGETS) {
+            int[] size = ImageGeometry.scaledSize(decodedWidth, decodedHeight, orientation, target, target);
+            int[] out;
+            if (previous == null) {
+                int scaledWidth = swap ? size[1] : size[0];
+                int scaledHeight = swap ? size[0] : size[1];
+                out = PixelResampler.resample(decoded, decodedWidth, decodedHeight, scaledWidth,
+                    scaledHeight, filter);
+                out = ExifOrientation.transform(out, scaledWidth, scaledHeight, orientation);
+            } else {
+                out = PixelResampler.resample(previous, previousWidth, previousHeight, size[0],
+                    size[1], filter);
+            }
+            blackhole.consume(out);
+
+            previous = out;
+            previousWidth = size[0];
+            previousHeight = size[1];
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.isbx.androidtools.media;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sample size selection and output size planning, which run once per output for every
+ * resize before any pixels are touched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SampleSizeBenchmark {
+
+    private static final int[][] SOURCES = {
+        { 4032, 3024 }, { 3024, 4032 }, { 6000, 4000 }, { 8000, 6000 }, { 12000, 3000 }, { 640, 480 }
+    };
+    private static final int[][] TARGETS = {
+        { 2048, 2048 }, { 1024, 1024 }, { 512, 512 }, { 256, 256 }, { 1280, Integer.MAX_VALUE }, { 64, 64 }
+    };
+
+    private int[][] sources;
+    private int[][] targets;
+
+    @Setup
+    public void setUp() {
+        sources = SOURCES.clone();
+        targets = TARGETS.clone();
+    }
+
+    @Benchmark
+    public void calculateInSampleSize(Blackhole blackhole) {
+        for (int[] source : sources) {
+            for (int[] target : targets) {
+                blackhole.consume(ImageGeometry.calculateInSampleSize(source[0], source[1],
+                    target[0], target[1]));
+            }
+        }
+    }
+
+    @Benchmark
+    public void planOutputs(Blackhole blackhole) {
+        for (int[] source : sources) {
+            int sampleSize = 0;
+            for (int[] target : targets) {
+                int[] size = ImageGeometry.scaledSize(source[0], source[1], ExifOrientation.ROTATE_90,
+                    target[0], target[1]);
+                int candidate = ImageGeometry.calculateInSampleSize(source[0], source[1], size[1], size[0]);
+                sampleSize = sampleSize == 0 ? candidate : Math.min(sampleSize, candidate);
+            }
+            blackhole.consume(sampleSize);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.isbx.androidtools.media;
+
+import java.util.Random;
+
+/**
+ * Deterministic pixel buffers and encoded headers standing in for camera images in benchmarks.
+ */
+final class SyntheticImages {
+
+    private SyntheticImages() {}
+
+    /**
+     * Returns the width and height of a 4:3 image of roughly the given number of megapixels.
+     */
+    static int[] size(int megapixels) {
+        int width = (int) Math.round(Math.sqrt(megapixels * 1000000.0 * 4 / 3));
+        width -= width % 4;
+        return new int[] { width, width * 3 / 4 };
+    }
+
+    /**
+     * Creates an opaque image with smooth gradients, fine detail and noise, packed as
+     * {@code 0xAARRGGBB}, so neither filter quality shortcuts nor constant runs skew the results.
+     */
+    static int[] pixels(int width, int height) {
+        int[] pixels = new int[width * height];
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                // A fine checkerboard aliases badly under poor filters
+                int b = ((x >> 1) + (y >> 1)) % 2 == 0 ? 40 : 215;
+                int noise = random.nextInt(16) - 8;
+                pixels[y * width + x] = 0xff000000 | clamp(r + noise) << 16 | clamp(g + noise) << 8
+                    | clamp(b + noise);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Creates the first {@code length} bytes of a JPEG file with an APP0 segment followed by an
+     * EXIF segment containing the given orientation and a frame header, padded with entropy-coded-looking data.
+     */
+    static byte[] jpegHeader(int orientation, int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+
+        int offset = 0;
+        offset = put(data, offset, 0xff, 0xd8);
+        // APP0 JFIF
+        offset = put(data, offset, 0xff, 0xe0, 0x00, 0x10, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0);
+        // APP1 EXIF with a big endian TIFF header and a single IFD0 entry
+        offset = put(data, offset, 0xff, 0xe1, 0x00, 0x22, 'E', 'x', 'i', 'f', 0, 0);
+        offset = put(data, offset, 'M', 'M', 0x00, 0x2a, 0x00, 0x00, 0x00, 0x08);
+        offset = put(data, offset, 0x00, 0x01);
+        offset = put(data, offset, 0x01, 0x12, 0x00, 0x03, 0x00, 0x00, 0x00, 0x01,
+            0x00, orientation, 0x00, 0x00);
+        offset = put(data, offset, 0x00, 0x00, 0x00, 0x00);
+        // Baseline frame header for a 4032x3024 YCbCr image
+        offset = put(data, offset, 0xff, 0xc0, 0x00, 0x11, 0x08, 0x0b, 0xd0, 0x0f, 0xc0, 0x03,
+            0x01, 0x22, 0x00, 0x02, 0x11, 0x01, 0x03, 0x11, 0x01);
+        // Start of scan, the rest of the buffer stands in for image data
+        put(data, offset, 0xff, 0xda);
+        return data;
+    }
+
+    private static int put(byte[] data, int offset, int... bytes) {
+        for (int b : bytes) {
+            data[offset++] = (byte) b;
+        }
+        return offset;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,229 @@
+package com.isbx.androidtools.media;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pool of mutable {@link Bitmap}s that can be reused as decode targets
+ * ({@link android.graphics.BitmapFactory.Options#inBitmap}) or as drawing targets, instead of
+ * allocating a new pixel buffer for every operation.
+ *
+ * <p>
+ * Bitmaps are grouped into buckets by allocation size. On API 19 and above a request can be
+ * satisfied by any pooled bitmap whose allocation is large enough, up to twice the requested size,
+ * which is then reconfigured to the requested dimensions. Below API 19 only bitmaps with exactly
+ * the requested dimensions and config are reused.
+ * </p>
+ *
+ * <p>
+ * The total size of the pooled bitmaps is limited by {@code maxBytes}. When the limit is exceeded,
+ * the least recently pooled bitmaps are recycled first.
+ * </p>
+ *
+ * @see ImageResizer#setBitmapPool(BitmapPool)
+ */
+public class BitmapPool {
+
+    private static final int MAX_SIZE_MULTIPLE = 2;
+    private static final int DEFAULT_POOL_HEAP_DIVISOR = 16;
+
+    private static BitmapPool defaultPool;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    private final LinkedList<Bitmap> lru = new LinkedList<>();
+    private final long maxBytes;
+    private long currentBytes = 0;
+
+    /**
+     * Returns the pool shared by all {@link ImageResizer} instances by default. Its size is limited
+     * to one sixteenth of the maximum heap size.
+     *
+     * @return The shared BitmapPool instance
+     */
+    public static synchronized BitmapPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new BitmapPool(Runtime.getRuntime().maxMemory() / DEFAULT_POOL_HEAP_DIVISOR);
+        }
+
+        return defaultPool;
+    }
+
+    /**
+     * Creates a new BitmapPool that will hold at most {@code maxBytes} of pixel data.
+     *
+     * @param maxBytes The maximum total allocation size of the pooled bitmaps, in bytes
+     */
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the total allocation size of the bitmaps currently held by this pool.
+     *
+     * @return The current size of the pool in bytes
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Returns the maximum total allocation size of the bitmaps held by this pool.
+     *
+     * @return The maximum size of the pool in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Removes a bitmap that can hold {@code width} x {@code height} pixels of the given config from
+     * the pool and returns it, cleared to transparent. Returns {@code null} if no suitable bitmap
+     * is pooled.
+     *
+     * @param width The required width
+     * @param height The required height
+     * @param config The required pixel format
+     * @return A mutable {@link Bitmap} with the requested dimensions and config, or {@code null}
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getDirty(width, height, config);
+        if (bitmap != null) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Removes a bitmap that can hold {@code width} x {@code height} pixels of the given config from
+     * the pool and returns it without clearing its contents. This is suitable for use as
+     * {@link android.graphics.BitmapFactory.Options#inBitmap}, since the decoder overwrites every
+     * pixel. Returns {@code null} if no suitable bitmap is pooled.
+     *
+     * @param width The required width
+     * @param height The required height
+     * @param config The required pixel format
+     * @return A mutable {@link Bitmap} with the requested dimensions and config, or {@code null}
+     */
+    public synchronized Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        if (config == null || width <= 0 || height <= 0) {
+            return null;
+        }
+
+        int size = width * height * DecodePlanner.bytesPerPixel(config);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(size);
+            while (entry != null && entry.getKey() <= size * MAX_SIZE_MULTIPLE) {
+                Bitmap bitmap = entry.getValue().peekFirst();
+                if (bitmap != null) {
+                    remove(bitmap, entry.getKey());
+                    bitmap.reconfigure(width, height, config);
+                    return bitmap;
+                }
+                entry = buckets.higherEntry(entry.getKey());
+            }
+        } else {
+            ArrayDeque<Bitmap> bucket = buckets.get(size);
+            if (bucket != null) {
+                for (Bitmap bitmap : bucket) {
+                    if (bitmap.getWidth() == width && bitmap.getHeight() == height
+                        && bitmap.getConfig() == config) {
+                        remove(bitmap, size);
+                        return bitmap;
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns {@code bitmap} to the pool so that its memory can be reused. The caller must not
+     * use the bitmap after calling this method. Bitmaps that cannot be reused (immutable,
+     * recycled, larger than the pool, or on API 26 and above, not in the sRGB color space) are
+     * recycled immediately.
+     *
+     * @param bitmap The {@link Bitmap} to return to the pool. May be {@code null}.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+
+        int size = sizeOf(bitmap);
+        if (!bitmap.isMutable() || size > maxBytes || bitmap.getConfig() == null) {
+            bitmap.recycle();
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.getColorSpace() != null
+            && !bitmap.getColorSpace().isSrgb()) {
+            // Reusing a wide gamut bitmap would change the color space of unrelated outputs
+            bitmap.recycle();
+            return;
+        }
+
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(size, bucket);
+        }
+        bucket.addFirst(bitmap);
+        lru.addLast(bitmap);
+        currentBytes += size;
+
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Recycles all pooled bitmaps.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Recycles the least recently pooled bitmaps until the pool holds at most {@code bytes}.
+     *
+     * @param bytes The target size of the pool in bytes
+     */
+    public synchronized void trimToSize(long bytes) {
+        Iterator<Bitmap> iterator = lru.iterator();
+        while (currentBytes > bytes && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+
+            int size = sizeOf(bitmap);
+            ArrayDeque<Bitmap> bucket = buckets.get(size);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                buckets.remove(size);
+            }
+            currentBytes -= size;
+            bitmap.recycle();
+        }
+    }
+
+    private void remove(Bitmap bitmap, int size) {
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        bucket.remove(bitmap);
+        if (bucket.isEmpty()) {
+            buckets.remove(size);
+        }
+        lru.remove(bitmap);
+        currentBytes -= size;
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+}
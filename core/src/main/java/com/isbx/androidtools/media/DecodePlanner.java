@@ -0,0 +1,101 @@
+package com.isbx.androidtools.media;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * Chooses the sample size and pixel format used to decode a source image so that the decoded
+ * bitmap fits within a memory budget.
+ *
+ * @see ImageResizeConfig#setMemoryBudget(long)
+ */
+class DecodePlanner {
+
+    private static final int DEFAULT_BUDGET_HEAP_DIVISOR = 8;
+
+    /**
+     * The result of planning a decode.
+     */
+    static class Plan {
+        final int sampleSize;
+        final Bitmap.Config config;
+        final long byteCount;
+
+        Plan(int sampleSize, Bitmap.Config config, long byteCount) {
+            this.sampleSize = sampleSize;
+            this.config = config;
+            this.byteCount = byteCount;
+        }
+    }
+
+    private DecodePlanner() {}
+
+    /**
+     * Returns the effective decode budget for {@code config}, substituting the default for a
+     * budget of {@code 0}.
+     */
+    static long getBudget(ImageResizeConfig config) {
+        long budget = config.getMemoryBudget();
+        if (budget <= 0) {
+            budget = Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_HEAP_DIVISOR;
+        }
+        return budget;
+    }
+
+    /**
+     * Plans the decode of an image of {@code width} x {@code height} pixels.
+     *
+     * @param width The width of the source image
+     * @param height The height of the source image
+     * @param minSampleSize The sample size required by the requested output dimensions. The
+     *                      planned sample size will never be smaller than this.
+     * @param opaque Whether the source is known to have no alpha channel
+     * @param config The {@link ImageResizeConfig} containing the memory budget
+     * @return The planned decode parameters
+     */
+    static Plan plan(int width, int height, int minSampleSize, boolean opaque, ImageResizeConfig config) {
+        long budget = getBudget(config);
+        int sampleSize = Math.max(1, minSampleSize);
+
+        long bytes = estimateBytes(width, height, sampleSize, Bitmap.Config.ARGB_8888);
+        if (bytes <= budget) {
+            return new Plan(sampleSize, Bitmap.Config.ARGB_8888, bytes);
+        }
+
+        Bitmap.Config pixelConfig = Bitmap.Config.ARGB_8888;
+        if (opaque && config.isRGB565Enabled()) {
+            pixelConfig = Bitmap.Config.RGB_565;
+            bytes = estimateBytes(width, height, sampleSize, pixelConfig);
+        }
+
+        // Sample sizes are rounded down to a power of 2 by the decoder, so only powers of 2 are
+        // worth trying
+        while (bytes > budget && (width / sampleSize > 1 || height / sampleSize > 1)) {
+            sampleSize *= 2;
+            bytes = estimateBytes(width, height, sampleSize, pixelConfig);
+        }
+
+        return new Plan(sampleSize, pixelConfig, bytes);
+    }
+
+    /**
+     * Estimates the number of bytes a bitmap decoded from an image of {@code width} x
+     * {@code height} pixels with the given sample size and pixel format will occupy.
+     */
+    static long estimateBytes(int width, int height, int sampleSize, Bitmap.Config config) {
+        long sampledWidth = (width + sampleSize - 1) / sampleSize;
+        long sampledHeight = (height + sampleSize - 1) / sampleSize;
+        return sampledWidth * sampledHeight * bytesPerPixel(config);
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+            return 8;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,101 @@
+package com.isbx.androidtools.media;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Chooses the pixel format and color space a source image is decoded with, depending on what the
+ * decoded bitmap will be used for.
+ *
+ * <p>
+ * {@link ImageResizer} first plans a software decode that fits the memory budget (see
+ * {@link ImageResizeConfig#setMemoryBudget(long)}), then passes the planned
+ * {@link BitmapFactory.Options} to {@link DecodeStrategy#configure} to adjust before decoding.
+ * The sample size has already been chosen and should not be changed.
+ * </p>
+ *
+ * <p>
+ * The default strategy, {@link DecodeStrategy#getDefault()}, behaves as follows:
+ * </p>
+ * <ul>
+ *     <li>On API 26 and above, {@link Purpose#DISPLAY} decodes to
+ *     {@link Bitmap.Config#HARDWARE} bitmaps, which live only in graphics memory and cost almost
+ *     nothing on the Java heap. Sources that need an EXIF orientation applied are decoded in
+ *     software instead, since a hardware bitmap can't be drawn into.</li>
+ *     <li>{@link Purpose#ENCODE} uses the planned software decode unchanged.</li>
+ *     <li>Below API 26 the planned software decode is used unchanged for both purposes.</li>
+ * </ul>
+ *
+ * <p>
+ * On API 26 and above, a source decoded to {@link Bitmap.Config#ARGB_8888} without an
+ * {@link BitmapFactory.Options#inPreferredColorSpace} keeps the color space embedded in it, so a
+ * wide gamut photo (such as Display P3) is scaled and encoded without being clipped to sRGB. A
+ * source planned as {@link Bitmap.Config#RGB_565}, which only happens for opaque images that
+ * don't fit the memory budget otherwise, is converted to sRGB. Wide gamut bitmaps are not kept by
+ * {@link BitmapPool}, so they are allocated anew for each image. A strategy that sets
+ * {@code inPreferredColorSpace} to {@code ColorSpace.get(ColorSpace.Named.SRGB)} for
+ * {@link Purpose#ENCODE} gives up the wider gamut in exchange for reusing pooled bitmaps.
+ * </p>
+ *
+ * @see ImageResizer#setDecodeStrategy(DecodeStrategy)
+ */
+public abstract class DecodeStrategy {
+
+    private static final DecodeStrategy DEFAULT = new DefaultDecodeStrategy();
+
+    /**
+     * What a decoded bitmap will be used for.
+     */
+    public enum Purpose {
+        /**
+         * The bitmap will only be drawn to the screen, such as by
+         * {@link ImageResizer#decodeForDisplay(android.net.Uri, ImageResizeConfig.Dimension)}.
+         * It may be immutable and may use {@link Bitmap.Config#HARDWARE}.
+         */
+        DISPLAY,
+        /**
+         * The bitmap will be scaled and compressed to a file. It must use a software
+         * {@link Bitmap.Config}.
+         */
+        ENCODE
+    }
+
+    /**
+     * Returns the default strategy for the API level of the device.
+     *
+     * @return The shared default DecodeStrategy
+     */
+    public static DecodeStrategy getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Adjusts the planned decode of a source image for {@code purpose}, for example by changing
+     * {@link BitmapFactory.Options#inPreferredConfig} or, on API 26 and above,
+     * {@link BitmapFactory.Options#inPreferredColorSpace}.
+     *
+     * @param options The planned options, with the sample size and a software pixel format set
+     * @param purpose What the decoded bitmap will be used for
+     * @param info The metadata of the source, or {@code null} if it could not be probed
+     */
+    public abstract void configure(BitmapFactory.Options options, Purpose purpose, ImageInfo info);
+
+    private static class DefaultDecodeStrategy extends DecodeStrategy {
+        @Override
+        public void configure(BitmapFactory.Options options, Purpose purpose, ImageInfo info) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                return;
+            }
+
+            // Decodes for ENCODE already keep the embedded color space, see the class description
+            if (purpose == Purpose.DISPLAY) {
+                boolean oriented = info == null || ExifOrientation.isNormal(info.getOrientation());
+                if (oriented) {
+                    options.inPreferredConfig = Bitmap.Config.HARDWARE;
+                    options.inMutable = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.isbx.androidtools.media;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The EXIF tags of a JPEG, read from the header bytes already used to probe it so they can be
+ * copied to outputs according to an {@link ExifPolicy}. Has no Android dependencies.
+ *
+ * <p>
+ * Only tags of the primary image and its EXIF and GPS sub-IFDs are kept. Thumbnails, maker notes
+ * and tags that describe the layout of the source file are dropped while reading, since they
+ * would be wrong or needlessly large in a re-encoded output.
+ * </p>
+ */
+final class ExifData {
+
+    // Tags whose values only make sense for the source file, or that are written separately
+    private static final Set<Integer> SKIPPED_TAGS = new HashSet<>();
+    // Tag names matching the TAG_* constants of ExifInterface, mapped to key(ifd, tag)
+    private static final Map<String, Integer> TAG_KEYS = new HashMap<>();
+
+    // Values larger than this are dropped rather than copied to every output
+    private static final int MAX_VALUE_SIZE = 8 * 1024;
+
+    static {
+        int[] ifd0Skipped = {
+            0x0100, // ImageWidth
+            0x0101, // ImageLength
+            0x0102, // BitsPerSample
+            0x0103, // Compression
+            0x0106, // PhotometricInterpretation
+            0x0111, // StripOffsets
+            0x0112, // Orientation
+            0x0115, // SamplesPerPixel
+            0x0116, // RowsPerStrip
+            0x0117, // StripByteCounts
+            0x011c, // PlanarConfiguration
+            0x014a, // SubIFDs
+            0x0201, // JPEGInterchangeFormat
+            0x0202, // JPEGInterchangeFormatLength
+            0x0211, // YCbCrCoefficients
+            0x0212, // YCbCrSubSampling
+            0x0213, // YCbCrPositioning
+        };
+        for (int tag : ifd0Skipped) {
+            SKIPPED_TAGS.add(key(ExifWriter.IFD_0, tag));
+        }
+        int[] exifSkipped = {
+            0x927c, // MakerNote
+            0xa002, // PixelXDimension
+            0xa003, // PixelYDimension
+            0xa005, // InteroperabilityIFDPointer
+        };
+        for (int tag : exifSkipped) {
+            SKIPPED_TAGS.add(key(ExifWriter.IFD_EXIF, tag));
+        }
+
+        addTag(ExifWriter.IFD_0, 0x010e, "ImageDescription");
+        addTag(ExifWriter.IFD_0, 0x010f, "Make");
+        addTag(ExifWriter.IFD_0, 0x0110, "Model");
+        addTag(ExifWriter.IFD_0, 0x011a, "XResolution");
+        addTag(ExifWriter.IFD_0, 0x011b, "YResolution");
+        addTag(ExifWriter.IFD_0, 0x0128, "ResolutionUnit");
+        addTag(ExifWriter.IFD_0, 0x0131, "Software");
+        addTag(ExifWriter.IFD_0, 0x0132, "DateTime");
+        addTag(ExifWriter.IFD_0, 0x013b, "Artist");
+        addTag(ExifWriter.IFD_0, 0x8298, "Copyright");
+
+        addTag(ExifWriter.IFD_EXIF, 0x829a, "ExposureTime");
+        addTag(ExifWriter.IFD_EXIF, 0x829d, "FNumber");
+        addTag(ExifWriter.IFD_EXIF, 0x8822, "ExposureProgram");
+        addTag(ExifWriter.IFD_EXIF, 0x8827, "ISOSpeedRatings");
+        addTag(ExifWriter.IFD_EXIF, 0x8827, "PhotographicSensitivity");
+        addTag(ExifWriter.IFD_EXIF, 0x9000, "ExifVersion");
+        addTag(ExifWriter.IFD_EXIF, 0x9003, "DateTimeOriginal");
+        addTag(ExifWriter.IFD_EXIF, 0x9004, "DateTimeDigitized");
+        addTag(ExifWriter.IFD_EXIF, 0x9010, "OffsetTime");
+        addTag(ExifWriter.IFD_EXIF, 0x9011, "OffsetTimeOriginal");
+        addTag(ExifWriter.IFD_EXIF, 0x9012, "OffsetTimeDigitized");
+        addTag(ExifWriter.IFD_EXIF, 0x9201, "ShutterSpeedValue");
+        addTag(ExifWriter.IFD_EXIF, 0x9202, "ApertureValue");
+        addTag(ExifWriter.IFD_EXIF, 0x9203, "BrightnessValue");
+        addTag(ExifWriter.IFD_EXIF, 0x9204, "ExposureBiasValue");
+        addTag(ExifWriter.IFD_EXIF, 0x9205, "MaxApertureValue");
+        addTag(ExifWriter.IFD_EXIF, 0x9206, "SubjectDistance");
+        addTag(ExifWriter.IFD_EXIF, 0x9207, "MeteringMode");
+        addTag(ExifWriter.IFD_EXIF, 0x9208, "LightSource");
+        addTag(ExifWriter.IFD_EXIF, 0x9209, "Flash");
+        addTag(ExifWriter.IFD_EXIF, 0x920a, "FocalLength");
+        addTag(ExifWriter.IFD_EXIF, 0x9286, "UserComment");
+        addTag(ExifWriter.IFD_EXIF, 0x9290, "SubSecTime");
+        addTag(ExifWriter.IFD_EXIF, 0x9291, "SubSecTimeOriginal");
+        addTag(ExifWriter.IFD_EXIF, 0x9292, "SubSecTimeDigitized");
+        addTag(ExifWriter.IFD_EXIF, 0xa001, "ColorSpace");
+        addTag(ExifWriter.IFD_EXIF, 0xa402, "ExposureMode");
+        addTag(ExifWriter.IFD_EXIF, 0xa403, "WhiteBalance");
+        addTag(ExifWriter.IFD_EXIF, 0xa404, "DigitalZoomRatio");
+        addTag(ExifWriter.IFD_EXIF, 0xa405, "FocalLengthIn35mmFilm");
+        addTag(ExifWriter.IFD_EXIF, 0xa406, "SceneCaptureType");
+        addTag(ExifWriter.IFD_EXIF, 0xa420, "ImageUniqueID");
+        addTag(ExifWriter.IFD_EXIF, 0xa430, "CameraOwnerName");
+        addTag(ExifWriter.IFD_EXIF, 0xa431, "BodySerialNumber");
+        addTag(ExifWriter.IFD_EXIF, 0xa433, "LensMake");
+        addTag(ExifWriter.IFD_EXIF, 0xa434, "LensModel");
+        addTag(ExifWriter.IFD_EXIF, 0xa435, "LensSerialNumber");
+
+        addTag(ExifWriter.IFD_GPS, 0x0000, "GPSVersionID");
+        addTag(ExifWriter.IFD_GPS, 0x0001, "GPSLatitudeRef");
+        addTag(ExifWriter.IFD_GPS, 0x0002, "GPSLatitude");
+        addTag(ExifWriter.IFD_GPS, 0x0003, "GPSLongitudeRef");
+        addTag(ExifWriter.IFD_GPS, 0x0004, "GPSLongitude");
+        addTag(ExifWriter.IFD_GPS, 0x0005, "GPSAltitudeRef");
+        addTag(ExifWriter.IFD_GPS, 0x0006, "GPSAltitude");
+        addTag(ExifWriter.IFD_GPS, 0x0007, "GPSTimeStamp");
+        addTag(ExifWriter.IFD_GPS, 0x000c, "GPSSpeedRef");
+        addTag(ExifWriter.IFD_GPS, 0x000d, "GPSSpeed");
+        addTag(ExifWriter.IFD_GPS, 0x0010, "GPSImgDirectionRef");
+        addTag(ExifWriter.IFD_GPS, 0x0011, "GPSImgDirection");
+        addTag(ExifWriter.IFD_GPS, 0x0012, "GPSMapDatum");
+        addTag(ExifWriter.IFD_GPS, 0x001b, "GPSProcessingMethod");
+        addTag(ExifWriter.IFD_GPS, 0x001d, "GPSDateStamp");
+    }
+
+    private final List<Entry> entries;
+
+    private ExifData(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the EXIF tags from the first {@code length} bytes of a JPEG.
+     *
+     * @return The tags, or {@code null} if there are none within those bytes
+     */
+    static ExifData read(byte[] data, int length) {
+        int tiff = ExifOrientation.findExifPayload(data, length);
+        if (tiff < 0) {
+            return null;
+        }
+        // The segment length field sits between the marker and the "Exif\0\0" header
+        int end = Math.min(length, tiff - 8 + ((data[tiff - 8] & 0xff) << 8 | (data[tiff - 7] & 0xff)));
+        if (end < tiff + 8) {
+            return null;
+        }
+
+        boolean littleEndian;
+        if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return null;
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        Reader reader = new Reader(data, tiff, end, littleEndian);
+        long ifd0 = reader.u32(tiff + 4);
+        long[] subIfds = reader.readIfd(ifd0, ExifWriter.IFD_0, entries);
+        if (subIfds[0] > 0) {
+            reader.readIfd(subIfds[0], ExifWriter.IFD_EXIF, entries);
+        }
+        if (subIfds[1] > 0) {
+            reader.readIfd(subIfds[1], ExifWriter.IFD_GPS, entries);
+        }
+
+        return entries.isEmpty() ? null : new ExifData(Collections.unmodifiableList(entries));
+    }
+
+    /**
+     * Sets the tags allowed by {@code policy} on {@code writer}.
+     *
+     * @param whitelist The names of the tags to copy for {@link ExifPolicy#WHITELIST}
+     */
+    void copyTo(ExifWriter writer, ExifPolicy policy, Set<String> whitelist) {
+        if (policy == ExifPolicy.STRIP_ALL) {
+            return;
+        }
+
+        Set<Integer> allowed = null;
+        if (policy == ExifPolicy.WHITELIST) {
+            allowed = new HashSet<>();
+            for (String name : whitelist) {
+                Integer key = TAG_KEYS.get(name);
+                if (key != null) {
+                    allowed.add(key);
+                }
+            }
+        }
+
+        for (Entry entry : entries) {
+            if (allowed == null || allowed.contains(key(entry.ifd, entry.tag))) {
+                writer.setAttribute(entry.ifd, entry.tag, entry.type, entry.count, entry.value);
+            }
+        }
+    }
+
+    private static void addTag(int ifd, int tag, String name) {
+        TAG_KEYS.put(name, key(ifd, tag));
+    }
+
+    private static int key(int ifd, int tag) {
+        return ifd << 16 | tag;
+    }
+
+    private static class Entry {
+        final int ifd;
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] value;
+
+        Entry(int ifd, int tag, int type, int count, byte[] value) {
+            this.ifd = ifd;
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Reads IFDs from a TIFF structure, bounded to the EXIF segment.
+     */
+    private static class Reader {
+        private final byte[] data;
+        private final int tiff;
+        private final int end;
+        private final boolean littleEndian;
+
+        Reader(byte[] data, int tiff, int end, boolean littleEndian) {
+            this.data = data;
+            this.tiff = tiff;
+            this.end = end;
+            this.littleEndian = littleEndian;
+        }
+
+        /**
+         * Adds the entries of the IFD at {@code offset} to {@code entries}.
+         *
+         * @return The offsets of the EXIF and GPS sub-IFDs, or {@code 0} if the IFD has none
+         */
+        long[] readIfd(long offset, int ifd, List<Entry> entries) {
+            long[] subIfds = new long[2];
+            if (offset < 8 || tiff + offset + 2 > end) {
+                return subIfds;
+            }
+
+            int start = tiff + (int) offset;
+            int count = u16(start);
+            for (int i = 0; i < count; i++) {
+                int entry = start + 2 + i * 12;
+                if (entry + 12 > end) {
+                    break;
+                }
+
+                int tag = u16(entry);
+                int type = u16(entry + 2);
+                long valueCount = u32(entry + 4);
+                if (ifd == ExifWriter.IFD_0 && tag == ExifWriter.TAG_EXIF_IFD_POINTER) {
+                    subIfds[0] = u32(entry + 8);
+                    continue;
+                }
+                if (ifd == ExifWriter.IFD_0 && tag == ExifWriter.TAG_GPS_IFD_POINTER) {
+                    subIfds[1] = u32(entry + 8);
+                    continue;
+                }
+                if (SKIPPED_TAGS.contains(key(ifd, tag))) {
+                    continue;
+                }
+
+                int typeSize = ExifWriter.getTypeSize(type);
+                long size = valueCount * typeSize;
+                if (typeSize == 0 || valueCount < 1 || size > MAX_VALUE_SIZE) {
+                    continue;
+                }
+                int valueOffset = size <= 4 ? entry + 8 : tiff + (int) Math.min(u32(entry + 8), end);
+                if (valueOffset + size > end) {
+                    continue;
+                }
+
+                entries.add(new Entry(ifd, tag, type, (int) valueCount,
+                    toBigEndian(valueOffset, (int) size, type)));
+            }
+            return subIfds;
+        }
+
+        /**
+         * Copies a value, swapping each of its components to big-endian byte order.
+         */
+        private byte[] toBigEndian(int offset, int size, int type) {
+            byte[] value = new byte[size];
+            System.arraycopy(data, offset, value, 0, size);
+            if (!littleEndian) {
+                return value;
+            }
+
+            // Rationals are pairs of 32 bit integers
+            int componentSize = type == ExifWriter.TYPE_RATIONAL || type == ExifWriter.TYPE_SRATIONAL
+                ? 4 : ExifWriter.getTypeSize(type);
+            for (int i = 0; i < size; i += componentSize) {
+                for (int j = 0; j < componentSize / 2; j++) {
+                    byte b = value[i + j];
+                    value[i + j] = value[i + componentSize - 1 - j];
+                    value[i + componentSize - 1 - j] = b;
+                }
+            }
+            return value;
+        }
+
+        int u16(int offset) {
+            int b0 = data[offset] & 0xff;
+            int b1 = data[offset + 1] & 0xff;
+            return littleEndian ? b1 << 8 | b0 : b0 << 8 | b1;
+        }
+
+        long u32(int offset) {
+            long high = u16(littleEndian ? offset + 2 : offset);
+            long low = u16(littleEndian ? offset : offset + 2);
+            return high << 16 | low;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.isbx.androidtools.media;
+
+/**
+ * Reads the EXIF orientation tag straight from the header bytes of a JPEG and applies the
+ * corresponding transform to pixel arrays. Has no Android dependencies.
+ *
+ * <p>
+ * The orientation values match the {@code ORIENTATION_*} constants of
+ * {@link android.support.media.ExifInterface}.
+ * </p>
+ */
+final class ExifOrientation {
+
+    static final int UNDEFINED = 0;
+    static final int NORMAL = 1;
+    static final int FLIP_HORIZONTAL = 2;
+    static final int ROTATE_180 = 3;
+    static final int FLIP_VERTICAL = 4;
+    static final int TRANSPOSE = 5;
+    static final int ROTATE_90 = 6;
+    static final int TRANSVERSE = 7;
+    static final int ROTATE_270 = 8;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int MARKER_SOI = 0xd8;
+    private static final int MARKER_APP1 = 0xe1;
+    private static final int MARKER_SOS = 0xda;
+    private static final int MARKER_EOI = 0xd9;
+
+    private ExifOrientation() {}
+
+    /**
+     * Returns whether the given orientation swaps the width and height of the image.
+     */
+    static boolean swapsDimensions(int orientation) {
+        return orientation == TRANSPOSE || orientation == ROTATE_90
+            || orientation == TRANSVERSE || orientation == ROTATE_270;
+    }
+
+    /**
+     * Returns whether the given orientation requires any transform at all.
+     */
+    static boolean isNormal(int orientation) {
+        return orientation < FLIP_HORIZONTAL || orientation > ROTATE_270;
+    }
+
+    /**
+     * Parses the orientation tag from the start of a JPEG file.
+     *
+     * @param data The first bytes of the file. The EXIF segment is normally within the first 64KB.
+     * @param length The number of valid bytes in {@code data}
+     * @return The orientation, or {@link ExifOrientation#UNDEFINED} if the data is not a JPEG or
+     *         has no orientation tag within the first {@code length} bytes
+     */
+    static int read(byte[] data, int length) {
+        int tiff = findExifPayload(data, length);
+        if (tiff < 0) {
+            return UNDEFINED;
+        }
+        return readTiffOrientation(data, tiff, length);
+    }
+
+    /**
+     * Returns the offset of the TIFF header inside the APP1 EXIF segment of a JPEG, or -1 if there
+     * is none within the first {@code length} bytes.
+     */
+    static int findExifPayload(byte[] data, int length) {
+        if (length < 4 || u8(data, 0) != 0xff || u8(data, 1) != MARKER_SOI) {
+            return -1;
+        }
+
+        int offset = 2;
+        while (offset + 4 <= length) {
+            if (u8(data, offset) != 0xff) {
+                return -1;
+            }
+            int marker = u8(data, offset + 1);
+            if (marker == 0xff) {
+                // fill byte
+                offset++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return -1;
+            }
+
+            int segmentLength = u16(data, offset + 2, false);
+            if (marker == MARKER_APP1 && offset + 10 <= length
+                && data[offset + 4] == 'E' && data[offset + 5] == 'x' && data[offset + 6] == 'i'
+                && data[offset + 7] == 'f' && data[offset + 8] == 0 && data[offset + 9] == 0) {
+                return offset + 10;
+            }
+            offset += 2 + segmentLength;
+        }
+
+        return -1;
+    }
+
+    private static int readTiffOrientation(byte[] data, int tiff, int length) {
+        if (tiff + 8 > length) {
+            return UNDEFINED;
+        }
+
+        boolean littleEndian;
+        if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return UNDEFINED;
+        }
+
+        long ifd = u32(data, tiff + 4, littleEndian);
+        if (ifd < 8 || tiff + ifd + 2 > length) {
+            return UNDEFINED;
+        }
+
+        int entries = tiff + (int) ifd;
+        int count = u16(data, entries, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = entries + 2 + i * 12;
+            if (entry + 12 > length) {
+                break;
+            }
+            if (u16(data, entry, littleEndian) == TAG_ORIENTATION) {
+                int orientation = u16(data, entry + 8, littleEndian);
+                return orientation >= NORMAL && orientation <= ROTATE_270 ? orientation : UNDEFINED;
+            }
+        }
+
+        return UNDEFINED;
+    }
+
+    /**
+     * Applies the given orientation to an image.
+     *
+     * @param pixels The pixels of the image in row-major order
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param orientation The orientation to apply
+     * @return The transformed pixels, or {@code pixels} itself if the orientation is normal. The
+     *         width and height of the result are swapped if
+     *         {@link ExifOrientation#swapsDimensions(int)} is {@code true}.
+     */
+    static int[] transform(int[] pixels, int width, int height, int orientation) {
+        if (isNormal(orientation)) {
+            return pixels;
+        }
+
+        boolean swap = swapsDimensions(orientation);
+        int outWidth = swap ? height : width;
+        int outHeight = swap ? width : height;
+        int[] out = new int[outWidth * outHeight];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int dx;
+                int dy;
+                switch (orientation) {
+                    case FLIP_HORIZONTAL:
+                        dx = width - 1 - x;
+                        dy = y;
+                        break;
+                    case ROTATE_180:
+                        dx = width - 1 - x;
+                        dy = height - 1 - y;
+                        break;
+                    case FLIP_VERTICAL:
+                        dx = x;
+                        dy = height - 1 - y;
+                        break;
+                    case TRANSPOSE:
+                        dx = y;
+                        dy = x;
+                        break;
+                    case ROTATE_90:
+                        dx = height - 1 - y;
+                        dy = x;
+                        break;
+                    case TRANSVERSE:
+                        dx = height - 1 - y;
+                        dy = width - 1 - x;
+                        break;
+                    case ROTATE_270:
+                    default:
+                        dx = y;
+                        dy = width - 1 - x;
+                        break;
+                }
+                out[dy * outWidth + dx] = pixels[y * width + x];
+            }
+        }
+
+        return out;
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xff;
+    }
+
+    private static int u16(byte[] data, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return u8(data, offset) | u8(data, offset + 1) << 8;
+        }
+        return u8(data, offset) << 8 | u8(data, offset + 1);
+    }
+
+    private static long u32(byte[] data, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return (u16(data, offset, true) | (long) u16(data, offset + 2, true) << 16) & 0xffffffffL;
+        }
+        return ((long) u16(data, offset, false) << 16 | u16(data, offset + 2, false)) & 0xffffffffL;
+    }
+}
@@ -0,0 +1,72 @@
+package com.isbx.androidtools.media;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Inserts an APP1 EXIF segment directly after the start of image marker of a JPEG as it is
+ * written, so the metadata is part of the file from the start instead of being added by reading
+ * and rewriting it afterwards. Output that doesn't start with a JPEG marker is passed through
+ * unchanged.
+ *
+ * <p>
+ * The encoder must not write an EXIF segment of its own. {@link android.graphics.Bitmap#compress}
+ * only writes a JFIF segment, which may follow the EXIF segment.
+ * </p>
+ *
+ * @see ExifWriter
+ */
+final class ExifOutputStream extends FilterOutputStream {
+
+    private final byte[] segment;
+    private final byte[] head = new byte[2];
+    private int headLength = 0;
+    private boolean inserted = false;
+
+    ExifOutputStream(OutputStream out, byte[] segment) {
+        super(out);
+        this.segment = segment;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (inserted) {
+            out.write(b);
+            return;
+        }
+
+        head[headLength++] = (byte) b;
+        if (headLength == head.length) {
+            writeHead();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (!inserted && len > 0) {
+            write(b[off++]);
+            len--;
+        }
+        if (len > 0) {
+            out.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!inserted) {
+            // Output too short to be a JPEG
+            writeHead();
+        }
+        super.close();
+    }
+
+    private void writeHead() throws IOException {
+        out.write(head, 0, headLength);
+        if (headLength == head.length && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xd8) {
+            out.write(segment);
+        }
+        inserted = true;
+    }
+}
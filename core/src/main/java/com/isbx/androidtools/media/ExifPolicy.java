@@ -0,0 +1,34 @@
+package com.isbx.androidtools.media;
+
+/**
+ * Controls which EXIF metadata of a JPEG source is carried over to the JPEG outputs of
+ * {@link ImageResizer}. Whatever the policy, the orientation of every output is normal, since the
+ * source orientation is applied to the pixels while scaling.
+ *
+ * <p>
+ * Tags are copied while each output is encoded, from the header already read to plan the decode,
+ * so no policy costs any extra file reads or writes.
+ * </p>
+ *
+ * @see ImageResizeConfig#setExifPolicy(ExifPolicy)
+ */
+public enum ExifPolicy {
+    /**
+     * No metadata is copied from the source. Outputs only carry their orientation and the time
+     * they were written as DateTimeOriginal. This is the safest choice for images that are
+     * uploaded or shared.
+     */
+    STRIP_ALL,
+    /**
+     * Only the tags named in {@link ImageResizeConfig#getExifWhitelist()} are copied from the
+     * source. The default whitelist contains capture settings and times, but no location or
+     * device identifiers.
+     */
+    WHITELIST,
+    /**
+     * All tags of the primary image are copied from the source, including its location and the
+     * device it was taken with. Thumbnails, maker notes and tags describing the layout of the
+     * source file are not copied.
+     */
+    PRESERVE
+}
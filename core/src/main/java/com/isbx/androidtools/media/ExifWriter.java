@@ -0,0 +1,268 @@
+package com.isbx.androidtools.media;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds a JPEG APP1 EXIF segment from scratch, to be inserted into an encoded JPEG by
+ * {@link ExifOutputStream} as it is written. Has no Android dependencies.
+ *
+ * <p>
+ * Entries are grouped into the primary IFD (IFD0), the EXIF sub-IFD and the GPS sub-IFD. The
+ * pointers from IFD0 to the sub-IFDs are added automatically when they have entries. Values are
+ * given in big-endian byte order, which is the byte order of the written segment.
+ * </p>
+ */
+final class ExifWriter {
+
+    static final int IFD_0 = 0;
+    static final int IFD_EXIF = 1;
+    static final int IFD_GPS = 2;
+
+    static final int TYPE_BYTE = 1;
+    static final int TYPE_ASCII = 2;
+    static final int TYPE_SHORT = 3;
+    static final int TYPE_LONG = 4;
+    static final int TYPE_RATIONAL = 5;
+    static final int TYPE_SBYTE = 6;
+    static final int TYPE_UNDEFINED = 7;
+    static final int TYPE_SSHORT = 8;
+    static final int TYPE_SLONG = 9;
+    static final int TYPE_SRATIONAL = 10;
+    static final int TYPE_FLOAT = 11;
+    static final int TYPE_DOUBLE = 12;
+
+    static final int TAG_ORIENTATION = 0x0112;
+    static final int TAG_EXIF_IFD_POINTER = 0x8769;
+    static final int TAG_GPS_IFD_POINTER = 0x8825;
+    static final int TAG_DATETIME_ORIGINAL = 0x9003;
+
+    /**
+     * The largest APP1 segment a JPEG can hold, including its length field.
+     */
+    static final int MAX_SEGMENT_LENGTH = 0xffff;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String DATE_FORMAT = "yyyy:MM:dd HH:mm:ss";
+    // APP1 marker, length field and "Exif\0\0"
+    private static final int SEGMENT_HEADER_SIZE = 10;
+    // Byte order, magic number and IFD0 offset
+    private static final int TIFF_HEADER_SIZE = 8;
+
+    private final TreeMap<Integer, Entry> ifd0 = new TreeMap<>();
+    private final TreeMap<Integer, Entry> exifIfd = new TreeMap<>();
+    private final TreeMap<Integer, Entry> gpsIfd = new TreeMap<>();
+
+    /**
+     * Returns the size in bytes of a single value of the given type, or 0 if the type is unknown.
+     */
+    static int getTypeSize(int type) {
+        switch (type) {
+            case TYPE_BYTE:
+            case TYPE_ASCII:
+            case TYPE_SBYTE:
+            case TYPE_UNDEFINED:
+                return 1;
+            case TYPE_SHORT:
+            case TYPE_SSHORT:
+                return 2;
+            case TYPE_LONG:
+            case TYPE_SLONG:
+            case TYPE_FLOAT:
+                return 4;
+            case TYPE_RATIONAL:
+            case TYPE_SRATIONAL:
+            case TYPE_DOUBLE:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Sets the orientation tag in IFD0.
+     */
+    ExifWriter setOrientation(int orientation) {
+        return setAttribute(IFD_0, TAG_ORIENTATION, TYPE_SHORT, 1,
+            new byte[] { (byte) (orientation >> 8), (byte) orientation });
+    }
+
+    /**
+     * Sets the DateTimeOriginal tag in the EXIF IFD, in the local time zone.
+     */
+    ExifWriter setDateTimeOriginal(Date date) {
+        return setAscii(IFD_EXIF, TAG_DATETIME_ORIGINAL,
+            new SimpleDateFormat(DATE_FORMAT, Locale.US).format(date));
+    }
+
+    /**
+     * Sets an ASCII tag, adding the terminating NUL.
+     */
+    ExifWriter setAscii(int ifd, int tag, String value) {
+        byte[] chars = value.getBytes(ASCII);
+        byte[] bytes = new byte[chars.length + 1];
+        System.arraycopy(chars, 0, bytes, 0, chars.length);
+        return setAttribute(ifd, tag, TYPE_ASCII, bytes.length, bytes);
+    }
+
+    /**
+     * Sets a tag to {@code count} values of {@code type}, replacing any previous value.
+     *
+     * @param value The values in big-endian byte order
+     * @throws IllegalArgumentException if the type is unknown or the length of {@code value} does
+     *         not match {@code count}
+     */
+    ExifWriter setAttribute(int ifd, int tag, int type, int count, byte[] value) {
+        int typeSize = getTypeSize(type);
+        if (typeSize == 0 || count < 1 || (long) count * typeSize != value.length) {
+            throw new IllegalArgumentException("Invalid value for EXIF tag " + Integer.toHexString(tag));
+        }
+        if (tag == TAG_EXIF_IFD_POINTER || tag == TAG_GPS_IFD_POINTER) {
+            // Written automatically from the sub-IFD entries
+            return this;
+        }
+
+        getIfd(ifd).put(tag, new Entry(type, count, value));
+        return this;
+    }
+
+    /**
+     * Returns whether a tag has been set.
+     */
+    boolean hasAttribute(int ifd, int tag) {
+        return getIfd(ifd).containsKey(tag);
+    }
+
+    /**
+     * Returns the number of bytes {@link ExifWriter#toSegment()} would currently produce.
+     */
+    int getSegmentLength() {
+        TreeMap<Integer, Entry> root = getRootIfd(0, 0);
+        int length = SEGMENT_HEADER_SIZE + TIFF_HEADER_SIZE + getIfdSize(root);
+        if (!exifIfd.isEmpty()) {
+            length += getIfdSize(exifIfd);
+        }
+        if (!gpsIfd.isEmpty()) {
+            length += getIfdSize(gpsIfd);
+        }
+        return length;
+    }
+
+    /**
+     * Builds the complete APP1 segment, starting with its marker.
+     *
+     * @throws IllegalStateException if the entries do not fit within
+     *         {@link ExifWriter#MAX_SEGMENT_LENGTH}
+     */
+    byte[] toSegment() {
+        int rootSize = getIfdSize(getRootIfd(0, 0));
+        int exifOffset = TIFF_HEADER_SIZE + rootSize;
+        int gpsOffset = exifOffset + (exifIfd.isEmpty() ? 0 : getIfdSize(exifIfd));
+        int tiffLength = gpsOffset + (gpsIfd.isEmpty() ? 0 : getIfdSize(gpsIfd));
+        // The length field counts itself but not the marker
+        int segmentLength = SEGMENT_HEADER_SIZE - 2 + tiffLength;
+        if (segmentLength > MAX_SEGMENT_LENGTH) {
+            throw new IllegalStateException("EXIF data is too large (" + segmentLength + " bytes)");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + tiffLength);
+        buffer.put((byte) 0xff).put((byte) 0xe1).putShort((short) segmentLength);
+        buffer.put(new byte[] { 'E', 'x', 'i', 'f', 0, 0 });
+
+        int tiff = buffer.position();
+        buffer.put((byte) 'M').put((byte) 'M').putShort((short) 0x2a).putInt(TIFF_HEADER_SIZE);
+        writeIfd(buffer, tiff, TIFF_HEADER_SIZE, getRootIfd(exifOffset, gpsOffset));
+        if (!exifIfd.isEmpty()) {
+            writeIfd(buffer, tiff, exifOffset, exifIfd);
+        }
+        if (!gpsIfd.isEmpty()) {
+            writeIfd(buffer, tiff, gpsOffset, gpsIfd);
+        }
+        return buffer.array();
+    }
+
+    private TreeMap<Integer, Entry> getIfd(int ifd) {
+        switch (ifd) {
+            case IFD_0:
+                return ifd0;
+            case IFD_EXIF:
+                return exifIfd;
+            case IFD_GPS:
+                return gpsIfd;
+            default:
+                throw new IllegalArgumentException("Unknown IFD " + ifd);
+        }
+    }
+
+    /**
+     * Returns IFD0 with pointers to each non-empty sub-IFD at the given offsets.
+     */
+    private TreeMap<Integer, Entry> getRootIfd(int exifOffset, int gpsOffset) {
+        TreeMap<Integer, Entry> root = new TreeMap<>(ifd0);
+        if (!exifIfd.isEmpty()) {
+            root.put(TAG_EXIF_IFD_POINTER, new Entry(TYPE_LONG, 1, toBytes(exifOffset)));
+        }
+        if (!gpsIfd.isEmpty()) {
+            root.put(TAG_GPS_IFD_POINTER, new Entry(TYPE_LONG, 1, toBytes(gpsOffset)));
+        }
+        return root;
+    }
+
+    /**
+     * Returns the size of an IFD including the values that don't fit within its entries.
+     */
+    private static int getIfdSize(TreeMap<Integer, Entry> ifd) {
+        int size = 2 + ifd.size() * 12 + 4;
+        for (Entry entry : ifd.values()) {
+            if (entry.value.length > 4) {
+                // Values are kept word aligned
+                size += entry.value.length + (entry.value.length & 1);
+            }
+        }
+        return size;
+    }
+
+    private static void writeIfd(ByteBuffer buffer, int tiff, int offset, TreeMap<Integer, Entry> ifd) {
+        buffer.position(tiff + offset);
+        buffer.putShort((short) ifd.size());
+        int dataOffset = offset + 2 + ifd.size() * 12 + 4;
+        for (Map.Entry<Integer, Entry> mapEntry : ifd.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            buffer.putShort(mapEntry.getKey().shortValue());
+            buffer.putShort((short) entry.type);
+            buffer.putInt(entry.count);
+            if (entry.value.length <= 4) {
+                // Small values are stored inline, left aligned
+                buffer.put(entry.value);
+                buffer.put(new byte[4 - entry.value.length]);
+            } else {
+                buffer.putInt(dataOffset);
+                System.arraycopy(entry.value, 0, buffer.array(), tiff + dataOffset, entry.value.length);
+                dataOffset += entry.value.length + (entry.value.length & 1);
+            }
+        }
+        // No next IFD, since no thumbnail is written
+        buffer.putInt(0);
+    }
+
+    private static byte[] toBytes(int value) {
+        return new byte[] { (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value };
+    }
+
+    private static class Entry {
+        final int type;
+        final int count;
+        final byte[] value;
+
+        Entry(int type, int count, byte[] value) {
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+}
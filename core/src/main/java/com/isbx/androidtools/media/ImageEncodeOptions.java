@@ -0,0 +1,197 @@
+package com.isbx.androidtools.media;
+
+/**
+ * A configuration class for how a resized image should be encoded by {@link ImageResizer}. The
+ * default options keep the format of the source image (JPEG sources are written as JPEG, all
+ * others as PNG) at quality 100.
+ *
+ * <p>
+ * Setting a target file size with {@link ImageEncodeOptions#setTargetFileSize(long)} makes the
+ * quality an upper bound: lossy outputs are re-encoded at lower qualities, down to
+ * {@link ImageEncodeOptions#getMinQuality()}, to find the highest quality that fits within the
+ * target size.
+ * </p>
+ *
+ * @see ImageResizeConfig#setLargeEncodeOptions(ImageEncodeOptions)
+ * @see ImageResizeConfig#setMediumEncodeOptions(ImageEncodeOptions)
+ * @see ImageResizeConfig#setSmallEncodeOptions(ImageEncodeOptions)
+ */
+public class ImageEncodeOptions {
+
+    private static final int DEFAULT_QUALITY = 100;
+    private static final int DEFAULT_MIN_QUALITY = 40;
+
+    private Format format = Format.AUTO;
+    private int quality = DEFAULT_QUALITY;
+    private int minQuality = DEFAULT_MIN_QUALITY;
+    private long targetFileSize = 0;
+
+    /**
+     * Creates an ImageEncodeOptions instance with the default settings.
+     */
+    public ImageEncodeOptions() {
+    }
+
+    /**
+     * Creates an ImageEncodeOptions instance with the given format and quality.
+     *
+     * @param format The {@link Format} to encode with
+     * @param quality The quality to encode with, from 0 to 100
+     */
+    public ImageEncodeOptions(Format format, int quality) {
+        setFormat(format);
+        setQuality(quality);
+    }
+
+    /**
+     * Returns the format resized images will be encoded with.
+     *
+     * @return The output {@link Format}
+     *
+     * @see ImageEncodeOptions#setFormat(Format)
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Sets the format resized images will be encoded with. Defaults to {@link Format#AUTO}.
+     * <p>
+     * JPEG has no alpha channel, so transparent areas of the source will be written as black if
+     * {@link Format#JPEG} is used for images with transparency.
+     * </p>
+     *
+     * @param format The output {@link Format}
+     * @return This ImageEncodeOptions object to allow for method chaining
+     *
+     * @see ImageEncodeOptions#getFormat()
+     */
+    public ImageEncodeOptions setFormat(Format format) {
+        this.format = format != null ? format : Format.AUTO;
+        return this;
+    }
+
+    /**
+     * Returns the quality lossy formats will be encoded with.
+     *
+     * @return The quality, from 0 to 100
+     *
+     * @see ImageEncodeOptions#setQuality(int)
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Sets the quality lossy formats will be encoded with. Ignored for PNG. Defaults to 100.
+     * <p>
+     * If a target file size is set, this is the highest quality that will be tried.
+     * </p>
+     *
+     * @param quality The quality, from 0 to 100
+     * @return This ImageEncodeOptions object to allow for method chaining
+     *
+     * @see ImageEncodeOptions#getQuality()
+     * @see ImageEncodeOptions#setTargetFileSize(long)
+     */
+    public ImageEncodeOptions setQuality(int quality) {
+        this.quality = clampQuality(quality);
+        return this;
+    }
+
+    /**
+     * Returns the lowest quality that will be tried when searching for a quality that fits the
+     * target file size.
+     *
+     * @return The minimum quality, from 0 to 100
+     *
+     * @see ImageEncodeOptions#setMinQuality(int)
+     */
+    public int getMinQuality() {
+        return minQuality;
+    }
+
+    /**
+     * Sets the lowest quality that will be tried when searching for a quality that fits the
+     * target file size. If the image does not fit the target even at this quality, it is written
+     * at this quality anyway. Defaults to 40.
+     *
+     * @param minQuality The minimum quality, from 0 to 100
+     * @return This ImageEncodeOptions object to allow for method chaining
+     *
+     * @see ImageEncodeOptions#getMinQuality()
+     */
+    public ImageEncodeOptions setMinQuality(int minQuality) {
+        this.minQuality = clampQuality(minQuality);
+        return this;
+    }
+
+    /**
+     * Returns the file size in bytes that lossy outputs should fit within, or {@code 0} if the
+     * quality is fixed.
+     *
+     * @return The target file size in bytes, or {@code 0}
+     *
+     * @see ImageEncodeOptions#setTargetFileSize(long)
+     */
+    public long getTargetFileSize() {
+        return targetFileSize;
+    }
+
+    /**
+     * Sets the file size in bytes that lossy outputs should fit within. The output is encoded at
+     * the highest quality between {@link ImageEncodeOptions#getMinQuality()} and
+     * {@link ImageEncodeOptions#getQuality()} that fits, found by binary search. Each step of the
+     * search is a full encode, so this costs up to about seven encodes per output.
+     * <p>
+     * The default of {@code 0} disables the search and always uses
+     * {@link ImageEncodeOptions#getQuality()}. PNG output is lossless and is never searched.
+     * </p>
+     *
+     * @param targetFileSize The target file size in bytes, or {@code 0} to disable
+     * @return This ImageEncodeOptions object to allow for method chaining
+     *
+     * @see ImageEncodeOptions#getTargetFileSize()
+     */
+    public ImageEncodeOptions setTargetFileSize(long targetFileSize) {
+        this.targetFileSize = Math.max(0, targetFileSize);
+        return this;
+    }
+
+    /**
+     * Copies all settings from {@code other} into this object.
+     */
+    void set(ImageEncodeOptions other) {
+        format = other.format;
+        quality = other.quality;
+        minQuality = other.minQuality;
+        targetFileSize = other.targetFileSize;
+    }
+
+    private static int clampQuality(int quality) {
+        return Math.max(0, Math.min(100, quality));
+    }
+
+    /**
+     * The formats resized images can be encoded with.
+     */
+    public enum Format {
+        /**
+         * JPEG sources are written as {@link Format#JPEG}, all other sources as
+         * {@link Format#PNG}.
+         */
+        AUTO,
+        /**
+         * Lossy, no alpha channel. The EXIF orientation of the output is reset to normal.
+         */
+        JPEG,
+        /**
+         * Lossless, with alpha channel. The quality setting is ignored.
+         */
+        PNG,
+        /**
+         * Lossy, with alpha channel. Usually 25-35% smaller than JPEG at equivalent quality.
+         */
+        WEBP
+    }
+}
@@ -0,0 +1,125 @@
+package com.isbx.androidtools.media;
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses bitmaps according to an {@link ImageEncodeOptions}, searching for the highest
+ * quality that fits within the target file size if one is set.
+ */
+final class ImageEncoder {
+
+    private ImageEncoder() {}
+
+    /**
+     * Resolves {@link ImageEncodeOptions.Format#AUTO} against the format of the source image.
+     */
+    static ImageEncodeOptions.Format resolveFormat(ImageEncodeOptions options, boolean sourceIsJpeg) {
+        ImageEncodeOptions.Format format = options.getFormat();
+        if (format == ImageEncodeOptions.Format.AUTO) {
+            return sourceIsJpeg ? ImageEncodeOptions.Format.JPEG : ImageEncodeOptions.Format.PNG;
+        }
+        return format;
+    }
+
+    /**
+     * Returns the file extension for the given resolved format.
+     */
+    static String getExtension(ImageEncodeOptions.Format format) {
+        switch (format) {
+            case JPEG:
+                return "jpg";
+            case WEBP:
+                return "webp";
+            case PNG:
+            default:
+                return "png";
+        }
+    }
+
+    /**
+     * Compresses {@code bitmap} to {@code os} in the given resolved format.
+     *
+     * @param exifSegment An APP1 segment built by {@link ExifWriter} to insert into JPEG output,
+     *                    or {@code null}. Its size counts towards the target file size.
+     * @return {@code true} if the bitmap was successfully compressed
+     */
+    static boolean encode(Bitmap bitmap, ImageEncodeOptions.Format format, ImageEncodeOptions options,
+                          byte[] exifSegment, OutputStream os) throws IOException {
+        Bitmap.CompressFormat compressFormat = toCompressFormat(format);
+        if (exifSegment != null && compressFormat == Bitmap.CompressFormat.JPEG) {
+            os = new ExifOutputStream(os, exifSegment);
+        } else {
+            exifSegment = null;
+        }
+
+        if (compressFormat == Bitmap.CompressFormat.PNG || options.getTargetFileSize() <= 0) {
+            return bitmap.compress(compressFormat, options.getQuality(), os);
+        }
+        long targetFileSize = options.getTargetFileSize() - (exifSegment != null ? exifSegment.length : 0);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] best = null;
+
+        // Most images fit at the requested quality, so try it before searching
+        int high = options.getQuality();
+        if (compress(bitmap, compressFormat, high, buffer) <= targetFileSize) {
+            buffer.writeTo(os);
+            return true;
+        }
+
+        // Find the highest quality in [minQuality, quality) that fits within the target size
+        int floor = Math.min(options.getMinQuality(), high);
+        int low = floor;
+        high--;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            if (compress(bitmap, compressFormat, quality, buffer) <= targetFileSize) {
+                best = buffer.toByteArray();
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+
+        if (best == null) {
+            // Nothing fits, so settle for the smallest output allowed
+            if (compress(bitmap, compressFormat, floor, buffer) == Long.MAX_VALUE) {
+                return false;
+            }
+            buffer.writeTo(os);
+        } else {
+            os.write(best);
+        }
+        return true;
+    }
+
+    /**
+     * Compresses {@code bitmap} into {@code buffer}, replacing its contents.
+     *
+     * @return The compressed size in bytes, or {@link Long#MAX_VALUE} if compression failed
+     */
+    private static long compress(Bitmap bitmap, Bitmap.CompressFormat format, int quality,
+                                 ByteArrayOutputStream buffer) {
+        buffer.reset();
+        if (!bitmap.compress(format, quality, buffer)) {
+            return Long.MAX_VALUE;
+        }
+        return buffer.size();
+    }
+
+    private static Bitmap.CompressFormat toCompressFormat(ImageEncodeOptions.Format format) {
+        switch (format) {
+            case JPEG:
+                return Bitmap.CompressFormat.JPEG;
+            case WEBP:
+                return Bitmap.CompressFormat.WEBP;
+            case PNG:
+            default:
+                return Bitmap.CompressFormat.PNG;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.isbx.androidtools.media;
+
+/**
+ * Size calculations shared by the resize pipeline. Has no Android dependencies.
+ */
+final class ImageGeometry {
+
+    private ImageGeometry() {}
+
+    /**
+     * Calculates the largest power-of-2 sample size that will result in a sampled bitmap whose
+     * dimensions will be equal to or greater than {@code reqWidth} and {@code reqHeight}.
+     *
+     * @see ImageResizer#calculateInSampleSize(android.graphics.BitmapFactory.Options, int, int)
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+
+        if (height > reqHeight || width > reqWidth) {
+
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
+            // height and width larger than the requested height and width.
+            while ((halfHeight / inSampleSize) >= reqHeight
+                && (halfWidth / inSampleSize) >= reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+
+        return inSampleSize;
+    }
+
+    /**
+     * Calculates the size of an image with the given raw dimensions after the EXIF orientation
+     * has been applied and it has been scaled to fit within {@code targetWidth} x
+     * {@code targetHeight}.
+     *
+     * @return A two element array containing the oriented, scaled width and height
+     */
+    static int[] scaledSize(int srcWidth, int srcHeight, int orientation, int targetWidth, int targetHeight) {
+        if (ExifOrientation.swapsDimensions(orientation)) {
+            return scaledSize(srcHeight, srcWidth, targetWidth, targetHeight);
+        }
+        return scaledSize(srcWidth, srcHeight, targetWidth, targetHeight);
+    }
+
+    /**
+     * Calculates the size of an image with the given dimensions after it has been scaled to fit
+     * within {@code targetWidth} x {@code targetHeight} while maintaining its aspect ratio. Each
+     * side is at least 1 pixel, even for extreme aspect ratios.
+     *
+     * @return A two element array containing the scaled width and height, in that order
+     */
+    static int[] scaledSize(int srcWidth, int srcHeight, int targetWidth, int targetHeight) {
+        float targetRatio = targetWidth / (float) targetHeight;
+        float srcRatio = srcWidth / (float) srcHeight;
+
+        int width;
+        int height;
+        if (targetRatio > srcRatio) {
+            height = targetHeight;
+            width = (int) (height * srcRatio);
+        } else {
+            width = targetWidth;
+            height = (int) (width / srcRatio);
+        }
+
+        return new int[] { Math.max(1, width), Math.max(1, height) };
+    }
+}
@@ -0,0 +1,290 @@
+package com.isbx.androidtools.media;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Identifies image formats and reads their dimensions from the first bytes of an encoded file.
+ * Has no Android dependencies.
+ */
+final class ImageHeaderParser {
+
+    /**
+     * The most header bytes {@link ImageHeaderParser#parse(InputStream)} will read. JPEG files
+     * with a large EXIF thumbnail can place their dimensions close to this.
+     */
+    static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    // Header reads grow through these sizes until the dimensions are found
+    private static final int[] READ_SIZES = { 4 * 1024, 16 * 1024, MAX_HEADER_SIZE };
+
+    private static final ImageInfo UNKNOWN = new ImageInfo(ImageInfo.Format.UNKNOWN, 0, 0,
+        ExifOrientation.UNDEFINED, ImageInfo.ColorModel.UNKNOWN, true);
+
+    private ImageHeaderParser() {}
+
+    /**
+     * Reads as little of {@code in} as is needed to find the dimensions of the image. At most
+     * {@link ImageHeaderParser#MAX_HEADER_SIZE} bytes are read. {@code in} is not closed.
+     */
+    static ImageInfo parse(InputStream in) throws IOException {
+        byte[] header = new byte[READ_SIZES[0]];
+        int length = 0;
+        ImageInfo info = UNKNOWN;
+        for (int limit : READ_SIZES) {
+            if (header.length < limit) {
+                header = Arrays.copyOf(header, limit);
+            }
+            int read;
+            while (length < limit && (read = in.read(header, length, limit - length)) > 0) {
+                length += read;
+            }
+
+            info = parse(header, length);
+            if (info.hasDimensions() || info.getFormat() == ImageInfo.Format.UNKNOWN || length < limit) {
+                // Done, or there is nothing more to read
+                break;
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Parses the first {@code length} bytes of an encoded image. The dimensions of the result are
+     * {@code 0} if they are not within those bytes.
+     */
+    static ImageInfo parse(byte[] data, int length) {
+        if (isJpeg(data, length)) {
+            return parseJpeg(data, length);
+        }
+        if (startsWith(data, length, 0, 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a)) {
+            return parsePng(data, length);
+        }
+        if (startsWith(data, length, 0, 'G', 'I', 'F', '8')) {
+            return parseGif(data, length);
+        }
+        if (startsWith(data, length, 0, 'R', 'I', 'F', 'F') && startsWith(data, length, 8, 'W', 'E', 'B', 'P')) {
+            return parseWebp(data, length);
+        }
+        if (startsWith(data, length, 4, 'f', 't', 'y', 'p') && isHeifBrand(data, length)) {
+            return parseHeif(data, length);
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns whether the first {@code length} bytes of {@code data} start with the JPEG start of
+     * image marker.
+     */
+    static boolean isJpeg(byte[] data, int length) {
+        return startsWith(data, length, 0, 0xff, 0xd8);
+    }
+
+    private static ImageInfo parseJpeg(byte[] data, int length) {
+        int orientation = ExifOrientation.read(data, length);
+        int width = 0;
+        int height = 0;
+        ImageInfo.ColorModel colorModel = ImageInfo.ColorModel.UNKNOWN;
+
+        int offset = 2;
+        while (offset + 4 <= length) {
+            if (u8(data, offset) != 0xff) {
+                break;
+            }
+            int marker = u8(data, offset + 1);
+            if (marker == 0xff) {
+                // fill byte
+                offset++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xd0 && marker <= 0xd8)) {
+                // standalone markers without a length
+                offset += 2;
+                continue;
+            }
+            if (marker == 0xda || marker == 0xd9) {
+                // start of scan or end of image, no frame header was found
+                break;
+            }
+
+            if (isStartOfFrame(marker)) {
+                if (offset + 10 <= length) {
+                    height = u16be(data, offset + 5);
+                    width = u16be(data, offset + 7);
+                    int components = u8(data, offset + 9);
+                    colorModel = components == 1 ? ImageInfo.ColorModel.GRAYSCALE
+                        : components == 4 ? ImageInfo.ColorModel.CMYK : ImageInfo.ColorModel.RGB;
+                }
+                break;
+            }
+            offset += 2 + u16be(data, offset + 2);
+        }
+
+        return new ImageInfo(ImageInfo.Format.JPEG, width, height, orientation, colorModel, false,
+            ExifData.read(data, length));
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0-SOF15, except DHT (c4), JPG (c8) and DAC (cc) which share the range
+        return marker >= 0xc0 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc;
+    }
+
+    private static ImageInfo parsePng(byte[] data, int length) {
+        // IHDR is always the first chunk
+        if (length < 26 || !startsWith(data, length, 12, 'I', 'H', 'D', 'R')) {
+            return new ImageInfo(ImageInfo.Format.PNG, 0, 0, ExifOrientation.UNDEFINED,
+                ImageInfo.ColorModel.UNKNOWN, true);
+        }
+        int width = u32be(data, 16);
+        int height = u32be(data, 20);
+        int colorType = u8(data, 25);
+
+        ImageInfo.ColorModel colorModel;
+        boolean hasAlpha;
+        switch (colorType) {
+            case 0:
+                colorModel = ImageInfo.ColorModel.GRAYSCALE;
+                hasAlpha = false;
+                break;
+            case 3:
+                colorModel = ImageInfo.ColorModel.INDEXED;
+                hasAlpha = false;
+                break;
+            case 4:
+                colorModel = ImageInfo.ColorModel.GRAYSCALE;
+                hasAlpha = true;
+                break;
+            case 6:
+                colorModel = ImageInfo.ColorModel.RGB;
+                hasAlpha = true;
+                break;
+            case 2:
+            default:
+                colorModel = ImageInfo.ColorModel.RGB;
+                hasAlpha = false;
+                break;
+        }
+
+        if (!hasAlpha) {
+            // A tRNS chunk before the image data adds transparency to any color type. If the image
+            // data isn't reached within the header, assume there may be one.
+            hasAlpha = true;
+            int offset = 8;
+            while (offset + 8 <= length) {
+                if (startsWith(data, length, offset + 4, 't', 'R', 'N', 'S')) {
+                    break;
+                }
+                if (startsWith(data, length, offset + 4, 'I', 'D', 'A', 'T')) {
+                    hasAlpha = false;
+                    break;
+                }
+                int chunkLength = u32be(data, offset);
+                if (chunkLength < 0 || offset + 12 + chunkLength < 0) {
+                    break;
+                }
+                offset += 12 + chunkLength;
+            }
+        }
+
+        return new ImageInfo(ImageInfo.Format.PNG, width, height, ExifOrientation.UNDEFINED,
+            colorModel, hasAlpha);
+    }
+
+    private static ImageInfo parseGif(byte[] data, int length) {
+        int width = length >= 10 ? u16le(data, 6) : 0;
+        int height = length >= 10 ? u16le(data, 8) : 0;
+        // Transparency is declared per frame, so assume it may be present
+        return new ImageInfo(ImageInfo.Format.GIF, width, height, ExifOrientation.UNDEFINED,
+            ImageInfo.ColorModel.INDEXED, true);
+    }
+
+    private static ImageInfo parseWebp(byte[] data, int length) {
+        int width = 0;
+        int height = 0;
+        boolean hasAlpha = false;
+
+        if (startsWith(data, length, 12, 'V', 'P', '8', ' ') && length >= 30) {
+            // Lossy, dimensions follow the frame tag and start code
+            width = u16le(data, 26) & 0x3fff;
+            height = u16le(data, 28) & 0x3fff;
+        } else if (startsWith(data, length, 12, 'V', 'P', '8', 'L') && length >= 25) {
+            // Lossless, 14 bit dimensions minus one packed after the signature byte
+            long bits = u32le(data, 21);
+            width = (int) (bits & 0x3fff) + 1;
+            height = (int) ((bits >> 14) & 0x3fff) + 1;
+            hasAlpha = ((bits >> 28) & 1) != 0;
+        } else if (startsWith(data, length, 12, 'V', 'P', '8', 'X') && length >= 30) {
+            // Extended, 24 bit canvas dimensions minus one
+            hasAlpha = (u8(data, 20) & 0x10) != 0;
+            width = u24le(data, 24) + 1;
+            height = u24le(data, 27) + 1;
+        }
+
+        return new ImageInfo(ImageInfo.Format.WEBP, width, height, ExifOrientation.UNDEFINED,
+            ImageInfo.ColorModel.RGB, hasAlpha);
+    }
+
+    private static boolean isHeifBrand(byte[] data, int length) {
+        return startsWith(data, length, 8, 'h', 'e', 'i', 'c') || startsWith(data, length, 8, 'h', 'e', 'i', 'x')
+            || startsWith(data, length, 8, 'h', 'e', 'v', 'c') || startsWith(data, length, 8, 'h', 'e', 'v', 'x')
+            || startsWith(data, length, 8, 'h', 'e', 'i', 'm') || startsWith(data, length, 8, 'h', 'e', 'i', 's')
+            || startsWith(data, length, 8, 'm', 'i', 'f', '1') || startsWith(data, length, 8, 'm', 's', 'f', '1');
+    }
+
+    private static ImageInfo parseHeif(byte[] data, int length) {
+        // Each image item, including thumbnails and grid tiles, has an image spatial extents
+        // property. The primary image is the largest.
+        int width = 0;
+        int height = 0;
+        for (int offset = 12; offset + 16 <= length; offset++) {
+            if (startsWith(data, length, offset, 'i', 's', 'p', 'e')) {
+                int w = u32be(data, offset + 8);
+                int h = u32be(data, offset + 12);
+                if ((long) w * h > (long) width * height) {
+                    width = w;
+                    height = h;
+                }
+            }
+        }
+
+        return new ImageInfo(ImageInfo.Format.HEIF, width, height, ExifOrientation.UNDEFINED,
+            ImageInfo.ColorModel.RGB, false);
+    }
+
+    private static boolean startsWith(byte[] data, int length, int offset, int... bytes) {
+        if (offset + bytes.length > length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (u8(data, offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xff;
+    }
+
+    private static int u16be(byte[] data, int offset) {
+        return u8(data, offset) << 8 | u8(data, offset + 1);
+    }
+
+    private static int u16le(byte[] data, int offset) {
+        return u8(data, offset) | u8(data, offset + 1) << 8;
+    }
+
+    private static int u24le(byte[] data, int offset) {
+        return u16le(data, offset) | u8(data, offset + 2) << 16;
+    }
+
+    private static int u32be(byte[] data, int offset) {
+        return u16be(data, offset) << 16 | u16be(data, offset + 2);
+    }
+
+    private static long u32le(byte[] data, int offset) {
+        return (u16le(data, offset) | (long) u16le(data, offset + 2) << 16) & 0xffffffffL;
+    }
+}
@@ -0,0 +1,171 @@
+package com.isbx.androidtools.media;
+
+/**
+ * Metadata about an encoded image, read from its header without decoding any pixels.
+ *
+ * @see ImageProbe#probe(android.net.Uri)
+ */
+public class ImageInfo {
+
+    private final Format format;
+    private final int width;
+    private final int height;
+    private final int orientation;
+    private final ColorModel colorModel;
+    private final boolean hasAlpha;
+    private final ExifData exifData;
+
+    ImageInfo(Format format, int width, int height, int orientation, ColorModel colorModel,
+              boolean hasAlpha) {
+        this(format, width, height, orientation, colorModel, hasAlpha, null);
+    }
+
+    ImageInfo(Format format, int width, int height, int orientation, ColorModel colorModel,
+              boolean hasAlpha, ExifData exifData) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+        this.colorModel = colorModel;
+        this.hasAlpha = hasAlpha;
+        this.exifData = exifData;
+    }
+
+    /**
+     * Returns the EXIF tags of the image that can be copied to resized outputs, or {@code null}
+     * if it has none.
+     */
+    ExifData getExifData() {
+        return exifData;
+    }
+
+    /**
+     * Returns the format of the image.
+     *
+     * @return The {@link Format} of the image, or {@link Format#UNKNOWN} if it was not recognized
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the mime type of the image, such as {@code image/jpeg}.
+     *
+     * @return The mime type, or {@code null} if the format was not recognized
+     */
+    public String getMimeType() {
+        return format.mimeType;
+    }
+
+    /**
+     * Returns whether the width and height of the image were found in its header.
+     *
+     * @return {@code true} if {@link ImageInfo#getWidth()} and {@link ImageInfo#getHeight()} are
+     * known, {@code false} otherwise
+     */
+    public boolean hasDimensions() {
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * Returns the width of the image as stored, before the EXIF orientation is applied.
+     *
+     * @return The stored width in pixels, or {@code 0} if it is unknown
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image as stored, before the EXIF orientation is applied.
+     *
+     * @return The stored height in pixels, or {@code 0} if it is unknown
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the width of the image as displayed, after the EXIF orientation is applied.
+     *
+     * @return The displayed width in pixels, or {@code 0} if it is unknown
+     */
+    public int getOrientedWidth() {
+        return ExifOrientation.swapsDimensions(orientation) ? height : width;
+    }
+
+    /**
+     * Returns the height of the image as displayed, after the EXIF orientation is applied.
+     *
+     * @return The displayed height in pixels, or {@code 0} if it is unknown
+     */
+    public int getOrientedHeight() {
+        return ExifOrientation.swapsDimensions(orientation) ? width : height;
+    }
+
+    /**
+     * Returns the EXIF orientation of the image. Only read from JPEG images.
+     *
+     * @return One of the {@code ORIENTATION_*} constants of
+     * {@link android.support.media.ExifInterface}, or {@code ORIENTATION_UNDEFINED} (0) if the
+     * image has no orientation tag
+     */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * Returns how the color of each pixel is stored.
+     *
+     * @return The {@link ColorModel} of the image
+     */
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    /**
+     * Returns whether the image may contain transparent pixels. Formats that can't be checked
+     * cheaply from the header, such as GIF, are assumed to have alpha.
+     *
+     * @return {@code true} if the image may have transparency, {@code false} if it is opaque
+     */
+    public boolean hasAlpha() {
+        return hasAlpha;
+    }
+
+    /**
+     * The image formats recognized by {@link ImageProbe}.
+     */
+    public enum Format {
+        JPEG("image/jpeg"),
+        PNG("image/png"),
+        WEBP("image/webp"),
+        /**
+         * HEIF, including HEIC. Only decodable by {@link android.graphics.BitmapFactory} on API 28
+         * and above.
+         */
+        HEIF("image/heif"),
+        GIF("image/gif"),
+        UNKNOWN(null);
+
+        private final String mimeType;
+
+        Format(String mimeType) {
+            this.mimeType = mimeType;
+        }
+    }
+
+    /**
+     * How the color of each pixel is stored in an image.
+     */
+    public enum ColorModel {
+        GRAYSCALE,
+        RGB,
+        /**
+         * Each pixel is an index into a color palette.
+         */
+        INDEXED,
+        CMYK,
+        UNKNOWN
+    }
+}
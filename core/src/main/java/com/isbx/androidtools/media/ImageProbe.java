@@ -0,0 +1,129 @@
+package com.isbx.androidtools.media;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the format, dimensions, EXIF orientation and color model of images from the first few KB
+ * of the file, without decoding any pixels.
+ *
+ * <p>
+ * Results are remembered per {@link Uri}, so an image that has already been probed, for example
+ * by {@link MediaPicker} while copying it, costs nothing to probe again. Results for
+ * {@code file} Uris are also keyed by the length and modification time of the file, so a file
+ * that is rewritten is probed again. If the contents of any other {@link Uri} can change, call
+ * {@link ImageProbe#invalidate(Uri)} after changing them.
+ * </p>
+ */
+public class ImageProbe {
+
+    private static final int CACHE_SIZE = 64;
+
+    private static ImageProbe defaultProbe;
+
+    private final Context context;
+    private final LruCache<String, ImageInfo> cache = new LruCache<>(CACHE_SIZE);
+
+    /**
+     * Returns the probe shared by {@link ImageResizer} and {@link MediaPicker}.
+     *
+     * @param context Any {@link Context} of the app
+     * @return The default ImageProbe
+     */
+    public static synchronized ImageProbe getDefault(Context context) {
+        if (defaultProbe == null) {
+            defaultProbe = new ImageProbe(context.getApplicationContext());
+        }
+        return defaultProbe;
+    }
+
+    /**
+     * Creates an ImageProbe with its own cache of results.
+     *
+     * @param context The {@link Context} to use for reading images
+     */
+    public ImageProbe(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns the metadata of the image at {@code uri}, reading its header if it has not already
+     * been probed.
+     *
+     * @param uri The {@link Uri} of the image
+     * @return An {@link ImageInfo} describing the image, or {@code null} if it could not be read.
+     * The format is {@link ImageInfo.Format#UNKNOWN} if it was not recognized.
+     */
+    public ImageInfo probe(Uri uri) {
+        ImageInfo info = cache.get(getKey(uri));
+        if (info != null) {
+            return info;
+        }
+
+        InputStream in = null;
+        try {
+            in = context.getContentResolver().openInputStream(uri);
+            if (in == null) {
+                return null;
+            }
+            info = ImageHeaderParser.parse(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        cache.put(getKey(uri), info);
+        return info;
+    }
+
+    /**
+     * Records the metadata of the image at {@code uri} from header bytes that have already been
+     * read, such as while copying the file, so a later {@link ImageProbe#probe(Uri)} needs no I/O.
+     * Nothing is recorded if the dimensions of the image are not within {@code header}.
+     *
+     * @param uri The {@link Uri} of the image
+     * @param header The first bytes of the image
+     * @param length The number of valid bytes in {@code header}
+     */
+    public void prime(Uri uri, byte[] header, int length) {
+        ImageInfo info = ImageHeaderParser.parse(header, length);
+        if (info.hasDimensions()) {
+            cache.put(getKey(uri), info);
+        }
+    }
+
+    /**
+     * Forgets the remembered metadata of the image at {@code uri}.
+     *
+     * @param uri The {@link Uri} of the image
+     */
+    public void invalidate(Uri uri) {
+        cache.remove(getKey(uri));
+    }
+
+    /**
+     * Returns the key the result for {@code uri} is remembered under, which changes along with
+     * the file for {@code file} Uris, in the same manner as {@link ResizeCache} keys its sources.
+     */
+    private static String getKey(Uri uri) {
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme()) && uri.getPath() != null) {
+            File file = new File(uri.getPath());
+            return uri.toString() + "#" + file.length() + ":" + file.lastModified();
+        }
+        return uri.toString();
+    }
+}
@@ -1,5 +1,10 @@
 package com.isbx.androidtools.media;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
  * <p>
  * A configuration class for how an image should be resized by {@link ImageResizer}. The default
@@ -12,14 +17,51 @@ package com.isbx.androidtools.media;
  * <li>large - 1024x1024</li>
  * </ul>
  *
+ * <p>
+ * Each output size also has its own {@link ImageEncodeOptions}, which by default keep the format
+ * of the source image at quality 100.
+ * </p>
+ *
+ * <p>
+ * For any other number of output sizes, use an {@link ImageSizeSet}.
+ * </p>
+ *
  * @see ImageResizer
  */
 public class ImageResizeConfig {
 
+    /**
+     * The name of the large output size in the {@link ImageSizeSet} returned by
+     * {@link ImageResizeConfig#toSizeSet()}.
+     */
+    public static final String SIZE_LARGE = "large";
+    /**
+     * The name of the medium output size in the {@link ImageSizeSet} returned by
+     * {@link ImageResizeConfig#toSizeSet()}.
+     */
+    public static final String SIZE_MEDIUM = "medium";
+    /**
+     * The name of the small output size in the {@link ImageSizeSet} returned by
+     * {@link ImageResizeConfig#toSizeSet()}.
+     */
+    public static final String SIZE_SMALL = "small";
+
     private static final int DEFAULT_LARGE_SIZE = 1024;
     private static final int DEFAULT_MEDIUM_SIZE = 512;
     private static final int DEFAULT_SMALL_SIZE = 256;
 
+    /**
+     * The EXIF tags copied by {@link ExifPolicy#WHITELIST} unless configured otherwise: the
+     * capture time and camera settings, without location or device identifiers. Names match the
+     * {@code TAG_*} constants of {@link android.support.media.ExifInterface}.
+     */
+    public static final Set<String> DEFAULT_EXIF_WHITELIST = Collections.unmodifiableSet(
+        new LinkedHashSet<>(Arrays.asList("DateTimeOriginal", "DateTimeDigitized",
+            "OffsetTimeOriginal", "OffsetTimeDigitized", "SubSecTimeOriginal",
+            "SubSecTimeDigitized", "ExposureTime", "FNumber", "ExposureProgram", "ISOSpeedRatings",
+            "ExposureBiasValue", "MeteringMode", "Flash", "FocalLength", "FocalLengthIn35mmFilm",
+            "WhiteBalance", "ExposureMode", "SceneCaptureType")));
+
     private final Dimension largeDimension = new Dimension(DEFAULT_LARGE_SIZE, DEFAULT_LARGE_SIZE);
     private final Dimension mediumDimension = new Dimension(DEFAULT_MEDIUM_SIZE, DEFAULT_MEDIUM_SIZE);
     private final Dimension smallDimension = new Dimension(DEFAULT_SMALL_SIZE, DEFAULT_SMALL_SIZE);
@@ -28,6 +70,18 @@ public class ImageResizeConfig {
     private boolean mediumOutputEnabled = true;
     private boolean smallOutputEnabled = true;
 
+    private final ImageEncodeOptions largeEncodeOptions = new ImageEncodeOptions();
+    private final ImageEncodeOptions mediumEncodeOptions = new ImageEncodeOptions();
+    private final ImageEncodeOptions smallEncodeOptions = new ImageEncodeOptions();
+
+    private long memoryBudget = 0;
+    private boolean rgb565Enabled = false;
+    private ResampleFilter resampleFilter = ResampleFilter.PROGRESSIVE_HALVING;
+    private ExifPolicy exifPolicy = ExifPolicy.STRIP_ALL;
+    private Set<String> exifWhitelist = DEFAULT_EXIF_WHITELIST;
+    private long videoFrameTime = VideoFrameExtractor.TIME_REPRESENTATIVE;
+    private boolean videoKeyframesOnly = true;
+
     /**
      * Returns whether the large output size is requested by this configuration.
      *
@@ -241,6 +295,308 @@ public class ImageResizeConfig {
         return this;
     }
 
+    /**
+     * Returns the encoding settings for the large output size.
+     *
+     * @return An {@link ImageEncodeOptions} object containing the large output encoding settings
+     *
+     * @see ImageResizeConfig#setLargeEncodeOptions(ImageEncodeOptions)
+     */
+    public ImageEncodeOptions getLargeEncodeOptions() {
+        return largeEncodeOptions;
+    }
+
+    /**
+     * Sets the format, quality and target file size for the large output size.
+     * <p>
+     * ImageResizerConfig does not hold a reference to the {@code options} parameter object.
+     * Altering {@code options} after invoking this method will not affect the configured settings.
+     * </p>
+     *
+     * @param options An {@link ImageEncodeOptions} object representing how to encode large output
+     * @return This ImageResizerConfig object to allow for method chaining
+     *
+     * @see ImageResizeConfig#getLargeEncodeOptions()
+     */
+    public ImageResizeConfig setLargeEncodeOptions(ImageEncodeOptions options) {
+        largeEncodeOptions.set(options);
+        return this;
+    }
+
+    /**
+     * Returns the encoding settings for the medium output size.
+     *
+     * @return An {@link ImageEncodeOptions} object containing the medium output encoding settings
+     *
+     * @see ImageResizeConfig#setMediumEncodeOptions(ImageEncodeOptions)
+     */
+    public ImageEncodeOptions getMediumEncodeOptions() {
+        return mediumEncodeOptions;
+    }
+
+    /**
+     * Sets the format, quality and target file size for the medium output size.
+     * <p>
+     * ImageResizerConfig does not hold a reference to the {@code options} parameter object.
+     * Altering {@code options} after invoking this method will not affect the configured settings.
+     * </p>
+     *
+     * @param options An {@link ImageEncodeOptions} object representing how to encode medium output
+     * @return This ImageResizerConfig object to allow for method chaining
+     *
+     * @see ImageResizeConfig#getMediumEncodeOptions()
+     */
+    public ImageResizeConfig setMediumEncodeOptions(ImageEncodeOptions options) {
+        mediumEncodeOptions.set(options);
+        return this;
+    }
+
+    /**
+     * Returns the encoding settings for the small output size.
+     *
+     * @return An {@link ImageEncodeOptions} object containing the small output encoding settings
+     *
+     * @see ImageResizeConfig#setSmallEncodeOptions(ImageEncodeOptions)
+     */
+    public ImageEncodeOptions getSmallEncodeOptions() {
+        return smallEncodeOptions;
+    }
+
+    /**
+     * Sets the format, quality and target file size for the small output size.
+     * <p>
+     * ImageResizerConfig does not hold a reference to the {@code options} parameter object.
+     * Altering {@code options} after invoking this method will not affect the configured settings.
+     * </p>
+     *
+     * @param options An {@link ImageEncodeOptions} object representing how to encode small output
+     * @return This ImageResizerConfig object to allow for method chaining
+     *
+     * @see ImageResizeConfig#getSmallEncodeOptions()
+     */
+    public ImageResizeConfig setSmallEncodeOptions(ImageEncodeOptions options) {
+        smallEncodeOptions.set(options);
+        return this;
+    }
+
+    /**
+     * Returns an {@link ImageSizeSet} containing the enabled output sizes of this configuration,
+     * named {@link ImageResizeConfig#SIZE_LARGE}, {@link ImageResizeConfig#SIZE_MEDIUM} and
+     * {@link ImageResizeConfig#SIZE_SMALL}.
+     *
+     * @return A new {@link ImageSizeSet}
+     */
+    public ImageSizeSet toSizeSet() {
+        ImageSizeSet sizes = new ImageSizeSet();
+        if (largeOutputEnabled) {
+            sizes.add(SIZE_LARGE, largeDimension.width, largeDimension.height, largeEncodeOptions);
+        }
+        if (mediumOutputEnabled) {
+            sizes.add(SIZE_MEDIUM, mediumDimension.width, mediumDimension.height, mediumEncodeOptions);
+        }
+        if (smallOutputEnabled) {
+            sizes.add(SIZE_SMALL, smallDimension.width, smallDimension.height, smallEncodeOptions);
+        }
+        return sizes;
+    }
+
+    /**
+     * Returns the maximum number of bytes the decoded source bitmap may occupy while an image is
+     * being resized. A value of {@code 0} means the budget is derived from the available heap.
+     *
+     * @return The decode memory budget in bytes, or {@code 0} for the default budget
+     *
+     * @see ImageResizeConfig#setMemoryBudget(long)
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the maximum number of bytes the decoded source bitmap may occupy while an image is being
+     * resized. If decoding the source at the sample size required by the requested dimensions
+     * would exceed this budget, {@link ImageResizer} will first try a 16-bit pixel format (if
+     * enabled with {@link ImageResizeConfig#setRGB565Enabled(boolean)}) and then decode at a
+     * larger sample size until the bitmap fits, at the cost of output resolution.
+     * <p>
+     * The default of {@code 0} uses one eighth of the maximum heap size.
+     * </p>
+     *
+     * @param memoryBudget The decode memory budget in bytes, or {@code 0} for the default budget
+     * @return This ImageResizerConfig object to allow for method chaining
+     *
+     * @see ImageResizeConfig#getMemoryBudget()
+     */
+    public ImageResizeConfig setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * Returns whether opaque images may be decoded in the 16-bit
+     * {@link android.graphics.Bitmap.Config#RGB_565} format when they would otherwise exceed the
+     * memory budget.
+     *
+     * @return {@code true} if RGB_565 decoding is enabled, {@code false} otherwise
+     *
+     * @see ImageResizeConfig#setRGB565Enabled(boolean)
+     */
+    public boolean isRGB565Enabled() {
+        return rgb565Enabled;
+    }
+
+    /**
+     * Specifies whether opaque images (such as JPEGs) may be decoded in the 16-bit
+     * {@link android.graphics.Bitmap.Config#RGB_565} format when they would otherwise exceed the
+     * memory budget. This halves the memory used by the decoded bitmap but may introduce banding
+     * in smooth gradients. Disabled by default.
+     *
+     * @param rgb565Enabled {@code true} if RGB_565 decoding is enabled, {@code false} otherwise
+     *
+     * @see ImageResizeConfig#isRGB565Enabled()
+     * @see ImageResizeConfig#setMemoryBudget(long)
+     */
+    public void setRGB565Enabled(boolean rgb565Enabled) {
+        this.rgb565Enabled = rgb565Enabled;
+    }
+
+    /**
+     * Returns the filter used to scale the decoded image to each output size.
+     *
+     * @return The {@link ResampleFilter} used for scaling
+     *
+     * @see ImageResizeConfig#setResampleFilter(ResampleFilter)
+     */
+    public ResampleFilter getResampleFilter() {
+        return resampleFilter;
+    }
+
+    /**
+     * Sets the filter used to scale the decoded image to each output size. Defaults to
+     * {@link ResampleFilter#PROGRESSIVE_HALVING}, which avoids the aliasing of unfiltered scaling
+     * without the cost of {@link ResampleFilter#AREA_AVERAGE}.
+     *
+     * @param resampleFilter The {@link ResampleFilter} to use for scaling
+     * @return This ImageResizerConfig object to allow for method chaining
+     *
+     * @see ImageResizeConfig#getResampleFilter()
+     */
+    public ImageResizeConfig setResampleFilter(ResampleFilter resampleFilter) {
+        this.resampleFilter = resampleFilter;
+        return this;
+    }
+
+    /**
+     * Returns which EXIF metadata of a JPEG source is copied to JPEG outputs.
+     *
+     * @return The {@link ExifPolicy} of outputs
+     *
+     * @see ImageResizeConfig#setExifPolicy(ExifPolicy)
+     */
+    public ExifPolicy getExifPolicy() {
+        return exifPolicy;
+    }
+
+    /**
+     * Sets which EXIF metadata of a JPEG source is copied to JPEG outputs. Defaults to
+     * {@link ExifPolicy#STRIP_ALL}, so location and device details are never copied unless
+     * requested.
+     *
+     * @param exifPolicy The {@link ExifPolicy} to apply to outputs
+     * @return This ImageResizerConfig object to allow for method chaining
+     *
+     * @see ImageResizeConfig#getExifPolicy()
+     * @see ImageResizeConfig#setExifWhitelist(String...)
+     */
+    public ImageResizeConfig setExifPolicy(ExifPolicy exifPolicy) {
+        this.exifPolicy = exifPolicy;
+        return this;
+    }
+
+    /**
+     * Returns the names of the EXIF tags copied from the source when the policy is
+     * {@link ExifPolicy#WHITELIST}.
+     *
+     * @return An unmodifiable set of tag names
+     *
+     * @see ImageResizeConfig#setExifWhitelist(String...)
+     */
+    public Set<String> getExifWhitelist() {
+        return exifWhitelist;
+    }
+
+    /**
+     * Sets the names of the EXIF tags copied from the source when the policy is
+     * {@link ExifPolicy#WHITELIST}, such as
+     * {@link android.support.media.ExifInterface#TAG_DATETIME_ORIGINAL}. Tags of the primary
+     * image, its EXIF sub-IFD and its GPS sub-IFD are supported; other names are ignored.
+     * Defaults to {@link ImageResizeConfig#DEFAULT_EXIF_WHITELIST}.
+     *
+     * @param tags The names of the tags to copy
+     * @return This ImageResizerConfig object to allow for method chaining
+     *
+     * @see ImageResizeConfig#setExifPolicy(ExifPolicy)
+     */
+    public ImageResizeConfig setExifWhitelist(String... tags) {
+        exifWhitelist = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(tags)));
+        return this;
+    }
+
+    /**
+     * Returns the time of the frame used as the source image when a video is resized.
+     *
+     * @return The frame time in microseconds, or {@link VideoFrameExtractor#TIME_REPRESENTATIVE}
+     *
+     * @see ImageResizeConfig#setVideoFrameTime(long)
+     */
+    public long getVideoFrameTime() {
+        return videoFrameTime;
+    }
+
+    /**
+     * Sets the time of the frame used as the source image when a video is resized, such as a
+     * {@link MediaPicker.MediaType#VIDEO} selection. Defaults to
+     * {@link VideoFrameExtractor#TIME_REPRESENTATIVE}, which lets the platform choose a poster
+     * frame.
+     *
+     * @param videoFrameTime The frame time in microseconds, or
+     *                       {@link VideoFrameExtractor#TIME_REPRESENTATIVE}
+     * @return This ImageResizerConfig object to allow for method chaining
+     *
+     * @see ImageResizeConfig#setVideoKeyframesOnly(boolean)
+     */
+    public ImageResizeConfig setVideoFrameTime(long videoFrameTime) {
+        this.videoFrameTime = videoFrameTime;
+        return this;
+    }
+
+    /**
+     * Returns whether video frames are taken from the keyframe nearest the requested time.
+     *
+     * @return {@code true} if only keyframes are extracted, {@code false} otherwise
+     *
+     * @see ImageResizeConfig#setVideoKeyframesOnly(boolean)
+     */
+    public boolean isVideoKeyframesOnly() {
+        return videoKeyframesOnly;
+    }
+
+    /**
+     * Specifies whether video frames are taken from the keyframe nearest the requested time,
+     * rather than the exact frame at that time. A keyframe can be decoded on its own, while an
+     * exact frame requires decoding every frame since the previous keyframe. Enabled by default.
+     *
+     * @param videoKeyframesOnly {@code true} to extract only keyframes, {@code false} to extract
+     *                           the exact frame
+     * @return This ImageResizerConfig object to allow for method chaining
+     *
+     * @see ImageResizeConfig#setVideoFrameTime(long)
+     */
+    public ImageResizeConfig setVideoKeyframesOnly(boolean videoKeyframesOnly) {
+        this.videoKeyframesOnly = videoKeyframesOnly;
+        return this;
+    }
+
 
     /**
      * A class to represent pixel dimensions for width and height of an object.
@@ -0,0 +1,97 @@
+package com.isbx.androidtools.media;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outputs of resizing an image to each size of an {@link ImageSizeSet}, by size name.
+ *
+ * <p>
+ * The outputs are leased from the {@link ResizeCache} they were written to until
+ * {@link ImageResizeResult#release()} is called, so they can't be evicted while they are in use.
+ * </p>
+ *
+ * @see ImageResizer#scaleImages(Uri, ImageSizeSet)
+ */
+public class ImageResizeResult {
+
+    private final Uri sourceUri;
+    private final LinkedHashMap<String, Uri> outputs = new LinkedHashMap<>();
+    private final List<ResizeCache.Lease> leases = new ArrayList<>();
+
+    ImageResizeResult(Uri sourceUri) {
+        this.sourceUri = sourceUri;
+    }
+
+    void put(String name, Uri uri) {
+        outputs.put(name, uri);
+    }
+
+    synchronized void addLease(ResizeCache.Lease lease) {
+        leases.add(lease);
+    }
+
+    /**
+     * Releases the leases on the outputs, after which they may be evicted from the
+     * {@link ResizeCache}. Calling this method more than once has no effect.
+     */
+    public synchronized void release() {
+        for (ResizeCache.Lease lease : leases) {
+            lease.release();
+        }
+        leases.clear();
+    }
+
+    /**
+     * Returns the {@link Uri} of the image that was resized.
+     *
+     * @return The source {@link Uri}
+     */
+    public Uri getSourceUri() {
+        return sourceUri;
+    }
+
+    /**
+     * Returns the output for the named size.
+     *
+     * @param name The name of the size in the {@link ImageSizeSet}
+     * @return A {@link Uri} pointing to the scaled image copy, or {@code null} if there is no size
+     * with that name or the operation failed for that size
+     */
+    public Uri getUri(String name) {
+        return outputs.get(name);
+    }
+
+    /**
+     * Returns the names of all requested sizes, in the order of the {@link ImageSizeSet}.
+     *
+     * @return An unmodifiable list of size names
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(new ArrayList<>(outputs.keySet()));
+    }
+
+    /**
+     * Returns whether every requested size was produced successfully.
+     *
+     * @return {@code true} if no output is {@code null}, {@code false} otherwise
+     */
+    public boolean isSuccessful() {
+        return !outputs.containsValue(null);
+    }
+
+    /**
+     * Returns all outputs by size name, in the order of the {@link ImageSizeSet}. Sizes that failed
+     * map to {@code null}.
+     *
+     * @return An unmodifiable map of size names to output {@link Uri}s
+     */
+    public Map<String, Uri> toMap() {
+        return Collections.unmodifiableMap(outputs);
+    }
+}
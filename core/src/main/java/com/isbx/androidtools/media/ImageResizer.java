@@ -3,21 +3,32 @@ package com.isbx.androidtools.media;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorSpace;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
 import android.net.Uri;
+import android.os.Build;
 import android.util.Log;
-import android.support.media.ExifInterface;
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.Locale;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 /**
  * A convenience class to resize an image to a new resolution while maintaining aspect ratio. Can be
@@ -25,34 +36,45 @@ import java.util.TimeZone;
  * object.
  *
  * <p>
- * The resized images are saved as temporary files to the app's internal private storage. The
- * persistence of these files is not guaranteed, and they may be overwritten at any time by any of
- * the following actions:
+ * The resized images are saved to a {@link ResizeCache} in the app's internal private storage,
+ * named after the source image and the settings it was resized with. Resizing the same image
+ * with the same settings again returns the cached files without decoding the source.
  * </p>
  *
- * <ul>
- * <li>The ImageResizer is used to process several different images consecutively</li>
- * <li>Another ImageResizer is used to process an image</li>
- * <li>An explicit call to {@link ImageResizer#clearFiles()} is made</li>
- * </ul>
+ * <p>
+ * The persistence of these files is not guaranteed. Once the cache grows past its size limit,
+ * the least recently used files are deleted by later resize operations, and an explicit call to
+ * {@link ImageResizer#clearFiles()} deletes all of them. To keep a file while it is in use, for
+ * example while it is being uploaded, hold a lease on it with {@link ResizeCache#lease(Uri)}, or
+ * copy it to a persistent location if it is needed long-term.
+ * </p>
  *
  * <p>
- * For this reason, it is recommended to take whatever action is needed on the resized files
- * immediately after the scaling operation is completed, or copy them to a persistent location if
- * they are needed long-term.
+ * Videos, such as {@link MediaPicker.MediaType#VIDEO} selections, can be resized in the same way
+ * as images. A single frame chosen by {@link ImageResizeConfig#setVideoFrameTime(long)} is
+ * extracted with a {@link VideoFrameExtractor} at the size of the largest output, and the outputs
+ * are scaled from it and cached like those of an image.
  * </p>
  */
 public class ImageResizer {
 
-    private static final int MAX_FILES = 10; // TODO handle files more intelligently
-    private static final String FILE_NAME_FORMAT = "image%d.%s";
-    private static final short JPEG_INITIAL_SHORT = (short) 0xffd8;
+    // Files written by the ring of temporary files used before ResizeCache
+    private static final Pattern LEGACY_FILE_NAME_PATTERN = Pattern.compile("image[0-9]\\.(jpg|png|webp)");
+    // Bump whenever a change to the pipeline would change the output for the same settings
+    private static final String CACHE_VERSION = "3";
+    // The largest frame extracted for an unconstrained size when the size of the video is unknown
+    private static final int MAX_UNKNOWN_FRAME_SIZE = 4096;
 
     private Context context;
     private ImageResizeConfig config;
+    private ResizeScheduler scheduler = ResizeScheduler.getDefault();
+    private BitmapPool bitmapPool = BitmapPool.getDefault();
+    private ResizeMetricsListener metricsListener;
+    private DecodeStrategy decodeStrategy = DecodeStrategy.getDefault();
+    private ResizeCache resizeCache;
+    private ImageProbe imageProbe;
+    private VideoFrameExtractor videoFrameExtractor;
 
-    private int savedFiles = 0;
-    
     /**
      * Creates a new ImageResizer that will use the given config to scale images.
      *
@@ -65,6 +87,9 @@ public class ImageResizer {
     public ImageResizer(Context context, ImageResizeConfig config) {
         this.context = context;
         this.config = config;
+        this.resizeCache = ResizeCache.getDefault(context);
+        this.imageProbe = ImageProbe.getDefault(context);
+        this.videoFrameExtractor = new VideoFrameExtractor(context);
     }
 
     /**
@@ -78,6 +103,91 @@ public class ImageResizer {
         this(context, new ImageResizeConfig());
     }
 
+    /**
+     * Sets the {@link ResizeScheduler} used to run asynchronous resize operations. By default all
+     * ImageResizer instances share {@link ResizeScheduler#getDefault()}.
+     *
+     * @param scheduler The {@link ResizeScheduler} to run resize jobs on
+     *
+     * @see ImageResizer#resizeImage(Uri, ImageResizeCallback)
+     */
+    public void setScheduler(ResizeScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets the {@link BitmapPool} that decoded and scaled bitmaps are drawn from and returned to.
+     * By default all ImageResizer instances share {@link BitmapPool#getDefault()}.
+     *
+     * @param bitmapPool The {@link BitmapPool} to reuse bitmaps from
+     */
+    public void setBitmapPool(BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * Sets the {@link ResizeCache} resized images are written to and looked up from. By default
+     * all ImageResizer instances share {@link ResizeCache#getDefault(Context)}.
+     *
+     * @param resizeCache The {@link ResizeCache} to store resized images in
+     */
+    public void setResizeCache(ResizeCache resizeCache) {
+        this.resizeCache = resizeCache;
+    }
+
+    /**
+     * Returns the {@link ResizeCache} resized images are written to.
+     *
+     * @return The {@link ResizeCache} of this ImageResizer
+     */
+    public ResizeCache getResizeCache() {
+        return resizeCache;
+    }
+
+    /**
+     * Sets a listener to be notified with the {@link ResizeMetrics} of each resize operation
+     * completed by this ImageResizer, from the thread that ran the operation. Cancelled operations
+     * are not reported.
+     *
+     * @param metricsListener The {@link ResizeMetricsListener} to notify, or {@code null} to stop
+     *                        reporting metrics
+     *
+     * @see ResizeMetricsHistogram
+     */
+    public void setMetricsListener(ResizeMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Returns the listener notified with the metrics of each resize operation.
+     *
+     * @return The current {@link ResizeMetricsListener}, or {@code null} if none is set
+     */
+    public ResizeMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Sets the {@link DecodeStrategy} that chooses the pixel format and color space source images
+     * are decoded with. By default all ImageResizer instances use {@link DecodeStrategy#getDefault()}.
+     *
+     * @param decodeStrategy The {@link DecodeStrategy} to decode with
+     *
+     * @see ImageResizer#decodeForDisplay(Uri, ImageResizeConfig.Dimension)
+     */
+    public void setDecodeStrategy(DecodeStrategy decodeStrategy) {
+        this.decodeStrategy = decodeStrategy;
+    }
+
+    /**
+     * Returns the {@link DecodeStrategy} source images are decoded with.
+     *
+     * @return The current {@link DecodeStrategy}
+     */
+    public DecodeStrategy getDecodeStrategy() {
+        return decodeStrategy;
+    }
+
     /**
      * Creates scaled copies of the given image according to the settings of this ImageResizer's
      * {@link ImageResizeConfig} object.
@@ -88,31 +198,128 @@ public class ImageResizer {
      * disabled by the resize configuration or that fail during processing.
      * </p>
      *
+     * <p>
+     * The operation is queued on this ImageResizer's {@link ResizeScheduler} with
+     * {@link ResizeScheduler#PRIORITY_NORMAL}, and {@code callback} will be invoked from one of
+     * the scheduler's worker threads.
+     * </p>
+     *
+     * @param sourceUri The {@link Uri} of the image to be resized
+     * @param callback An {@link ImageResizeCallback} that will be called once the scaling is
+     *                 complete
+     * @return A {@link ResizeJob} that can be used to cancel the operation. If the operation is
+     * cancelled, {@code callback} will not be invoked.
+     * @throws java.util.concurrent.RejectedExecutionException if the scheduler's queue is full
+     *
+     * @see ImageResizer#setScheduler(ResizeScheduler)
+     */
+    public ResizeJob resizeImage(Uri sourceUri, ImageResizeCallback callback) {
+        return resizeImage(sourceUri, ResizeScheduler.PRIORITY_NORMAL, callback);
+    }
+
+    /**
+     * Creates scaled copies of the given image according to the settings of this ImageResizer's
+     * {@link ImageResizeConfig} object, queued with the given priority.
+     *
      * @param sourceUri The {@link Uri} of the image to be resized
+     * @param priority The priority of this operation in the scheduler's queue, such as
+     *                 {@link ResizeScheduler#PRIORITY_HIGH}
      * @param callback An {@link ImageResizeCallback} that will be called once the scaling is
      *                 complete
+     * @return A {@link ResizeJob} that can be used to cancel the operation
+     * @throws java.util.concurrent.RejectedExecutionException if the scheduler's queue is full
+     *
+     * @see ImageResizer#resizeImage(Uri, ImageResizeCallback)
+     */
+    public ResizeJob resizeImage(Uri sourceUri, int priority, final ImageResizeCallback callback) {
+        return resizeImage(sourceUri, config.toSizeSet(), priority, new ImageResizeResultCallback() {
+            @Override
+            public void onResizeComplete(ImageResizeResult result) {
+                callback.onResizeComplete(result.getUri(ImageResizeConfig.SIZE_LARGE),
+                    result.getUri(ImageResizeConfig.SIZE_MEDIUM),
+                    result.getUri(ImageResizeConfig.SIZE_SMALL));
+            }
+        });
+    }
+
+    /**
+     * Creates scaled copies of the given image for each size in {@code sizes}.
+     *
+     * <p>
+     * The operation is queued on this ImageResizer's {@link ResizeScheduler} with
+     * {@link ResizeScheduler#PRIORITY_NORMAL}, and {@code callback} will be invoked from one of
+     * the scheduler's worker threads. If {@code callback} is an
+     * {@link ImageResizeProgressCallback}, it is also notified as each output is written.
+     * </p>
+     *
+     * @param sourceUri The {@link Uri} of the image to be resized
+     * @param sizes The named sizes to produce
+     * @param callback An {@link ImageResizeResultCallback} that will be called once the scaling is
+     *                 complete
+     * @return A {@link ResizeJob} that can be used to cancel the operation
+     * @throws java.util.concurrent.RejectedExecutionException if the scheduler's queue is full
+     *
+     * @see ImageResizer#scaleImages(Uri, ImageSizeSet)
+     */
+    public ResizeJob resizeImage(Uri sourceUri, ImageSizeSet sizes,
+                                 ImageResizeResultCallback callback) {
+        return resizeImage(sourceUri, sizes, ResizeScheduler.PRIORITY_NORMAL, callback);
+    }
+
+    /**
+     * Creates scaled copies of the given image for each size in {@code sizes}, queued with the
+     * given priority.
+     *
+     * @param sourceUri The {@link Uri} of the image to be resized
+     * @param sizes The named sizes to produce
+     * @param priority The priority of this operation in the scheduler's queue, such as
+     *                 {@link ResizeScheduler#PRIORITY_HIGH}
+     * @param callback An {@link ImageResizeResultCallback} that will be called once the scaling is
+     *                 complete
+     * @return A {@link ResizeJob} that can be used to cancel the operation
+     * @throws java.util.concurrent.RejectedExecutionException if the scheduler's queue is full
+     *
+     * @see ImageResizer#resizeImage(Uri, ImageSizeSet, ImageResizeResultCallback)
      */
-    public void resizeImage(final Uri sourceUri, final ImageResizeCallback callback) {
-        new Thread(new Runnable() {
+    public ResizeJob resizeImage(final Uri sourceUri, final ImageSizeSet sizes, int priority,
+                                 final ImageResizeResultCallback callback) {
+        final ResizeJob job = new ResizeJob(sourceUri, sizes.getNames(),
+            callback instanceof ImageResizeProgressCallback ? (ImageResizeProgressCallback) callback : null);
+        job.setHandle(scheduler.submit(new Runnable() {
             @Override
             public void run() {
-                Uri largeUri = null;
-                Uri mediumUri = null;
-                Uri smallUri = null;
+                Outputs outputs = new Outputs(sourceUri, sizes.getNames().size(), job);
+                ImageResizeResult result = null;
+                try {
+                    try {
+                        result = scaleImages(sourceUri, sizes, outputs);
+                    } catch (CancellationException e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        // The scheduler's future would keep the error where nobody sees it, so log
+                        // it and report every output as failed rather than never calling back
+                        t.printStackTrace();
+                        result = new ImageResizeResult(sourceUri);
+                        for (String name : sizes.getNames()) {
+                            result.put(name, null);
+                        }
+                    }
+                    job.setResult(result);
 
-                if (config.isLargeOutputEnabled()) {
-                    largeUri = createLargeImage(sourceUri);
-                }
-                if (config.isMediumOutputEnabled()) {
-                    mediumUri = createMediumImage(sourceUri);
-                }
-                if (config.isSmallOutputEnabled()) {
-                    smallUri = createSmallImage(sourceUri);
+                    if (!job.isCancelled()) {
+                        callback.onResizeComplete(result);
+                    }
+                } finally {
+                    // The outputs stay leased until the callback returns, so no other operation
+                    // can evict them while it is using them
+                    outputs.release();
+                    if (result != null) {
+                        result.release();
+                    }
                 }
-
-                callback.onResizeComplete(largeUri, mediumUri, smallUri);
             }
-        }).start();
+        }, priority));
+        return job;
     }
 
     /**
@@ -125,10 +332,11 @@ public class ImageResizer {
      * failed
      *
      * @see ImageResizeConfig#getLargeDimension()
-     * @see ImageResizer#scaleImage(Uri, ImageResizeConfig.Dimension)
+     * @see ImageResizeConfig#getLargeEncodeOptions()
+     * @see ImageResizer#scaleImage(Uri, ImageResizeConfig.Dimension, ImageEncodeOptions)
      */
     public Uri createLargeImage(Uri sourceUri) {
-        return scaleImage(sourceUri, config.getLargeDimension());
+        return scaleImage(sourceUri, config.getLargeDimension(), config.getLargeEncodeOptions());
     }
 
     /**
@@ -141,10 +349,11 @@ public class ImageResizer {
      * failed
      *
      * @see ImageResizeConfig#getMediumDimension()
-     * @see ImageResizer#scaleImage(Uri, ImageResizeConfig.Dimension)
+     * @see ImageResizeConfig#getMediumEncodeOptions()
+     * @see ImageResizer#scaleImage(Uri, ImageResizeConfig.Dimension, ImageEncodeOptions)
      */
     public Uri createMediumImage(Uri sourceUri) {
-        return scaleImage(sourceUri, config.getMediumDimension());
+        return scaleImage(sourceUri, config.getMediumDimension(), config.getMediumEncodeOptions());
     }
 
     /**
@@ -157,44 +366,11 @@ public class ImageResizer {
      * failed
      *
      * @see ImageResizeConfig#getSmallDimension()
-     * @see ImageResizer#scaleImage(Uri, ImageResizeConfig.Dimension)
+     * @see ImageResizeConfig#getSmallEncodeOptions()
+     * @see ImageResizer#scaleImage(Uri, ImageResizeConfig.Dimension, ImageEncodeOptions)
      */
     public Uri createSmallImage(Uri sourceUri) {
-        return scaleImage(sourceUri, config.getSmallDimension());
-    }
-
-    private boolean imageIsJPEG(Uri imageUri) throws Exception {
-        DataInputStream ins = new DataInputStream(new BufferedInputStream(context.getContentResolver().openInputStream(imageUri)));
-        try {
-            if (ins.readShort() == JPEG_INITIAL_SHORT) {
-                return true;
-            } else {
-                return false;
-            }
-        } finally {
-            ins.close();
-        }
-    };
-
-    private Bitmap rotateImage(Uri imageUri, Bitmap sourceImage) throws IOException {
-        Bitmap bitmap = sourceImage;
-        ExifInterface exif = new ExifInterface(context.getContentResolver().openInputStream(imageUri));
-        int rotation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, 
-                                            ExifInterface.ORIENTATION_NORMAL);
-        int rotationInDegrees = exifToDegrees(rotation);
-
-        //rotate original image because camera takes them side ways
-        Matrix matrix = new Matrix();
-        matrix.postRotate(rotationInDegrees);
-        return Bitmap.createBitmap(bitmap , 0, 0, bitmap.getWidth(),
-            bitmap.getHeight(), matrix, true);
-    }
-
-    private int exifToDegrees(int exifOrientation) {
-        if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_90) { return 90; }
-        else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_180) {  return 180; }
-        else if (exifOrientation == ExifInterface.ORIENTATION_ROTATE_270) {  return 270; }
-        return 0;
+        return scaleImage(sourceUri, config.getSmallDimension(), config.getSmallEncodeOptions());
     }
 
     /**
@@ -211,176 +387,1355 @@ public class ImageResizer {
      * @param targetDimension The desired dimensions of the copied image
      * @return A {@link Uri} pointing to the scaled image copy, or {@code null} if the operation
      * failed
+     *
+     * @see ImageResizer#scaleImages(Uri, ImageResizeConfig.Dimension[])
      */
     public Uri scaleImage(Uri sourceUri, ImageResizeConfig.Dimension targetDimension) {
-        Uri dstUri = null;
+        return scaleImage(sourceUri, targetDimension, new ImageEncodeOptions());
+    }
 
-        Bitmap bm = null;
-        try {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(context.getContentResolver().openInputStream(sourceUri), null, options);
+    /**
+     * Creates a copy of the given image scaled to the size specified by {@code targetDimension}
+     * and encoded according to {@code encodeOptions}.
+     *
+     * @param sourceUri The {@link Uri} of the image to be resized
+     * @param targetDimension The desired dimensions of the copied image
+     * @param encodeOptions The format and quality to write the copied image with
+     * @return A {@link Uri} pointing to the scaled image copy, or {@code null} if the operation
+     * failed
+     *
+     * @see ImageResizer#scaleImage(Uri, ImageResizeConfig.Dimension)
+     */
+    public Uri scaleImage(Uri sourceUri, ImageResizeConfig.Dimension targetDimension,
+                          ImageEncodeOptions encodeOptions) {
+        return scaleImages(sourceUri, new ImageResizeConfig.Dimension[] { targetDimension },
+            new ImageEncodeOptions[] { encodeOptions })[0];
+    }
 
-            options.inSampleSize = calculateInSampleSize(options, targetDimension.getWidth(), targetDimension.getHeight());
-            options.inJustDecodeBounds = false;
+    /**
+     * Creates copies of the given image scaled to each of the sizes in {@code targetDimensions}.
+     *
+     * <p>
+     * The source image is only decoded once, at the sample size required by the largest requested
+     * dimension. Each smaller output is then scaled down from the next larger output rather than
+     * from the source, so the cost of producing several sizes is close to the cost of producing
+     * the largest one alone.
+     * </p>
+     *
+     * <p>
+     * Each output maintains the aspect ratio of the source image in the same manner as
+     * {@link ImageResizer#scaleImage(Uri, ImageResizeConfig.Dimension)}.
+     * </p>
 
-            bm = BitmapFactory.decodeStream(context.getContentResolver().openInputStream(sourceUri), null, options);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+     * <p>
+     * If the source is a JPEG with an EXIF orientation tag, the orientation is applied as part of
+     * scaling, and {@code targetDimensions} are matched against the oriented image.
+     * </p>
+     *
+     * @param sourceUri The {@link Uri} of the image to be resized
+     * @param targetDimensions The desired dimensions of each copied image. {@code null} entries
+     *                         are skipped.
+     * @return An array of {@link Uri}s pointing to the scaled image copies, in the same order as
+     * {@code targetDimensions}. An entry will be {@code null} if its dimension was {@code null} or
+     * if the operation failed. The copies are not leased, so a concurrent resize may evict them;
+     * use {@link ImageResizer#scaleImages(Uri, ImageSizeSet)} to receive them leased.
+     */
+    public Uri[] scaleImages(Uri sourceUri, ImageResizeConfig.Dimension[] targetDimensions) {
+        return scaleImages(sourceUri, targetDimensions, null);
+    }
+
+    /**
+     * Creates copies of the given image scaled to each of the sizes in {@code targetDimensions},
+     * each encoded according to the matching entry of {@code encodeOptions}.
+     *
+     * @param sourceUri The {@link Uri} of the image to be resized
+     * @param targetDimensions The desired dimensions of each copied image. {@code null} entries
+     *                         are skipped.
+     * @param encodeOptions The format and quality to write each copied image with, in the same
+     *                      order as {@code targetDimensions}. If the array or an entry is
+     *                      {@code null}, the default {@link ImageEncodeOptions} are used.
+     * @return An array of {@link Uri}s pointing to the scaled image copies, in the same order as
+     * {@code targetDimensions}. The copies are not leased, see
+     * {@link ImageResizer#scaleImages(Uri, ImageResizeConfig.Dimension[])}.
+     *
+     * @see ImageResizer#scaleImages(Uri, ImageResizeConfig.Dimension[])
+     */
+    public Uri[] scaleImages(Uri sourceUri, ImageResizeConfig.Dimension[] targetDimensions,
+                             ImageEncodeOptions[] encodeOptions) {
+        return scaleImages(sourceUri, targetDimensions, encodeOptions, null);
+    }
+
+    /**
+     * Creates copies of the given image scaled to each size in {@code sizes}, decoding the source
+     * only once in the same manner as
+     * {@link ImageResizer#scaleImages(Uri, ImageResizeConfig.Dimension[])}.
+     *
+     * <p>
+     * The outputs are returned leased, so they can't be evicted from the {@link ResizeCache} while
+     * they are being used, for example uploaded. Call {@link ImageResizeResult#release()} once
+     * they are no longer needed.
+     * </p>
+     *
+     * @param sourceUri The {@link Uri} of the image to be resized
+     * @param sizes The named sizes to produce
+     * @return An {@link ImageResizeResult} mapping the name of each size to its output, which must
+     * be released
+     */
+    public ImageResizeResult scaleImages(Uri sourceUri, ImageSizeSet sizes) {
+        Outputs outputs = new Outputs(sourceUri, sizes.getNames().size(), null);
+        try {
+            return scaleImages(sourceUri, sizes, outputs);
+        } finally {
+            outputs.release();
         }
+    }
 
-        if (bm != null) {
-            Bitmap out = scaleBitmap(bm, targetDimension);
-            if (bm != out) {
-                // output maybe the same bitmap if scaling wasn't needed, otherwise we can recycle it
-                bm.recycle();
+    /**
+     * Decodes the given image for display at about the size specified by {@code targetDimension},
+     * with its EXIF orientation applied. Nothing is written to the cache. For a video, the frame
+     * chosen by {@link ImageResizeConfig#setVideoFrameTime(long)} is extracted instead.
+     *
+     * <p>
+     * The pixel format is chosen by the {@link DecodeStrategy} of this ImageResizer for
+     * {@link DecodeStrategy.Purpose#DISPLAY}, so on API 26 and above the returned bitmap is
+     * usually an immutable {@link Bitmap.Config#HARDWARE} bitmap that can be drawn but not read
+     * or modified. Sources that need an orientation applied, and any source below API 26, are
+     * decoded in software and scaled with the configured {@link ResampleFilter}.
+     * </p>
+     *
+     * <p>
+     * The image is decoded on the calling thread, so this should not be called from the main
+     * thread.
+     * </p>
+     *
+     * @param sourceUri The {@link Uri} of the image to be decoded
+     * @param targetDimension The largest dimensions the decoded bitmap should have
+     * @return The decoded {@link Bitmap}, or {@code null} if the image could not be decoded
+     *
+     * @see ImageResizer#setDecodeStrategy(DecodeStrategy)
+     */
+    public Bitmap decodeForDisplay(Uri sourceUri, ImageResizeConfig.Dimension targetDimension) {
+        // Display decodes are not resize operations, so these metrics are never reported
+        ResizeMetrics metrics = new ResizeMetrics(sourceUri);
+        if (VideoFrameExtractor.isVideo(context, sourceUri)) {
+            return videoFrameExtractor.extractFrame(sourceUri, config.getVideoFrameTime(),
+                targetDimension.getWidth(), targetDimension.getHeight(), config.isVideoKeyframesOnly());
+        }
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            ImageInfo info = imageProbe.probe(sourceUri);
+            if (info != null && info.hasDimensions()) {
+                options.outWidth = info.getWidth();
+                options.outHeight = info.getHeight();
+                options.outMimeType = info.getMimeType();
+            } else {
+                decodeBounds(sourceUri, options, metrics);
+            }
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
             }
+            int orientation = info != null ? info.getOrientation() : ExifOrientation.UNDEFINED;
 
-            OutputStream os = null;
-            try {
-                if (savedFiles >= MAX_FILES) {
-                    savedFiles = 0;
-                }
+            // The output size, and the same size before orientation is applied
+            int[] size = scaledSize(options.outWidth, options.outHeight, orientation, targetDimension);
+            int[] rawSize = ExifOrientation.swapsDimensions(orientation)
+                ? new int[] { size[1], size[0] } : size;
 
-                boolean isJpeg = false;
-                try {
-                    isJpeg = imageIsJPEG(sourceUri);
-                } catch(Exception e) {
-                    e.printStackTrace();
+            boolean opaque = info != null && info.hasDimensions() ? !info.hasAlpha()
+                : "image/jpeg".equals(options.outMimeType);
+            DecodePlanner.Plan plan = DecodePlanner.plan(options.outWidth, options.outHeight,
+                calculateInSampleSize(options, rawSize[0], rawSize[1]), opaque, config);
+            options.inSampleSize = plan.sampleSize;
+            options.inPreferredConfig = plan.config;
+            options.inJustDecodeBounds = false;
+            decodeStrategy.configure(options, DecodeStrategy.Purpose.DISPLAY, info);
+
+            if (ExifOrientation.isNormal(orientation)) {
+                // Let the decoder scale the rest of the way from the sampled size
+                int sampledWidth = (options.outWidth + plan.sampleSize - 1) / plan.sampleSize;
+                if (sampledWidth > rawSize[0]) {
+                    options.inScaled = true;
+                    options.inDensity = sampledWidth;
+                    options.inTargetDensity = rawSize[0];
                 }
+                return decodeStream(sourceUri, options, metrics);
+            }
+
+            if (isHardware(options.inPreferredConfig)) {
+                // The orientation is applied by drawing, which needs a software source
+                options.inPreferredConfig = plan.config;
+            }
+            options.inMutable = true;
+            Bitmap decoded = decodePooled(sourceUri, options, metrics);
+            if (decoded == null) {
+                return null;
+            }
+            Bitmap out = scaleBitmap(decoded, size[0], size[1], config.getResampleFilter(),
+                orientation, null);
+            bitmapPool.put(decoded);
+            return out;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
-                String fileName = String.format(Locale.US, FILE_NAME_FORMAT, savedFiles++, isJpeg ? "jpg" : "png");
-                os = context.openFileOutput(fileName, Context.MODE_PRIVATE);
+        return null;
+    }
 
-                if (isJpeg) {
-                    out = rotateImage( sourceUri, out);
-                    out.compress(Bitmap.CompressFormat.JPEG, 100, os);
-                } else {
-                    out.compress(Bitmap.CompressFormat.PNG, 100, os);
+    /**
+     * Creates a sprite sheet of {@code frameCount} frames evenly spaced across the given video,
+     * in a grid {@code columns} frames wide, for scrubbing previews. Each frame is scaled to fit
+     * within {@code frameDimension}. The sprite sheet is written to the cache like a resized
+     * image, so creating it again for the same video and settings costs nothing.
+     *
+     * @param sourceUri The {@link Uri} of the video
+     * @param frameCount The number of frames to extract
+     * @param columns The number of frames in each row of the grid
+     * @param frameDimension The largest dimensions of each frame
+     * @return A {@link Uri} pointing to the sprite sheet, or {@code null} if the operation failed
+     *
+     * @see VideoFrameExtractor#createSprite(Uri, int, int, int, int, boolean)
+     */
+    public Uri createVideoSprite(Uri sourceUri, int frameCount, int columns,
+                                 ImageResizeConfig.Dimension frameDimension) {
+        Outputs outputs = new Outputs(sourceUri, 1, null);
+        ImageEncodeOptions encodeOptions = new ImageEncodeOptions();
+        outputs.encodeOptions[0] = encodeOptions;
+        long reservedBytes = 0;
+        try {
+            String sourceKey = resizeCache.getSourceKey(context, sourceUri);
+            if (sourceKey != null) {
+                outputs.keys[0] = getCacheKey(ResizeCache.hash(sourceKey, "sprite", String.valueOf(frameCount),
+                    String.valueOf(columns), String.valueOf(config.isVideoKeyframesOnly())),
+                    frameDimension, encodeOptions);
+                ResizeCache.Lease lease = outputs.keys[0] != null ? resizeCache.acquire(outputs.keys[0]) : null;
+                if (lease != null) {
+                    outputs.metrics.addCacheHit();
+                    outputs.complete(0, lease);
                 }
+            }
 
-                dstUri = Uri.fromFile(context.getFileStreamPath(fileName));
+            if (outputs.uris[0] == null) {
+                outputs.dimensions[0] = frameDimension;
+                int[] frameSize = getFrameSize(videoFrameExtractor.getVideoSize(sourceUri), frameDimension);
+                // The sprite and the frame being drawn into it
+                long spriteBytes = (long) frameSize[0] * frameSize[1] * (frameCount + 1)
+                    * DecodePlanner.bytesPerPixel(Bitmap.Config.ARGB_8888);
+                scheduler.acquireMemory(spriteBytes);
+                reservedBytes = spriteBytes;
 
-                if (isJpeg) {
-                    ExifInterface exif = new ExifInterface(context.getContentResolver().openInputStream(dstUri));
-                    exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_NORMAL));
-                    exif.setAttribute(ExifInterface.TAG_DATETIME_ORIGINAL, String.valueOf(new Date().getTime()));
-                    exif.saveAttributes();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                if (os != null) {
-                    try {
-                        os.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                long start = System.nanoTime();
+                Bitmap sprite = videoFrameExtractor.createSprite(sourceUri, frameCount, columns,
+                    Math.max(1, frameSize[0]), Math.max(1, frameSize[1]), config.isVideoKeyframesOnly());
+                outputs.metrics.addDecodeTime(System.nanoTime() - start);
+                if (sprite != null) {
+                    start = System.nanoTime();
+                    ResizeCache.Lease lease = writeImage(sprite, ImageEncoder.resolveFormat(encodeOptions, true),
+                        encodeOptions, outputs.keys[0], outputs);
+                    outputs.metrics.addEncodeTime(System.nanoTime() - start);
+                    sprite.recycle();
+                    if (lease != null) {
+                        outputs.complete(0, lease);
                     }
                 }
+                outputs.failRemaining();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (reservedBytes > 0) {
+                scheduler.releaseMemory(reservedBytes);
             }
+            outputs.release();
+        }
+
+        outputs.metrics.finish();
+        ResizeMetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onResizeMetrics(outputs.metrics);
+        }
+        return outputs.uris[0];
+    }
 
-            out.recycle();
+    private ImageResizeResult scaleImages(Uri sourceUri, ImageSizeSet sizes, Outputs outputs) {
+        List<String> names = sizes.getNames();
+        ImageResizeConfig.Dimension[] dimensions = new ImageResizeConfig.Dimension[names.size()];
+        ImageEncodeOptions[] encodeOptions = new ImageEncodeOptions[names.size()];
+        for (int i = 0; i < dimensions.length; i++) {
+            dimensions[i] = sizes.getDimension(names.get(i));
+            encodeOptions[i] = sizes.getEncodeOptions(names.get(i));
         }
 
-        return dstUri;
+        produceOutputs(sourceUri, dimensions, encodeOptions, outputs);
+
+        ImageResizeResult result = new ImageResizeResult(sourceUri);
+        for (int i = 0; i < outputs.uris.length; i++) {
+            result.put(names.get(i), outputs.uris[i]);
+        }
+        outputs.transferLeases(result);
+        return result;
+    }
+
+    private Uri[] scaleImages(Uri sourceUri, ImageResizeConfig.Dimension[] targetDimensions,
+                              ImageEncodeOptions[] encodeOptions, ResizeJob job) {
+        Outputs outputs = new Outputs(sourceUri, targetDimensions.length, job);
+        try {
+            produceOutputs(sourceUri, targetDimensions, encodeOptions, outputs);
+        } finally {
+            outputs.release();
+        }
+        return outputs.uris;
     }
 
     /**
-     * For a bitmap whose dimensions are represented by {@code options}, calculates the largest
-     * sample size that will result in a sampled bitmap whose dimensions will be equal to or
-     * greater than {@code reqWidth} and {@code reqHeight}.
-     *
-     * <p>See <a href="https://developer.android.com/training/displaying-bitmaps/load-bitmap.html">
-     * https://developer.android.com/training/displaying-bitmaps/load-bitmap.html</a></p>
+     * Produces each requested output, from the cache where possible, leasing each one in
+     * {@code outputs} until the caller releases it. If {@code outputs} has a {@link ResizeJob},
+     * its progress is updated as each output finishes and it is checked for cancellation between
+     * each stage.
      *
-     * @param options A {@link android.graphics.BitmapFactory.Options} object containing the bounds
-     *                of a bitmap
-     * @param reqWidth The desired width of the bitmap to be created using the resulting sample size
-     * @param reqHeight The desired height of the bitmap to be created using the resulting sample
-     *                  size
-     * @return A power-of-2 sample size that will approximately yield the requested dimensions.
+     * @throws java.util.concurrent.CancellationException if the job is cancelled
      */
-    public int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        // Raw height and width of image
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
+    private void produceOutputs(Uri sourceUri, ImageResizeConfig.Dimension[] targetDimensions,
+                                ImageEncodeOptions[] encodeOptions, Outputs outputs) {
+        outputs.throwIfCancelled();
+        String sourceKey = resizeCache.getSourceKey(context, sourceUri);
+        boolean video = VideoFrameExtractor.isVideo(context, sourceUri);
+        if (video && sourceKey != null) {
+            // Outputs of different frames of the same video are different images
+            sourceKey = getVideoFrameKey(sourceKey);
+        }
+        boolean decodeNeeded = false;
+        for (int i = 0; i < targetDimensions.length; i++) {
+            if (targetDimensions[i] == null) {
+                continue;
+            }
+            outputs.encodeOptions[i] = encodeOptions != null && encodeOptions[i] != null
+                ? encodeOptions[i] : new ImageEncodeOptions();
 
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
+            if (sourceKey != null) {
+                outputs.keys[i] = getCacheKey(sourceKey, targetDimensions[i], outputs.encodeOptions[i]);
+                ResizeCache.Lease lease = outputs.keys[i] != null ? resizeCache.acquire(outputs.keys[i]) : null;
+                if (lease != null) {
+                    outputs.metrics.addCacheHit();
+                    outputs.complete(i, lease);
+                    continue;
+                }
+            }
+            outputs.dimensions[i] = targetDimensions[i];
+            decodeNeeded = true;
+        }
 
-            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
-            // height and width larger than the requested height and width.
-            while ((halfHeight / inSampleSize) >= reqHeight
-                && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
+        if (decodeNeeded) {
+            if (video) {
+                extractAndScale(sourceUri, outputs);
+            } else {
+                decodeAndScale(sourceUri, outputs);
             }
+            outputs.failRemaining();
         }
 
-        return inSampleSize;
+        outputs.metrics.finish();
+        ResizeMetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onResizeMetrics(outputs.metrics);
+        }
     }
 
     /**
-     * Creates a copy of the given bitmap scaled to the size specified by {@code targetDimension}.
-     *
-     * <p>
-     * This transformation maintains the aspect ratio of the source image. If the aspect ratio of
-     * {@code targetDimension} is not equal to the aspect ratio of the source image, the scaled
-     * bitmap will be made as large as possible without exceeding the dimensions of
-     * {@code targetDimension}.
-     * </p>
-     *
-     * @param source The {@link Bitmap} to be resized
-     * @param targetDimension The desired dimensions of the copied bitmap
-     * @return The scaled {@link Bitmap} object
+     * Returns the cache key of the output of resizing the source identified by {@code sourceKey}
+     * with the given settings.
      */
-    public static Bitmap scaleBitmap(Bitmap source, ImageResizeConfig.Dimension targetDimension) {
-        float targetRatio = targetDimension.getWidth() / (float) targetDimension.getHeight();
-        float srcRatio = source.getWidth() / (float) source.getHeight();
-
-        int width;
-        int height;
-        if (targetRatio > srcRatio) {
-            height = targetDimension.getHeight();
-            width = (int) (height * srcRatio);
-        } else {
-            width = targetDimension.getWidth();
-            height = (int) (width / srcRatio);
-        }
+    private String getCacheKey(String sourceKey, ImageResizeConfig.Dimension dimension,
+                               ImageEncodeOptions options) {
+        return ResizeCache.hash(CACHE_VERSION, sourceKey,
+            dimension.getWidth() + "x" + dimension.getHeight(),
+            config.getResampleFilter().name(), options.getFormat().name(),
+            String.valueOf(options.getQuality()), String.valueOf(options.getMinQuality()),
+            String.valueOf(options.getTargetFileSize()), config.getExifPolicy().name(),
+            config.getExifPolicy() == ExifPolicy.WHITELIST ? config.getExifWhitelist().toString() : "");
+    }
 
-        return Bitmap.createScaledBitmap(source, width, height, false);
+    private String getVideoFrameKey(String sourceKey) {
+        return ResizeCache.hash(sourceKey, "frame", String.valueOf(config.getVideoFrameTime()),
+            String.valueOf(config.isVideoKeyframesOnly()));
     }
 
     /**
-     * Deletes any temporary files that may have been created by previous resize operations. This
-     * will clear temporary files created by <strong>all</strong> ImageResizer instances, not just
-     * the current one.
+     * Returns the size a frame of a video of {@code videoSize} is extracted at to fit within
+     * {@code dimension}, never larger than the video itself. If the size of the video is not
+     * known, an unconstrained axis of {@code dimension} (see {@link ImageSizeSet#add(String, int)})
+     * is bounded by the other axis, so a reservation is never made for an unbounded frame.
      */
-    public void clearFiles() {
-        for (int i = 0; i < MAX_FILES; i++) {
-            String fileName = String.format(Locale.US, FILE_NAME_FORMAT, i, "jpg");
-            context.deleteFile(fileName);
-            fileName = String.format(Locale.US, FILE_NAME_FORMAT, i, "png");
-            context.deleteFile(fileName);
+    private static int[] getFrameSize(int[] videoSize, ImageResizeConfig.Dimension dimension) {
+        int width = dimension.getWidth();
+        int height = dimension.getHeight();
+        if (videoSize != null) {
+            int[] size = ImageGeometry.scaledSize(videoSize[0], videoSize[1], width, height);
+            return new int[] { Math.min(size[0], videoSize[0]), Math.min(size[1], videoSize[1]) };
+        }
+
+        if (width == Integer.MAX_VALUE) {
+            width = height;
         }
-        savedFiles = 0;
+        if (height == Integer.MAX_VALUE) {
+            height = width;
+        }
+        return new int[] { Math.min(width, MAX_UNKNOWN_FRAME_SIZE), Math.min(height, MAX_UNKNOWN_FRAME_SIZE) };
     }
 
     /**
-     * Callback interface for asynchronous resize operations.
-     *
-     * @see ImageResizer#resizeImage(Uri, ImageResizeCallback)
+     * Extracts the configured frame of the video at {@code sourceUri}, scaled to fit the largest
+     * pending output of {@code outputs}, and writes each pending output from it to the cache.
      */
-    public interface ImageResizeCallback {
-        /**
-         * This method will be invoked when an asynchronous resize operation is completed.
-         *
-         * @param largeUri A {@link Uri} pointing to the large image copy
-         * @param mediumUri A {@link Uri} pointing to the medium image copy
-         * @param smallUri A {@link Uri} pointing to the small image copy
-         */
-        void onResizeComplete(Uri largeUri, Uri mediumUri, Uri smallUri);
+    private void extractAndScale(Uri sourceUri, Outputs outputs) {
+        int[] videoSize = videoFrameExtractor.getVideoSize(sourceUri);
+        int maxWidth = 0;
+        int maxHeight = 0;
+        for (ImageResizeConfig.Dimension dimension : outputs.dimensions) {
+            if (dimension != null) {
+                int[] frameSize = getFrameSize(videoSize, dimension);
+                maxWidth = Math.max(maxWidth, frameSize[0]);
+                maxHeight = Math.max(maxHeight, frameSize[1]);
+            }
+        }
+        if (maxWidth == 0 || maxHeight == 0) {
+            return;
+        }
+
+        long reservedBytes = (long) maxWidth * maxHeight * DecodePlanner.bytesPerPixel(Bitmap.Config.ARGB_8888);
+        try {
+            outputs.throwIfCancelled();
+            scheduler.acquireMemory(reservedBytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        Bitmap frame = null;
+        try {
+            long start = System.nanoTime();
+            frame = videoFrameExtractor.extractFrame(sourceUri, config.getVideoFrameTime(),
+                maxWidth, maxHeight, config.isVideoKeyframesOnly());
+            outputs.metrics.addDecodeTime(System.nanoTime() - start);
+            if (frame != null) {
+                outputs.throwIfCancelled();
+                Bitmap extracted = frame;
+                frame = null;
+                outputs.metrics.allocateBitmap(extracted.getByteCount());
+                try {
+                    // Frames are extracted upright and encoded like photos
+                    scaleDecodedImage(extracted, outputs, true, ExifOrientation.NORMAL);
+                } finally {
+                    outputs.metrics.releaseBitmap(extracted.getByteCount());
+                }
+            }
+        } finally {
+            if (frame != null) {
+                frame.recycle();
+            }
+            scheduler.releaseMemory(reservedBytes);
+        }
+    }
+
+    /**
+     * Decodes {@code sourceUri} once and writes each pending output of {@code outputs} to the
+     * cache.
+     */
+    private void decodeAndScale(Uri sourceUri, Outputs outputs) {
+        ImageResizeConfig.Dimension[] targetDimensions = outputs.dimensions;
+        Bitmap bm = null;
+        int orientation = ExifOrientation.UNDEFINED;
+        long reservedBytes = 0;
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            ImageInfo info = imageProbe.probe(sourceUri);
+            if (info != null && info.hasDimensions()) {
+                // The header had everything needed to plan the decode
+                options.outWidth = info.getWidth();
+                options.outHeight = info.getHeight();
+                options.outMimeType = info.getMimeType();
+            } else {
+                long start = System.nanoTime();
+                decodeBounds(sourceUri, options, outputs.metrics);
+                outputs.metrics.addDecodeTime(System.nanoTime() - start);
+            }
+            if (info != null) {
+                orientation = info.getOrientation();
+                outputs.sourceExif = info.getExifData();
+            }
+            boolean swap = ExifOrientation.swapsDimensions(orientation);
+
+            int inSampleSize = 0;
+            int[] largestSize = null;
+            for (ImageResizeConfig.Dimension dimension : targetDimensions) {
+                if (dimension != null) {
+                    // Sample against the size the output will actually be, which is smaller than
+                    // the target in one direction if their aspect ratios differ. Sizes apply to the
+                    // oriented image, so swap them to match the raw image.
+                    int[] size = scaledSize(options.outWidth, options.outHeight, orientation, dimension);
+                    int sampleSize = swap
+                        ? calculateInSampleSize(options, size[1], size[0])
+                        : calculateInSampleSize(options, size[0], size[1]);
+                    if (inSampleSize == 0 || sampleSize < inSampleSize) {
+                        inSampleSize = sampleSize;
+                    }
+                    if (largestSize == null || area(size) > area(largestSize)) {
+                        largestSize = size;
+                    }
+                }
+            }
+            if (inSampleSize == 0) {
+                // no outputs requested
+                return;
+            }
+
+            boolean isJpeg = info != null ? info.getFormat() == ImageInfo.Format.JPEG
+                : "image/jpeg".equals(options.outMimeType);
+
+            // Opaque images can safely be decoded without an alpha channel
+            boolean opaque = info != null && info.hasDimensions() ? !info.hasAlpha() : isJpeg;
+            DecodePlanner.Plan plan = DecodePlanner.plan(options.outWidth, options.outHeight,
+                inSampleSize, opaque, config);
+
+            if (plan.sampleSize > inSampleSize && TiledDecoder.supports(options.outMimeType)) {
+                // Decoding the whole image would have cost resolution to fit the budget, so decode
+                // it in strips straight to the largest output size instead
+                int[] size = largestSize;
+                if (swap) {
+                    // Decode unoriented, orientation is applied when the outputs are scaled
+                    size = new int[] { size[1], size[0] };
+                }
+                long outputBytes = (long) size[0] * size[1] * DecodePlanner.bytesPerPixel(plan.config);
+                long tiledBytes = outputBytes + TiledDecoder.getStripBytes(outputBytes);
+
+                outputs.throwIfCancelled();
+                scheduler.acquireMemory(tiledBytes);
+                reservedBytes = tiledBytes;
+
+                outputs.metrics.setSampleSize(ImageGeometry.calculateInSampleSize(options.outWidth,
+                    options.outHeight, size[0], size[1]), true);
+                long start = System.nanoTime();
+                bm = new TiledDecoder(context, bitmapPool).decode(sourceUri, options.outWidth,
+                    options.outHeight, size[0], size[1], plan.config, outputs.job, outputs.metrics);
+                outputs.metrics.addDecodeTime(System.nanoTime() - start);
+            } else {
+                options.inSampleSize = plan.sampleSize;
+                options.inPreferredConfig = plan.config;
+                options.inJustDecodeBounds = false;
+                decodeStrategy.configure(options, DecodeStrategy.Purpose.ENCODE, info);
+                if (isHardware(options.inPreferredConfig)) {
+                    // Outputs are drawn into, which a hardware bitmap can't be
+                    options.inPreferredConfig = plan.config;
+                }
+                options.inMutable = true;
+                long decodeBytes = DecodePlanner.estimateBytes(options.outWidth, options.outHeight,
+                    plan.sampleSize, options.inPreferredConfig);
+
+                outputs.throwIfCancelled();
+                scheduler.acquireMemory(decodeBytes);
+                reservedBytes = decodeBytes;
+
+                // Lets cancel() stop the decode part way through
+                outputs.setDecodeOptions(options);
+                outputs.metrics.setSampleSize(plan.sampleSize, false);
+                long start = System.nanoTime();
+                try {
+                    bm = decodePooled(sourceUri, options, outputs.metrics);
+                } finally {
+                    outputs.setDecodeOptions(null);
+                    outputs.metrics.addDecodeTime(System.nanoTime() - start);
+                }
+            }
+
+            if (bm != null) {
+                // A cancelled decode may return a partial image, so check before using it
+                outputs.throwIfCancelled();
+                Bitmap decoded = bm;
+                bm = null;
+                outputs.metrics.allocateBitmap(decoded.getByteCount());
+                try {
+                    scaleDecodedImage(decoded, outputs, isJpeg, orientation);
+                } finally {
+                    outputs.metrics.releaseBitmap(decoded.getByteCount());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (bm != null) {
+                bitmapPool.put(bm);
+            }
+            if (reservedBytes > 0) {
+                scheduler.releaseMemory(reservedBytes);
+            }
+        }
+    }
+
+    /**
+     * Scales and writes each pending output of {@code outputs} from the decoded source bitmap
+     * {@code bm}, which is returned to the pool once all outputs have been written or the
+     * operation is cancelled.
+     *
+     * <p>
+     * Scaling runs on the calling thread, since each output is scaled from the one before it.
+     * Each scaled output is then encoded on an idle worker of the scheduler while the next one is
+     * scaled, so the outputs are written in about the time of the slowest encode instead of the
+     * sum of all of them. This holds every scaled output in memory until all of them are written,
+     * which is less than the decoded source for typical sizes.
+     * </p>
+     */
+    private void scaleDecodedImage(Bitmap bm, Outputs outputs, boolean isJpeg, int orientation) {
+        ImageResizeConfig.Dimension[] targetDimensions = outputs.dimensions;
+        final int[][] sizes = new int[targetDimensions.length][];
+        Integer[] order = new Integer[targetDimensions.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            if (targetDimensions[i] != null) {
+                sizes[i] = scaledSize(bm.getWidth(), bm.getHeight(), orientation, targetDimensions[i]);
+            }
+        }
+        // Scale largest to smallest, so each output can be used as the source for the next
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                long lhsArea = area(sizes[lhs]);
+                long rhsArea = area(sizes[rhs]);
+                return lhsArea > rhsArea ? -1 : (lhsArea == rhsArea ? 0 : 1);
+            }
+        });
+
+        int pendingCount = 0;
+        for (int[] size : sizes) {
+            if (size != null) {
+                pendingCount++;
+            }
+        }
+
+        List<EncodeTask> tasks = new ArrayList<>();
+        List<Bitmap> scaled = new ArrayList<>();
+        RuntimeException error = null;
+        try {
+            Bitmap previous = null;
+            for (int index : order) {
+                int[] size = sizes[index];
+                if (size == null) {
+                    continue;
+                }
+                outputs.throwIfCancelled();
+
+                // Only cascade from the previous output if it is at least as large as this output
+                // will be, otherwise fall back to the decoded source to avoid upscaling. The
+                // previous output has already been oriented.
+                Bitmap source = bm;
+                int sourceOrientation = orientation;
+                if (previous != null && previous.getWidth() >= size[0] && previous.getHeight() >= size[1]) {
+                    source = previous;
+                    sourceOrientation = ExifOrientation.NORMAL;
+                }
+
+                long start = System.nanoTime();
+                Bitmap out = scaleBitmap(source, size[0], size[1], config.getResampleFilter(),
+                    sourceOrientation, bitmapPool);
+                outputs.metrics.addScaleTime(System.nanoTime() - start);
+                if (out != source) {
+                    scaled.add(out);
+                    outputs.metrics.allocateBitmap(out.getByteCount());
+                }
+                previous = out;
+
+                EncodeTask task = new EncodeTask(out, index, isJpeg, outputs);
+                tasks.add(task);
+                if (tasks.size() < pendingCount) {
+                    // The last output is encoded on this thread, which would otherwise sit idle
+                    scheduler.fork(task);
+                }
+            }
+        } finally {
+            // Bitmaps can only be returned to the pool once nothing is encoding them
+            for (EncodeTask task : tasks) {
+                try {
+                    task.join();
+                } catch (RuntimeException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            for (Bitmap bitmap : scaled) {
+                outputs.metrics.releaseBitmap(bitmap.getByteCount());
+                bitmapPool.put(bitmap);
+            }
+            bitmapPool.put(bm);
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Decodes {@code sourceUri} into a bitmap from the pool if one is available, falling back to a
+     * regular decode if the pooled bitmap can't be used. Reusing a bitmap with a sample size other
+     * than 1 requires API 19.
+     */
+    private Bitmap decodePooled(Uri sourceUri, BitmapFactory.Options options, ResizeMetrics metrics)
+        throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // The decoder may round sampled dimensions up, so request the largest size it can produce
+            int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            options.inBitmap = bitmapPool.getDirty(width, height, options.inPreferredConfig);
+        }
+
+        if (options.inBitmap != null) {
+            try {
+                Bitmap bitmap = decodeStream(sourceUri, options, metrics);
+                if (bitmap == null) {
+                    bitmapPool.put(options.inBitmap);
+                }
+                return bitmap;
+            } catch (IllegalArgumentException e) {
+                // The pooled bitmap wasn't compatible with the source, decode without it
+                bitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+            }
+        }
+
+        return decodeStream(sourceUri, options, metrics);
+    }
+
+    /**
+     * Decodes the bounds of {@code sourceUri} into {@code options}, for images whose dimensions
+     * could not be found by {@link ImageProbe}.
+     */
+    private void decodeBounds(Uri sourceUri, BitmapFactory.Options options, ResizeMetrics metrics)
+        throws IOException {
+        options.inJustDecodeBounds = true;
+        decodeStream(sourceUri, options, metrics);
+    }
+
+    private Bitmap decodeStream(Uri sourceUri, BitmapFactory.Options options, ResizeMetrics metrics)
+        throws IOException {
+        InputStream stream = context.getContentResolver().openInputStream(sourceUri);
+        if (stream == null) {
+            throw new FileNotFoundException("Unable to open " + sourceUri);
+        }
+
+        CountingInputStream in = new CountingInputStream(stream);
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            metrics.addBytesRead(in.getCount());
+            in.close();
+        }
+    }
+
+    /**
+     * Writes {@code bitmap} to the cache under {@code key} in the given resolved format.
+     * {@code bitmap} itself is not recycled. Nothing is committed if the operation is cancelled.
+     *
+     * <p>
+     * JPEG outputs get an EXIF segment with a normal orientation, since the source orientation
+     * has already been applied to the pixels, and the source tags allowed by the configured
+     * {@link ExifPolicy}. The source DateTimeOriginal is used if it is copied, otherwise the
+     * time of writing. The segment is inserted as the file is written, so it is never read back
+     * or rewritten.
+     * </p>
+     *
+     * @return A lease on the written file, or {@code null} if it could not be written
+     */
+    private ResizeCache.Lease writeImage(Bitmap bitmap, ImageEncodeOptions.Format format,
+                                         ImageEncodeOptions options, String key, Outputs outputs) {
+        File tempFile = null;
+        OutputStream os = null;
+        try {
+            byte[] exifSegment = null;
+            if (format == ImageEncodeOptions.Format.JPEG) {
+                exifSegment = buildExifSegment(outputs.sourceExif);
+            }
+
+            tempFile = resizeCache.createTempFile();
+            os = new FileOutputStream(tempFile);
+            boolean encoded = ImageEncoder.encode(bitmap, format, options, exifSegment, os);
+            os.close();
+            os = null;
+            if (!encoded) {
+                return null;
+            }
+
+            outputs.throwIfCancelled();
+            long length = tempFile.length();
+            ResizeCache.Lease lease = resizeCache.commit(tempFile, key, ImageEncoder.getExtension(format));
+            tempFile = null;
+            outputs.metrics.addOutput(length);
+            return lease;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Builds the APP1 segment for a JPEG output from the tags of the source allowed by the
+     * configured {@link ExifPolicy}.
+     */
+    private byte[] buildExifSegment(ExifData sourceExif) {
+        ExifWriter exif = new ExifWriter();
+        if (sourceExif != null) {
+            sourceExif.copyTo(exif, config.getExifPolicy(), config.getExifWhitelist());
+        }
+        exif.setOrientation(ExifOrientation.NORMAL);
+        if (!exif.hasAttribute(ExifWriter.IFD_EXIF, ExifWriter.TAG_DATETIME_ORIGINAL)) {
+            exif.setDateTimeOriginal(new Date());
+        }
+
+        if (exif.getSegmentLength() > ExifWriter.MAX_SEGMENT_LENGTH) {
+            // Too many tags were copied to fit in one segment, so copy none
+            return new ExifWriter()
+                .setOrientation(ExifOrientation.NORMAL)
+                .setDateTimeOriginal(new Date())
+                .toSegment();
+        }
+        return exif.toSegment();
+    }
+
+    private static long area(int[] size) {
+        return size == null ? -1 : (long) size[0] * size[1];
+    }
+
+    /**
+     * For a bitmap whose dimensions are represented by {@code options}, calculates the largest
+     * sample size that will result in a sampled bitmap whose dimensions will be equal to or
+     * greater than {@code reqWidth} and {@code reqHeight}.
+     *
+     * <p>See <a href="https://developer.android.com/training/displaying-bitmaps/load-bitmap.html">
+     * https://developer.android.com/training/displaying-bitmaps/load-bitmap.html</a></p>
+     *
+     * @param options A {@link android.graphics.BitmapFactory.Options} object containing the bounds
+     *                of a bitmap
+     * @param reqWidth The desired width of the bitmap to be created using the resulting sample size
+     * @param reqHeight The desired height of the bitmap to be created using the resulting sample
+     *                  size
+     * @return A power-of-2 sample size that will approximately yield the requested dimensions.
+     */
+    public int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
+        return ImageGeometry.calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+    }
+
+    /**
+     * Creates a copy of the given bitmap scaled to the size specified by {@code targetDimension}.
+     *
+     * <p>
+     * This transformation maintains the aspect ratio of the source image. If the aspect ratio of
+     * {@code targetDimension} is not equal to the aspect ratio of the source image, the scaled
+     * bitmap will be made as large as possible without exceeding the dimensions of
+     * {@code targetDimension}.
+     * </p>
+     *
+     * <p>
+     * The bitmap is scaled without filtering, equivalent to {@link ResampleFilter#NEAREST}.
+     * </p>
+     *
+     * @param source The {@link Bitmap} to be resized
+     * @param targetDimension The desired dimensions of the copied bitmap
+     * @return The scaled {@link Bitmap} object
+     *
+     * @see ImageResizer#scaleBitmap(Bitmap, ImageResizeConfig.Dimension, ResampleFilter)
+     */
+    public static Bitmap scaleBitmap(Bitmap source, ImageResizeConfig.Dimension targetDimension) {
+        int[] size = scaledSize(source.getWidth(), source.getHeight(), targetDimension);
+        int width = size[0];
+        int height = size[1];
+
+        return Bitmap.createScaledBitmap(source, width, height, false);
+    }
+
+    /**
+     * Creates a copy of the given bitmap scaled to the size specified by {@code targetDimension},
+     * using the given {@link ResampleFilter}.
+     *
+     * <p>
+     * This transformation maintains the aspect ratio of the source image in the same manner as
+     * {@link ImageResizer#scaleBitmap(Bitmap, ImageResizeConfig.Dimension)}.
+     * </p>
+     *
+     * @param source The {@link Bitmap} to be resized
+     * @param targetDimension The desired dimensions of the copied bitmap
+     * @param filter The {@link ResampleFilter} to scale with
+     * @return The scaled {@link Bitmap} object, or {@code source} itself if it is already the
+     * requested size
+     */
+    public static Bitmap scaleBitmap(Bitmap source, ImageResizeConfig.Dimension targetDimension,
+                                     ResampleFilter filter) {
+        int[] size = scaledSize(source.getWidth(), source.getHeight(), targetDimension);
+        return scaleBitmap(source, size[0], size[1], filter, ExifOrientation.NORMAL, null);
+    }
+
+    /**
+     * Scales {@code source} to exactly {@code width} x {@code height} with the given filter, applying
+     * the given EXIF orientation in the same pass. {@code width} and {@code height} are the
+     * dimensions of the oriented output. The output and any intermediate bitmaps are taken from
+     * {@code pool} if it is not {@code null}, and intermediates are returned to it. {@code source}
+     * is never recycled.
+     */
+    static Bitmap scaleBitmap(Bitmap source, int width, int height, ResampleFilter filter,
+                              int orientation, BitmapPool pool) {
+        boolean normal = ExifOrientation.isNormal(orientation);
+        // The size to scale to before orientation is applied
+        int scaledWidth = ExifOrientation.swapsDimensions(orientation) ? height : width;
+        int scaledHeight = ExifOrientation.swapsDimensions(orientation) ? width : height;
+        if (normal && scaledWidth == source.getWidth() && scaledHeight == source.getHeight()) {
+            return source;
+        }
+
+        Bitmap.Config bitmapConfig = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+
+        if (filter == ResampleFilter.AREA_AVERAGE) {
+            // Resample straight from one bitmap into the other a row at a time, since copying
+            // either into an array would take memory the scheduler's reservation doesn't cover
+            final Bitmap in = source;
+            Bitmap out = createBitmap(source, width, height, bitmapConfig, pool);
+            PixelResampler.areaAverage(new PixelResampler.RowSource() {
+                @Override
+                public void getRow(int y, int[] row) {
+                    in.getPixels(row, 0, in.getWidth(), 0, y, in.getWidth(), 1);
+                }
+            }, source.getWidth(), source.getHeight(),
+                new OrientedRowSink(out, scaledWidth, scaledHeight, orientation),
+                scaledWidth, scaledHeight);
+            out.setHasAlpha(source.hasAlpha());
+            return out;
+        }
+
+        Bitmap current = source;
+        if (filter == ResampleFilter.PROGRESSIVE_HALVING) {
+            // A bilinear draw at exactly half size averages each 2x2 block of source pixels
+            while (current.getWidth() >= 2 * scaledWidth && current.getHeight() >= 2 * scaledHeight) {
+                Bitmap half = drawScaled(current, current.getWidth() / 2, current.getHeight() / 2,
+                    ExifOrientation.NORMAL, bitmapConfig, true, pool);
+                if (current != source) {
+                    recycle(current, pool);
+                }
+                current = half;
+            }
+            if (normal && current.getWidth() == width && current.getHeight() == height) {
+                return current;
+            }
+        }
+
+        Bitmap out = drawScaled(current, scaledWidth, scaledHeight, orientation, bitmapConfig,
+            filter != ResampleFilter.NEAREST, pool);
+        if (current != source) {
+            recycle(current, pool);
+        }
+        return out;
+    }
+
+    /**
+     * Draws {@code source} scaled to {@code width} x {@code height} and then oriented, into a new
+     * bitmap with the oriented dimensions.
+     */
+    private static Bitmap drawScaled(Bitmap source, int width, int height, int orientation,
+                                     Bitmap.Config bitmapConfig, boolean filter, BitmapPool pool) {
+        boolean swap = ExifOrientation.swapsDimensions(orientation);
+        Bitmap out = createBitmap(source, swap ? height : width, swap ? width : height, bitmapConfig, pool);
+        out.setHasAlpha(source.hasAlpha());
+
+        Matrix matrix = new Matrix();
+        matrix.setScale(width / (float) source.getWidth(), height / (float) source.getHeight());
+        switch (orientation) {
+            case ExifOrientation.FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifOrientation.ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifOrientation.FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifOrientation.TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifOrientation.ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifOrientation.TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifOrientation.ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+        }
+
+        // Move the transformed image back to the origin
+        RectF bounds = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+
+        Canvas canvas = new Canvas(out);
+        canvas.drawBitmap(source, matrix, filter ? new Paint(Paint.FILTER_BITMAP_FLAG) : null);
+        return out;
+    }
+
+    /**
+     * Creates a bitmap to draw a scaled copy of {@code source} into, in the same color space as
+     * {@code source} on API 26 and above. Pooled bitmaps are always sRGB, so a wide gamut source
+     * gets a newly allocated bitmap.
+     */
+    private static Bitmap createBitmap(Bitmap source, int width, int height, Bitmap.Config bitmapConfig,
+                                       BitmapPool pool) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ColorSpace colorSpace = source.getColorSpace();
+            if (colorSpace != null && !colorSpace.isSrgb()) {
+                return Bitmap.createBitmap(width, height, bitmapConfig, true, colorSpace);
+            }
+        }
+
+        Bitmap out = pool != null ? pool.get(width, height, bitmapConfig) : null;
+        if (out == null) {
+            out = Bitmap.createBitmap(width, height, bitmapConfig);
+        }
+        return out;
+    }
+
+    private static boolean isHardware(Bitmap.Config bitmapConfig) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmapConfig == Bitmap.Config.HARDWARE;
+    }
+
+    private static void recycle(Bitmap bitmap, BitmapPool pool) {
+        if (pool != null) {
+            pool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    private static int[] scaledSize(int srcWidth, int srcHeight, int orientation,
+                                    ImageResizeConfig.Dimension targetDimension) {
+        return ImageGeometry.scaledSize(srcWidth, srcHeight, orientation, targetDimension.getWidth(),
+            targetDimension.getHeight());
+    }
+
+    private static int[] scaledSize(int srcWidth, int srcHeight, ImageResizeConfig.Dimension targetDimension) {
+        return ImageGeometry.scaledSize(srcWidth, srcHeight, targetDimension.getWidth(),
+            targetDimension.getHeight());
+    }
+
+    /**
+     * Deletes any files that may have been created by previous resize operations and are not
+     * currently leased. This will clear files created by <strong>all</strong> ImageResizer
+     * instances sharing this ImageResizer's {@link ResizeCache}, not just the current one.
+     *
+     * @see ResizeCache#clear()
+     */
+    public void clearFiles() {
+        resizeCache.clear();
+
+        // Only delete the files written by earlier versions of ImageResizer that actually exist
+        String[] files = context.fileList();
+        if (files != null) {
+            for (String file : files) {
+                if (LEGACY_FILE_NAME_PATTERN.matcher(file).matches()) {
+                    context.deleteFile(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Callback interface for asynchronous resize operations.
+     *
+     * @see ImageResizer#resizeImage(Uri, ImageResizeCallback)
+     */
+    public interface ImageResizeCallback {
+        /**
+         * This method will be invoked when an asynchronous resize operation is completed. The
+         * copies are protected from eviction from the {@link ResizeCache} until this method
+         * returns; lease them with {@link ResizeCache#lease(Uri)} to keep using them afterwards.
+         *
+         * @param largeUri A {@link Uri} pointing to the large image copy
+         * @param mediumUri A {@link Uri} pointing to the medium image copy
+         * @param smallUri A {@link Uri} pointing to the small image copy
+         */
+        void onResizeComplete(Uri largeUri, Uri mediumUri, Uri smallUri);
+    }
+
+    /**
+     * Callback interface for asynchronous resize operations on an {@link ImageSizeSet}.
+     *
+     * @see ImageResizer#resizeImage(Uri, ImageSizeSet, ImageResizeResultCallback)
+     */
+    public interface ImageResizeResultCallback {
+        /**
+         * This method will be invoked when an asynchronous resize operation is completed. If the
+         * operation failed unexpectedly, for example by running out of memory, it is still
+         * invoked, with a {@code null} output for every size.
+         *
+         * <p>
+         * The outputs are protected from eviction from the {@link ResizeCache} until this method
+         * returns. To keep using an output afterwards, for example to upload it, lease it with
+         * {@link ResizeCache#lease(Uri)} before returning.
+         * </p>
+         *
+         * @param result An {@link ImageResizeResult} containing the output for each requested size
+         */
+        void onResizeComplete(ImageResizeResult result);
+    }
+
+    /**
+     * A {@link ImageResizeResultCallback} that is also notified as each output of an
+     * asynchronous resize operation finishes, before the operation as a whole completes.
+     *
+     * @see ImageResizer#resizeImage(Uri, ImageSizeSet, ImageResizeResultCallback)
+     */
+    public interface ImageResizeProgressCallback extends ImageResizeResultCallback {
+        /**
+         * This method will be invoked from the worker thread as each output is written or fails.
+         * Outputs found in the cache are reported before any others.
+         *
+         * @param job The {@link ResizeJob} producing the output
+         * @param name The name of the size in the {@link ImageSizeSet}
+         * @param uri A {@link Uri} pointing to the scaled image copy, or {@code null} if it
+         *            failed
+         */
+        void onOutputComplete(ResizeJob job, String name, Uri uri);
+    }
+
+    /**
+     * Listener interface for the metrics of resize operations.
+     *
+     * @see ImageResizer#setMetricsListener(ResizeMetricsListener)
+     */
+    public interface ResizeMetricsListener {
+        /**
+         * This method will be invoked when a resize operation completes, including operations
+         * that failed or were served entirely from the cache. It must return quickly, since it
+         * runs on the thread of the operation.
+         *
+         * @param metrics The {@link ResizeMetrics} of the operation
+         */
+        void onResizeMetrics(ResizeMetrics metrics);
+    }
+
+    /**
+     * Encodes and writes a single scaled output. Runs on whichever thread claims it first, either
+     * an idle worker of the scheduler or the thread that scaled the output when it joins the task,
+     * so waiting for it can never deadlock even if every worker is busy.
+     */
+    private class EncodeTask implements Runnable {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Bitmap bitmap;
+        private final int index;
+        private final boolean isJpeg;
+        private final Outputs outputs;
+        private volatile RuntimeException error;
+
+        EncodeTask(Bitmap bitmap, int index, boolean isJpeg, Outputs outputs) {
+            this.bitmap = bitmap;
+            this.index = index;
+            this.isJpeg = isJpeg;
+            this.outputs = outputs;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                outputs.throwIfCancelled();
+                ImageEncodeOptions options = outputs.encodeOptions[index];
+                long start = System.nanoTime();
+                ResizeCache.Lease lease = writeImage(bitmap, ImageEncoder.resolveFormat(options, isJpeg),
+                    options, outputs.keys[index], outputs);
+                outputs.metrics.addEncodeTime(System.nanoTime() - start);
+                if (lease != null) {
+                    outputs.complete(index, lease);
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * Runs this task on the calling thread if no worker has started it yet, otherwise waits
+         * for it to finish. Interrupts are deferred until then, since the bitmap must not be
+         * reused while it is being encoded.
+         */
+        void join() {
+            run();
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Writes each row of an unoriented image into a bitmap with an EXIF orientation applied, in
+     * the same way as {@link ExifOrientation#transform(int[], int, int, int)}. A row lands on a
+     * row of the bitmap, or on a column for orientations that swap the dimensions, reversed for
+     * the orientations that mirror it.
+     */
+    private static class OrientedRowSink implements PixelResampler.RowSink {
+        private final Bitmap bitmap;
+        // The dimensions of the image before orientation is applied
+        private final int width;
+        private final int height;
+        private final int orientation;
+        private final int[] reversed;
+
+        OrientedRowSink(Bitmap bitmap, int width, int height, int orientation) {
+            this.bitmap = bitmap;
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+            reversed = ExifOrientation.isNormal(orientation) ? null : new int[width];
+        }
+
+        @Override
+        public void setRow(int y, int[] row) {
+            switch (orientation) {
+                case ExifOrientation.FLIP_HORIZONTAL:
+                    bitmap.setPixels(reverse(row), 0, width, 0, y, width, 1);
+                    break;
+                case ExifOrientation.ROTATE_180:
+                    bitmap.setPixels(reverse(row), 0, width, 0, height - 1 - y, width, 1);
+                    break;
+                case ExifOrientation.FLIP_VERTICAL:
+                    bitmap.setPixels(row, 0, width, 0, height - 1 - y, width, 1);
+                    break;
+                case ExifOrientation.TRANSPOSE:
+                    bitmap.setPixels(row, 0, 1, y, 0, 1, width);
+                    break;
+                case ExifOrientation.ROTATE_90:
+                    bitmap.setPixels(row, 0, 1, height - 1 - y, 0, 1, width);
+                    break;
+                case ExifOrientation.TRANSVERSE:
+                    bitmap.setPixels(reverse(row), 0, 1, height - 1 - y, 0, 1, width);
+                    break;
+                case ExifOrientation.ROTATE_270:
+                    bitmap.setPixels(reverse(row), 0, 1, y, 0, 1, width);
+                    break;
+                default:
+                    bitmap.setPixels(row, 0, width, 0, y, width, 1);
+                    break;
+            }
+        }
+
+        private int[] reverse(int[] row) {
+            for (int x = 0; x < width; x++) {
+                reversed[width - 1 - x] = row[x];
+            }
+            return reversed;
+        }
+    }
+
+    /**
+     * The state of a single scaleImages operation, shared by each stage of the pipeline.
+     */
+    private static class Outputs {
+        // The sizes that still need to be produced, null once cached or not requested
+        final ImageResizeConfig.Dimension[] dimensions;
+        final ImageEncodeOptions[] encodeOptions;
+        final String[] keys;
+        final Uri[] uris;
+        // Outputs are leased until all of them are written, so writing one can't evict another
+        final List<ResizeCache.Lease> leases = new ArrayList<>();
+        final ResizeJob job;
+        final ResizeMetrics metrics;
+        // The EXIF tags of the source, set once it has been probed
+        ExifData sourceExif;
+
+        Outputs(Uri sourceUri, int count, ResizeJob job) {
+            metrics = new ResizeMetrics(sourceUri);
+            dimensions = new ImageResizeConfig.Dimension[count];
+            encodeOptions = new ImageEncodeOptions[count];
+            keys = new String[count];
+            uris = new Uri[count];
+            this.job = job;
+        }
+
+        synchronized void complete(int index, ResizeCache.Lease lease) {
+            leases.add(lease);
+            uris[index] = lease.getUri();
+            if (job != null) {
+                job.onOutputComplete(index, uris[index]);
+            }
+        }
+
+        /**
+         * Reports each pending output that was not written as failed.
+         */
+        synchronized void failRemaining() {
+            for (int i = 0; i < dimensions.length; i++) {
+                if (dimensions[i] != null && uris[i] == null) {
+                    metrics.addFailure();
+                    if (job != null) {
+                        job.onOutputComplete(i, null);
+                    }
+                }
+            }
+        }
+
+        void throwIfCancelled() {
+            if (job != null) {
+                job.throwIfCancelled();
+            }
+        }
+
+        void setDecodeOptions(BitmapFactory.Options options) {
+            if (job != null) {
+                job.setDecodeOptions(options);
+            }
+        }
+
+        /**
+         * Hands the leases on every output to {@code result}, which releases them instead.
+         */
+        synchronized void transferLeases(ImageResizeResult result) {
+            for (ResizeCache.Lease lease : leases) {
+                result.addLease(lease);
+            }
+            leases.clear();
+        }
+
+        synchronized void release() {
+            for (ResizeCache.Lease lease : leases) {
+                lease.release();
+            }
+            leases.clear();
+        }
     }
 }
@@ -0,0 +1,174 @@
+package com.isbx.androidtools.media;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * An ordered set of named output sizes for {@link ImageResizer} to produce from a single source
+ * image, such as the widths of a responsive image set.
+ *
+ * <p>
+ * All sizes in a set are produced from a single decode of the source, with each output scaled
+ * down from the next larger one. Settings that apply to the whole operation, such as the
+ * {@link ResampleFilter} and the memory budget, are still taken from the resizer's
+ * {@link ImageResizeConfig}.
+ * </p>
+ *
+ * <pre>
+ * ImageSizeSet sizes = ImageSizeSet.fromWidths(64, 128, 320, 640, 1280, 2048);
+ * ImageResizeResult result = imageResizer.scaleImages(sourceUri, sizes);
+ * Uri thumbnail = result.getUri("64");
+ * // ... once the outputs are no longer needed
+ * result.release();
+ * </pre>
+ *
+ * @see ImageResizer#scaleImages(android.net.Uri, ImageSizeSet)
+ * @see ImageResizeResult
+ */
+public class ImageSizeSet {
+
+    /**
+     * The height used for sizes constrained only by width.
+     */
+    private static final int UNCONSTRAINED = Integer.MAX_VALUE;
+
+    private final LinkedHashMap<String, Size> sizes = new LinkedHashMap<>();
+
+    /**
+     * Creates a set with one size per width, constrained by width only. Each size is named after
+     * its width, e.g. {@code "640"}.
+     *
+     * @param widths The output widths in pixels
+     * @return A new ImageSizeSet
+     */
+    public static ImageSizeSet fromWidths(int... widths) {
+        ImageSizeSet set = new ImageSizeSet();
+        for (int width : widths) {
+            set.addWidth(String.valueOf(width), width);
+        }
+        return set;
+    }
+
+    /**
+     * Adds an output size that fits within {@code width} x {@code height}, encoded with the default
+     * {@link ImageEncodeOptions}.
+     *
+     * @param name The name the output will have in the {@link ImageResizeResult}
+     * @param width The maximum width in pixels of the output image
+     * @param height The maximum height in pixels of the output image
+     * @return This ImageSizeSet object to allow for method chaining
+     * @throws IllegalArgumentException if a size with the same name was already added
+     */
+    public ImageSizeSet add(String name, int width, int height) {
+        return add(name, width, height, new ImageEncodeOptions());
+    }
+
+    /**
+     * Adds an output size that fits within {@code width} x {@code height}.
+     * <p>
+     * ImageSizeSet does not hold a reference to the {@code encodeOptions} parameter object.
+     * Altering {@code encodeOptions} after invoking this method will not affect the added size.
+     * </p>
+     *
+     * @param name The name the output will have in the {@link ImageResizeResult}
+     * @param width The maximum width in pixels of the output image
+     * @param height The maximum height in pixels of the output image
+     * @param encodeOptions The format and quality to write the output with
+     * @return This ImageSizeSet object to allow for method chaining
+     * @throws IllegalArgumentException if a size with the same name was already added
+     */
+    public ImageSizeSet add(String name, int width, int height, ImageEncodeOptions encodeOptions) {
+        if (sizes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate size name: " + name);
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive");
+        }
+
+        ImageEncodeOptions options = new ImageEncodeOptions();
+        options.set(encodeOptions);
+        sizes.put(name, new Size(new ImageResizeConfig.Dimension(width, height), options));
+        return this;
+    }
+
+    /**
+     * Adds an output size that is {@code width} pixels wide with the height given by the aspect
+     * ratio of the source, encoded with the default {@link ImageEncodeOptions}.
+     *
+     * @param name The name the output will have in the {@link ImageResizeResult}
+     * @param width The width in pixels of the output image
+     * @return This ImageSizeSet object to allow for method chaining
+     * @throws IllegalArgumentException if a size with the same name was already added
+     */
+    public ImageSizeSet addWidth(String name, int width) {
+        return add(name, width, UNCONSTRAINED);
+    }
+
+    /**
+     * Adds an output size that is {@code width} pixels wide with the height given by the aspect
+     * ratio of the source.
+     *
+     * @param name The name the output will have in the {@link ImageResizeResult}
+     * @param width The width in pixels of the output image
+     * @param encodeOptions The format and quality to write the output with
+     * @return This ImageSizeSet object to allow for method chaining
+     * @throws IllegalArgumentException if a size with the same name was already added
+     */
+    public ImageSizeSet addWidth(String name, int width, ImageEncodeOptions encodeOptions) {
+        return add(name, width, UNCONSTRAINED, encodeOptions);
+    }
+
+    /**
+     * Returns the names of the sizes in this set, in the order they were added.
+     *
+     * @return An unmodifiable list of size names
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(new ArrayList<>(sizes.keySet()));
+    }
+
+    /**
+     * Returns the number of sizes in this set.
+     *
+     * @return The number of sizes
+     */
+    public int size() {
+        return sizes.size();
+    }
+
+    /**
+     * Returns the maximum dimensions of the named size.
+     *
+     * @param name The name of the size
+     * @return The {@link ImageResizeConfig.Dimension} of the size, or {@code null} if there is no
+     * size with that name
+     */
+    public ImageResizeConfig.Dimension getDimension(String name) {
+        Size size = sizes.get(name);
+        return size != null ? size.dimension : null;
+    }
+
+    /**
+     * Returns the encoding settings of the named size.
+     *
+     * @param name The name of the size
+     * @return The {@link ImageEncodeOptions} of the size, or {@code null} if there is no size with
+     * that name
+     */
+    public ImageEncodeOptions getEncodeOptions(String name) {
+        Size size = sizes.get(name);
+        return size != null ? size.encodeOptions : null;
+    }
+
+    private static class Size {
+        final ImageResizeConfig.Dimension dimension;
+        final ImageEncodeOptions encodeOptions;
+
+        Size(ImageResizeConfig.Dimension dimension, ImageEncodeOptions encodeOptions) {
+            this.dimension = dimension;
+            this.encodeOptions = encodeOptions;
+        }
+    }
+}
@@ -19,6 +19,7 @@ import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.FileProvider;
 import android.util.Log;
+import android.webkit.MimeTypeMap;
 
 import com.isbx.androidtools.R;
 
@@ -93,6 +94,13 @@ import java.io.InputStream;
  * targeting an API below 23, or you do not declare {@link android.Manifest.permission#CAMERA} in
  * your manifest, you do not need to do this.
  * </p>
+ *
+ * <p>
+ * Images selected from the library are copied to {@link ResizeCache#getMediaPickerCache(Context)},
+ * which deletes copies once they have gone unused for 7 days but never to make room for others,
+ * so the {@link Uri} of every selection stays valid for as long as it is in use. To keep a copy
+ * regardless of age, hold a lease on it from that cache with {@link ResizeCache#lease(Uri)}.
+ * </p>
  */
 public class MediaPicker implements ActivityCompat.OnRequestPermissionsResultCallback {
 
@@ -103,7 +111,9 @@ public class MediaPicker implements ActivityCompat.OnRequestPermissionsResultCal
     private static final int REQUEST_VIDEO = 1002;
     private static final int REQUEST_CAMERA_PERMISSION = 1100;
 
-    private static final String CACHE_FILE_NAME = "mediapicker_pic";
+    // Copies written to the cache directory before ResizeCache
+    private static final String LEGACY_CACHE_FILE_PREFIX = "mediapicker_pic";
+    private static final String DEFAULT_COPY_EXTENSION = "bin";
 
     /**
      * The supported media sources.
@@ -245,30 +255,53 @@ public class MediaPicker implements ActivityCompat.OnRequestPermissionsResultCal
     }
 
     /**
-     * Copies a file into the app's private cache directory. This is necessary for certain Uris to
-     * circumvent access expiration conditions, for example, navigating to a new activity. Copying
-     * the Uri to the cache immediately ensures we will have access to it for as long as the cache
-     * file exists.
+     * Copies a file into {@link ResizeCache#getMediaPickerCache(Context)}. This is necessary for
+     * certain Uris to circumvent access expiration conditions, for example, navigating to a new
+     * activity. Copying the Uri immediately ensures we will have access to it for as long as the
+     * copy is in use.
      *
      * @param source The {@link Uri} to copy
-     * @return A {link Uri} pointing to the new cache file
+     * @return A {@link Uri} pointing to the copy, or {@code source} itself if it could not be
+     * copied
      */
     private Uri copyUriToCache(Uri source) {
+        Context context = getContext();
+        ResizeCache cache = ResizeCache.getMediaPickerCache(context);
+        deleteLegacyCopies(context, cache.getMaxAge());
+
         InputStream is = null;
         FileOutputStream fos = null;
+        File tempFile = null;
         try {
-            is = getContext().getContentResolver().openInputStream(source);
+            is = context.getContentResolver().openInputStream(source);
             if (is != null) {
-                File file = new File(getContext().getCacheDir(), CACHE_FILE_NAME+System.currentTimeMillis());
-                fos = new FileOutputStream(file);
+                tempFile = cache.createTempFile();
+                fos = new FileOutputStream(tempFile);
+
+                // Keep the start of the file, so the copy can be probed without reading it again
+                byte[] header = new byte[ImageHeaderParser.MAX_HEADER_SIZE];
+                int headerLength = 0;
 
                 byte[] bytes = new byte[2048];
                 int bytesRead;
                 while((bytesRead = is.read(bytes)) > -1) {
                     fos.write(bytes, 0, bytesRead);
+                    if (headerLength < header.length) {
+                        int count = Math.min(bytesRead, header.length - headerLength);
+                        System.arraycopy(bytes, 0, header, headerLength, count);
+                        headerLength += count;
+                    }
                 }
+                fos.close();
+                fos = null;
 
-                source = Uri.fromFile(file);
+                ResizeCache.Lease lease = cache.commit(tempFile, null, getExtension(context, source));
+                tempFile = null;
+                // The copy is never evicted to make room for others, so it needs no lease
+                lease.release();
+
+                source = lease.getUri();
+                ImageProbe.getDefault(context).prime(source, header, headerLength);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -287,11 +320,41 @@ public class MediaPicker implements ActivityCompat.OnRequestPermissionsResultCal
                     e.printStackTrace();
                 }
             }
+            if (tempFile != null) {
+                tempFile.delete();
+            }
         }
 
         return source;
     }
 
+    private static String getExtension(Context context, Uri uri) {
+        String mimeType = context.getContentResolver().getType(uri);
+        String extension = mimeType != null ? MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType) : null;
+        return extension != null && !extension.isEmpty() ? extension : DEFAULT_COPY_EXTENSION;
+    }
+
+    /**
+     * Deletes copies written to the cache directory by earlier versions of MediaPicker once they
+     * are older than {@code maxAge}, the same age limit as copies in the {@link ResizeCache}.
+     */
+    private static void deleteLegacyCopies(Context context, long maxAge) {
+        if (maxAge <= 0) {
+            return;
+        }
+        File[] files = context.getCacheDir().listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long expiry = System.currentTimeMillis() - maxAge;
+        for (File file : files) {
+            if (file.getName().startsWith(LEGACY_CACHE_FILE_PREFIX) && file.lastModified() < expiry) {
+                file.delete();
+            }
+        }
+    }
+
     /**
      * <p>
      * Handles results for requesting the {@link android.Manifest.permission#CAMERA} permission.
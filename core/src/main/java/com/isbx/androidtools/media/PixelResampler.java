@@ -0,0 +1,382 @@
+package com.isbx.androidtools.media;
+
+import java.util.Arrays;
+
+/**
+ * A pure Java implementation of each {@link ResampleFilter}, operating on arrays of packed
+ * {@code 0xAARRGGBB} pixels such as those returned by
+ * {@link android.graphics.Bitmap#getPixels(int[], int, int, int, int, int, int)}.
+ *
+ * <p>
+ * This class has no Android dependencies, so the output and performance of each filter can be
+ * verified on a plain JVM. {@link ImageResizer} uses it directly for
+ * {@link ResampleFilter#AREA_AVERAGE}, while the other filters are drawn with
+ * {@link android.graphics.Canvas} on device.
+ * </p>
+ *
+ * <p>
+ * Pixels are averaged in premultiplied space, so fully transparent pixels do not bleed their color
+ * into their neighbours.
+ * </p>
+ */
+public final class PixelResampler {
+
+    private PixelResampler() {}
+
+    /**
+     * Supplies the rows of a source image to
+     * {@link PixelResampler#areaAverage(RowSource, int, int, RowSink, int, int)}.
+     */
+    public interface RowSource {
+        /**
+         * Copies row {@code y} of the source image into {@code row}, packed as
+         * {@code 0xAARRGGBB}.
+         *
+         * @param y The index of the row, from the top
+         * @param row The array to copy the row into, as long as the image is wide
+         */
+        void getRow(int y, int[] row);
+    }
+
+    /**
+     * Receives the rows of the output of
+     * {@link PixelResampler#areaAverage(RowSource, int, int, RowSink, int, int)}.
+     */
+    public interface RowSink {
+        /**
+         * Stores row {@code y} of the output image. {@code row} is reused for the next row once
+         * this method returns.
+         *
+         * @param y The index of the row, from the top
+         * @param row The pixels of the row, packed as {@code 0xAARRGGBB}
+         */
+        void setRow(int y, int[] row);
+    }
+
+    /**
+     * Scales {@code pixels} from {@code srcWidth} x {@code srcHeight} to {@code dstWidth} x
+     * {@code dstHeight} with the given filter.
+     *
+     * @param pixels The source pixels in row-major order, packed as {@code 0xAARRGGBB}
+     * @param srcWidth The width of the source image
+     * @param srcHeight The height of the source image
+     * @param dstWidth The width of the output image
+     * @param dstHeight The height of the output image
+     * @param filter The {@link ResampleFilter} to scale with
+     * @return A new array of {@code dstWidth * dstHeight} pixels
+     */
+    public static int[] resample(int[] pixels, int srcWidth, int srcHeight, int dstWidth,
+                                 int dstHeight, ResampleFilter filter) {
+        if (srcWidth <= 0 || srcHeight <= 0 || dstWidth <= 0 || dstHeight <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive");
+        }
+        if (pixels.length < srcWidth * srcHeight) {
+            throw new IllegalArgumentException("pixels is smaller than srcWidth * srcHeight");
+        }
+
+        switch (filter) {
+            case NEAREST:
+                return nearest(pixels, srcWidth, srcHeight, dstWidth, dstHeight);
+            case BILINEAR:
+                return bilinear(pixels, srcWidth, srcHeight, dstWidth, dstHeight);
+            case PROGRESSIVE_HALVING:
+                return progressiveHalving(pixels, srcWidth, srcHeight, dstWidth, dstHeight);
+            case AREA_AVERAGE:
+            default:
+                return areaAverage(pixels, srcWidth, srcHeight, dstWidth, dstHeight);
+        }
+    }
+
+    /**
+     * Halves an image with a 2x2 box filter. An odd trailing row or column is dropped.
+     *
+     * @param pixels The source pixels in row-major order, packed as {@code 0xAARRGGBB}
+     * @param srcWidth The width of the source image, at least 2
+     * @param srcHeight The height of the source image, at least 2
+     * @return A new array of {@code (srcWidth / 2) * (srcHeight / 2)} pixels
+     */
+    public static int[] halve(int[] pixels, int srcWidth, int srcHeight) {
+        int dstWidth = srcWidth / 2;
+        int dstHeight = srcHeight / 2;
+        int[] out = new int[dstWidth * dstHeight];
+
+        for (int y = 0; y < dstHeight; y++) {
+            int row0 = 2 * y * srcWidth;
+            int row1 = row0 + srcWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int c0 = pixels[row0 + 2 * x];
+                int c1 = pixels[row0 + 2 * x + 1];
+                int c2 = pixels[row1 + 2 * x];
+                int c3 = pixels[row1 + 2 * x + 1];
+
+                int a0 = c0 >>> 24, a1 = c1 >>> 24, a2 = c2 >>> 24, a3 = c3 >>> 24;
+                int a = a0 + a1 + a2 + a3;
+                if (a == 0) {
+                    continue;
+                }
+                int r = ((c0 >> 16) & 0xff) * a0 + ((c1 >> 16) & 0xff) * a1
+                    + ((c2 >> 16) & 0xff) * a2 + ((c3 >> 16) & 0xff) * a3;
+                int g = ((c0 >> 8) & 0xff) * a0 + ((c1 >> 8) & 0xff) * a1
+                    + ((c2 >> 8) & 0xff) * a2 + ((c3 >> 8) & 0xff) * a3;
+                int b = (c0 & 0xff) * a0 + (c1 & 0xff) * a1 + (c2 & 0xff) * a2 + (c3 & 0xff) * a3;
+
+                out[y * dstWidth + x] = ((a + 2) / 4) << 24 | ((r + a / 2) / a) << 16
+                    | ((g + a / 2) / a) << 8 | ((b + a / 2) / a);
+            }
+        }
+
+        return out;
+    }
+
+    private static int[] nearest(int[] pixels, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        int[] out = new int[dstWidth * dstHeight];
+
+        int[] columns = new int[dstWidth];
+        for (int x = 0; x < dstWidth; x++) {
+            // Sample the center of each output pixel
+            columns[x] = (int) (((2L * x + 1) * srcWidth) / (2L * dstWidth));
+        }
+
+        for (int y = 0; y < dstHeight; y++) {
+            int srcRow = (int) (((2L * y + 1) * srcHeight) / (2L * dstHeight)) * srcWidth;
+            int dstRow = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                out[dstRow + x] = pixels[srcRow + columns[x]];
+            }
+        }
+
+        return out;
+    }
+
+    private static int[] bilinear(int[] pixels, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        int[] out = new int[dstWidth * dstHeight];
+
+        int[] x0 = new int[dstWidth];
+        int[] x1 = new int[dstWidth];
+        float[] fx = new float[dstWidth];
+        float scaleX = srcWidth / (float) dstWidth;
+        for (int x = 0; x < dstWidth; x++) {
+            float sx = clamp((x + 0.5f) * scaleX - 0.5f, 0, srcWidth - 1);
+            x0[x] = (int) sx;
+            x1[x] = Math.min(x0[x] + 1, srcWidth - 1);
+            fx[x] = sx - x0[x];
+        }
+
+        float scaleY = srcHeight / (float) dstHeight;
+        float[] acc = new float[4];
+        for (int y = 0; y < dstHeight; y++) {
+            float sy = clamp((y + 0.5f) * scaleY - 0.5f, 0, srcHeight - 1);
+            int row0 = (int) sy;
+            int row1 = Math.min(row0 + 1, srcHeight - 1);
+            float fy = sy - row0;
+            row0 *= srcWidth;
+            row1 *= srcWidth;
+
+            for (int x = 0; x < dstWidth; x++) {
+                acc[0] = acc[1] = acc[2] = acc[3] = 0;
+                accumulate(acc, pixels[row0 + x0[x]], (1 - fx[x]) * (1 - fy));
+                accumulate(acc, pixels[row0 + x1[x]], fx[x] * (1 - fy));
+                accumulate(acc, pixels[row1 + x0[x]], (1 - fx[x]) * fy);
+                accumulate(acc, pixels[row1 + x1[x]], fx[x] * fy);
+                out[y * dstWidth + x] = pack(acc);
+            }
+        }
+
+        return out;
+    }
+
+    private static int[] progressiveHalving(int[] pixels, int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        int[] current = pixels;
+        int width = srcWidth;
+        int height = srcHeight;
+        while (width >= 2 * dstWidth && height >= 2 * dstHeight) {
+            current = halve(current, width, height);
+            width /= 2;
+            height /= 2;
+        }
+
+        if (width == dstWidth && height == dstHeight) {
+            return current == pixels ? current.clone() : current;
+        }
+        return bilinear(current, width, height, dstWidth, dstHeight);
+    }
+
+    private static int[] areaAverage(final int[] pixels, final int srcWidth, int srcHeight,
+                                     final int dstWidth, int dstHeight) {
+        final int[] out = new int[dstWidth * dstHeight];
+        areaAverage(new RowSource() {
+            @Override
+            public void getRow(int y, int[] row) {
+                System.arraycopy(pixels, y * srcWidth, row, 0, srcWidth);
+            }
+        }, srcWidth, srcHeight, new RowSink() {
+            @Override
+            public void setRow(int y, int[] row) {
+                System.arraycopy(row, 0, out, y * dstWidth, dstWidth);
+            }
+        }, dstWidth, dstHeight);
+        return out;
+    }
+
+    /**
+     * Scales an image from {@code srcWidth} x {@code srcHeight} to {@code dstWidth} x
+     * {@code dstHeight} with {@link ResampleFilter#AREA_AVERAGE}, reading the source from
+     * {@code source} a row at a time and passing each output row to {@code sink} as soon as it is
+     * complete. Only a single row of each image is held in memory, so neither has to be copied
+     * into an array of its own.
+     *
+     * @param source The {@link RowSource} to read the source rows from
+     * @param srcWidth The width of the source image
+     * @param srcHeight The height of the source image
+     * @param sink The {@link RowSink} to write the output rows to, in order from the top
+     * @param dstWidth The width of the output image
+     * @param dstHeight The height of the output image
+     */
+    public static void areaAverage(RowSource source, int srcWidth, int srcHeight, RowSink sink,
+                                   int dstWidth, int dstHeight) {
+        if (srcWidth <= 0 || srcHeight <= 0 || dstWidth <= 0 || dstHeight <= 0) {
+            throw new IllegalArgumentException("Dimensions must be positive");
+        }
+
+        Weights columns = Weights.create(srcWidth, dstWidth);
+        Weights rows = Weights.create(srcHeight, dstHeight);
+
+        // Resample one source row at a time horizontally, then accumulate it into the output row
+        // it covers, so only a couple of rows of intermediate data are ever held
+        int[] srcRow = new int[srcWidth];
+        int loadedRow = -1;
+        int[] out = new int[dstWidth];
+        float[] rowA = new float[dstWidth];
+        float[] rowR = new float[dstWidth];
+        float[] rowG = new float[dstWidth];
+        float[] rowB = new float[dstWidth];
+        float[] accA = new float[dstWidth];
+        float[] accR = new float[dstWidth];
+        float[] accG = new float[dstWidth];
+        float[] accB = new float[dstWidth];
+        float[] acc = new float[4];
+
+        for (int y = 0; y < dstHeight; y++) {
+            Arrays.fill(accA, 0);
+            Arrays.fill(accR, 0);
+            Arrays.fill(accG, 0);
+            Arrays.fill(accB, 0);
+
+            for (int i = 0; i < rows.count[y]; i++) {
+                // Neighbouring output rows share a source row at most, which is still loaded
+                if (rows.start[y] + i != loadedRow) {
+                    loadedRow = rows.start[y] + i;
+                    source.getRow(loadedRow, srcRow);
+                }
+                float wy = rows.weights[y][i];
+
+                for (int x = 0; x < dstWidth; x++) {
+                    acc[0] = acc[1] = acc[2] = acc[3] = 0;
+                    float[] wx = columns.weights[x];
+                    int start = columns.start[x];
+                    for (int j = 0; j < columns.count[x]; j++) {
+                        accumulate(acc, srcRow[start + j], wx[j]);
+                    }
+                    rowA[x] = acc[0];
+                    rowR[x] = acc[1];
+                    rowG[x] = acc[2];
+                    rowB[x] = acc[3];
+                }
+
+                for (int x = 0; x < dstWidth; x++) {
+                    accA[x] += rowA[x] * wy;
+                    accR[x] += rowR[x] * wy;
+                    accG[x] += rowG[x] * wy;
+                    accB[x] += rowB[x] * wy;
+                }
+            }
+
+            for (int x = 0; x < dstWidth; x++) {
+                acc[0] = accA[x];
+                acc[1] = accR[x];
+                acc[2] = accG[x];
+                acc[3] = accB[x];
+                out[x] = pack(acc);
+            }
+            sink.setRow(y, out);
+        }
+    }
+
+    /**
+     * Adds {@code color} to {@code acc} in premultiplied form with the given weight. {@code acc}
+     * holds alpha, red, green and blue, in that order.
+     */
+    private static void accumulate(float[] acc, int color, float weight) {
+        float a = (color >>> 24) * weight;
+        acc[0] += a;
+        acc[1] += ((color >> 16) & 0xff) * a;
+        acc[2] += ((color >> 8) & 0xff) * a;
+        acc[3] += (color & 0xff) * a;
+    }
+
+    /**
+     * Converts premultiplied accumulated channels back to a packed, non-premultiplied color.
+     */
+    private static int pack(float[] acc) {
+        float a = acc[0];
+        if (a <= 0) {
+            return 0;
+        }
+
+        int alpha = Math.min(255, Math.round(a));
+        int r = Math.min(255, Math.round(acc[1] / a));
+        int g = Math.min(255, Math.round(acc[2] / a));
+        int b = Math.min(255, Math.round(acc[3] / a));
+        return alpha << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    /**
+     * The source pixels covered by each output pixel along one axis, and the fraction of the
+     * output pixel each one covers.
+     */
+    private static class Weights {
+        final int[] start;
+        final int[] count;
+        final float[][] weights;
+
+        private Weights(int size) {
+            start = new int[size];
+            count = new int[size];
+            weights = new float[size][];
+        }
+
+        static Weights create(int srcSize, int dstSize) {
+            Weights result = new Weights(dstSize);
+            double scale = srcSize / (double) dstSize;
+
+            for (int i = 0; i < dstSize; i++) {
+                double begin = i * scale;
+                double end = Math.min(srcSize, (i + 1) * scale);
+                int first = (int) Math.floor(begin);
+                int last = Math.min(srcSize - 1, (int) Math.ceil(end) - 1);
+
+                int n = Math.max(1, last - first + 1);
+                float[] w = new float[n];
+                double total = 0;
+                for (int j = 0; j < n; j++) {
+                    double overlap = Math.min(end, first + j + 1) - Math.max(begin, first + j);
+                    w[j] = (float) Math.max(0, overlap);
+                    total += w[j];
+                }
+                for (int j = 0; j < n; j++) {
+                    w[j] = total > 0 ? (float) (w[j] / total) : 1f / n;
+                }
+
+                result.start[i] = first;
+                result.count[i] = n;
+                result.weights[i] = w;
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.isbx.androidtools.media;
+
+/**
+ * The filters available for scaling an image to a new resolution.
+ *
+ * @see ImageResizeConfig#setResampleFilter(ResampleFilter)
+ * @see PixelResampler
+ */
+public enum ResampleFilter {
+    /**
+     * Each output pixel is copied from the nearest source pixel. This is the fastest filter, but
+     * it discards most of the source pixels when downscaling by a large factor, which causes
+     * aliasing (jagged edges and moire patterns).
+     */
+    NEAREST,
+    /**
+     * Each output pixel is interpolated from the four nearest source pixels. Smooth for small
+     * scale factors, but aliases almost as badly as {@link ResampleFilter#NEAREST} when
+     * downscaling by more than 2x.
+     */
+    BILINEAR,
+    /**
+     * The image is repeatedly halved with a 2x2 box filter until it is less than twice the target
+     * size, then scaled the rest of the way with {@link ResampleFilter#BILINEAR}. Close to
+     * {@link ResampleFilter#AREA_AVERAGE} in quality at a fraction of the cost.
+     */
+    PROGRESSIVE_HALVING,
+    /**
+     * Each output pixel is the average of all of the source pixels it covers, weighted by
+     * coverage. The highest quality filter for downscaling, and the slowest.
+     */
+    AREA_AVERAGE
+}
@@ -0,0 +1,752 @@
+package com.isbx.androidtools.media;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A disk cache of resized images, keyed by the identity of the source image and the settings it
+ * was resized with. The scratch files of this package are kept in ResizeCaches in the app's
+ * internal private storage instead of accumulating in its cache directory: resized images in
+ * {@link ResizeCache#getDefault(Context)}, and the copies {@link MediaPicker} makes of selected
+ * images in {@link ResizeCache#getMediaPickerCache(Context)}.
+ *
+ * <p>
+ * Resizing the same source to the same size and format again returns the existing file instead of
+ * decoding the source a second time. Files are evicted in least recently used order once the
+ * total size of the cache exceeds {@link ResizeCache#getMaxBytes()}, and files that have not been
+ * used for longer than {@link ResizeCache#getMaxAge()} are deleted by a sweep that runs on a
+ * background thread at most once an hour.
+ * </p>
+ *
+ * <p>
+ * A file that is still needed, for example while it is being uploaded, can be protected from
+ * eviction by holding a {@link Lease} on it, obtained with {@link ResizeCache#lease(Uri)}. Files
+ * that are not leased may be deleted by any later resize operation that pushes the cache over its
+ * size limit.
+ * </p>
+ *
+ * <p>
+ * Leases only last as long as the process. A file that must outlive it, such as one queued in an
+ * {@link com.isbx.androidtools.networking.UploadJournal}, can be pinned instead with
+ * {@link ResizeCache#pin(Uri, String)}. Pins are stored alongside the files and are honoured as
+ * soon as the cache is loaded again, until their owner removes them with
+ * {@link ResizeCache#unpin(String)}.
+ * </p>
+ *
+ * @see ImageResizer#setResizeCache(ResizeCache)
+ */
+public class ResizeCache {
+
+    private static final String DIRECTORY_NAME = "image_resizer";
+    private static final String MEDIA_PICKER_DIRECTORY_NAME = "media_picker";
+    private static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String PINS_FILE_NAME = "pins";
+    private static final String CHARSET = "UTF-8";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long DEFAULT_MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    private static final long SWEEP_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private static ResizeCache defaultCache;
+    private static ResizeCache mediaPickerCache;
+
+    private final File directory;
+    // In access order, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // The keys pinned by each owner, also stored in PINS_FILE_NAME so they outlive the process
+    private final Map<String, Set<String>> pins = new HashMap<>();
+    private long maxBytes;
+    private long maxAge = DEFAULT_MAX_AGE;
+    private long currentBytes = 0;
+    private long lastSweep = 0;
+
+    /**
+     * Returns the cache shared by all {@link ImageResizer} instances, stored in the app's internal
+     * private storage, limited to 32MB and to files used within the last 7 days.
+     *
+     * @param context Any {@link Context} of the app
+     * @return The default ResizeCache
+     */
+    public static synchronized ResizeCache getDefault(Context context) {
+        if (defaultCache == null) {
+            File directory = new File(context.getApplicationContext().getFilesDir(), DIRECTORY_NAME);
+            defaultCache = new ResizeCache(directory, DEFAULT_MAX_BYTES);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Returns the store that {@link MediaPicker} copies images selected from the library to,
+     * stored in the app's internal private storage. It has no size limit, since callers may keep
+     * the {@link Uri} of a selection for as long as they like, for example for an album of several
+     * selections; copies are only deleted once they have gone unused for 7 days.
+     *
+     * @param context Any {@link Context} of the app
+     * @return The ResizeCache of {@link MediaPicker} copies
+     */
+    public static synchronized ResizeCache getMediaPickerCache(Context context) {
+        if (mediaPickerCache == null) {
+            File directory = new File(context.getApplicationContext().getFilesDir(),
+                MEDIA_PICKER_DIRECTORY_NAME);
+            mediaPickerCache = new ResizeCache(directory, Long.MAX_VALUE);
+        }
+        return mediaPickerCache;
+    }
+
+    /**
+     * Creates a ResizeCache that stores its files in {@code directory}. Any files already in the
+     * directory from a previous ResizeCache are kept, ordered and aged by the time they were
+     * written, since the times they were last used are only tracked in memory.
+     *
+     * @param directory The directory to store resized images in. It should not be used for
+     *                  anything else.
+     * @param maxBytes The maximum total size of the cached files in bytes
+     */
+    public ResizeCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.equals(PINS_FILE_NAME)) {
+                continue;
+            }
+            int dot = name.indexOf('.');
+            if (name.endsWith(TEMP_SUFFIX) || dot <= 0) {
+                // Left over from a write that never completed
+                file.delete();
+                continue;
+            }
+            Entry entry = new Entry(file);
+            entries.put(name.substring(0, dot), entry);
+            currentBytes += entry.bytes;
+        }
+        loadPins();
+        trimToSize(null);
+        scheduleSweep();
+    }
+
+    /**
+     * Returns the maximum total size of the cached files.
+     *
+     * @return The size limit in bytes
+     *
+     * @see ResizeCache#setMaxBytes(long)
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum total size of the cached files, evicting unleased files if the cache is
+     * currently over the new limit.
+     *
+     * @param maxBytes The size limit in bytes
+     *
+     * @see ResizeCache#getMaxBytes()
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(null);
+    }
+
+    /**
+     * Returns how long a file may go unused before it is deleted.
+     *
+     * @return The maximum age in milliseconds, or {@code 0} if files are never deleted by age
+     *
+     * @see ResizeCache#setMaxAge(long)
+     */
+    public synchronized long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets how long a file may go unused before it is deleted. Leased and pinned files are never
+     * deleted. Expired files are deleted by a background sweep at most once an hour, or
+     * immediately by {@link ResizeCache#sweep()}. Defaults to 7 days.
+     *
+     * @param maxAge The maximum age in milliseconds, or {@code 0} to never delete files by age
+     *
+     * @see ResizeCache#getMaxAge()
+     */
+    public synchronized void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Deletes every file that is not leased or pinned and has not been used for longer than
+     * {@link ResizeCache#getMaxAge()}. This is called automatically on a background thread, so it
+     * only needs to be called directly to free space immediately.
+     */
+    public synchronized void sweep() {
+        lastSweep = System.currentTimeMillis();
+        if (maxAge <= 0) {
+            return;
+        }
+
+        long expiry = lastSweep - maxAge;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.lastUsed >= expiry) {
+                // Entries are in access order, so every later entry was used more recently
+                break;
+            }
+            if (entry.isEvictable()) {
+                iterator.remove();
+                delete(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     *
+     * @return The size of the cache in bytes
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Protects a file produced by {@link ImageResizer} from eviction until the returned lease is
+     * released.
+     *
+     * @param uri A {@link Uri} returned by {@link ImageResizer}
+     * @return A {@link Lease} on the file, or {@code null} if the file is not in this cache (it
+     * may already have been evicted)
+     */
+    public synchronized Lease lease(Uri uri) {
+        String key = getKey(uri);
+        return key != null ? acquire(key) : null;
+    }
+
+    /**
+     * Protects a file of this cache from eviction on behalf of {@code owner}, across restarts of
+     * the app, until {@link ResizeCache#unpin(String)} is called with the same owner. Pinning a
+     * file its owner has already pinned has no effect.
+     *
+     * @param uri A {@link Uri} of a file in this cache
+     * @param owner A string identifying the holder of the pin, which should be unique to it
+     * @return {@code true} if the file is pinned, {@code false} if it is not in this cache
+     */
+    public synchronized boolean pin(Uri uri, String owner) {
+        String key = getKey(uri);
+        if (key == null || !addPin(owner, key)) {
+            return false;
+        }
+        savePins();
+        return true;
+    }
+
+    /**
+     * Removes every pin held by {@code owner}. Files that are no longer pinned or leased may then
+     * be evicted.
+     *
+     * @param owner The holder of the pins, as passed to {@link ResizeCache#pin(Uri, String)}
+     */
+    public synchronized void unpin(String owner) {
+        Set<String> keys = pins.remove(owner);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.pins > 0) {
+                entry.pins--;
+            }
+        }
+        savePins();
+        trimToSize(null);
+    }
+
+    /**
+     * Returns the owners that currently hold pins, so an owner whose records were lost can find
+     * and remove the pins it no longer needs.
+     *
+     * @return The owners passed to {@link ResizeCache#pin(Uri, String)} that have not been unpinned
+     */
+    public synchronized Set<String> getPinOwners() {
+        return new HashSet<>(pins.keySet());
+    }
+
+    /**
+     * Deletes all files in the cache that are not currently leased or pinned.
+     */
+    public synchronized void clear() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.isEvictable()) {
+                iterator.remove();
+                delete(entry);
+            }
+        }
+    }
+
+    /**
+     * Returns a lease on the entry stored under {@code key}, marking it as most recently used, or
+     * {@code null} if there is no such entry.
+     */
+    synchronized Lease acquire(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.file.exists()) {
+            // Deleted from outside the cache
+            entries.remove(key);
+            currentBytes -= entry.bytes;
+            return null;
+        }
+        entry.leases++;
+        entry.touch();
+        return new Lease(entry);
+    }
+
+    /**
+     * Creates a new temporary file in the cache directory to write an output to before it is
+     * added with {@link ResizeCache#commit(File, String, String)}.
+     */
+    File createTempFile() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        return File.createTempFile("resize", TEMP_SUFFIX, directory);
+    }
+
+    /**
+     * Moves {@code tempFile} into the cache under {@code key} and returns a lease on it. If
+     * another thread already stored the same key, {@code tempFile} is deleted and the existing
+     * entry is returned instead.
+     *
+     * @param tempFile A file returned by {@link ResizeCache#createTempFile()}
+     * @param key The cache key of the file, or {@code null} if the output can never be looked up
+     *            again, in which case a unique key is generated
+     * @param extension The file extension of the output
+     */
+    synchronized Lease commit(File tempFile, String key, String extension) throws IOException {
+        if (key == null) {
+            key = hash(UUID.randomUUID().toString());
+        }
+
+        Lease existing = acquire(key);
+        if (existing != null) {
+            tempFile.delete();
+            return existing;
+        }
+
+        File file = new File(directory, key + "." + extension);
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to move " + tempFile + " to " + file);
+        }
+
+        Entry entry = new Entry(file);
+        entry.leases++;
+        entries.put(key, entry);
+        currentBytes += entry.bytes;
+        trimToSize(entry);
+        scheduleSweep();
+        return new Lease(entry);
+    }
+
+    /**
+     * Returns a string that identifies the current contents of {@code uri}, or {@code null} if the
+     * source could not be identified. Files and content providers that report a size and
+     * modification time are identified by those, other sources are identified by a hash of their
+     * contents. Files of this cache are never rewritten once committed, so they are identified by
+     * their path and size alone.
+     */
+    String getSourceKey(Context context, Uri uri) {
+        String scheme = uri.getScheme();
+        if (ContentResolver.SCHEME_FILE.equals(scheme) && uri.getPath() != null) {
+            File file = new File(uri.getPath());
+            if (!file.isFile()) {
+                return null;
+            }
+            if (directory.equals(file.getParentFile())) {
+                return hash(uri.toString(), String.valueOf(file.length()));
+            }
+            return hash(uri.toString(), String.valueOf(file.length()), String.valueOf(file.lastModified()));
+        }
+
+        if (ContentResolver.SCHEME_CONTENT.equals(scheme)) {
+            Cursor cursor = null;
+            try {
+                cursor = context.getContentResolver().query(uri, null, null, null, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    long size = getLong(cursor, OpenableColumns.SIZE);
+                    long modified = getLong(cursor, "last_modified");
+                    if (modified < 0) {
+                        // MediaStore names the column differently
+                        modified = getLong(cursor, "date_modified");
+                    }
+                    if (size >= 0 && modified >= 0) {
+                        return hash(uri.toString(), String.valueOf(size), String.valueOf(modified));
+                    }
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+
+        return hashContents(context, uri);
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 hash of the given strings.
+     */
+    static String hash(String... parts) {
+        MessageDigest digest = newDigest();
+        if (digest == null) {
+            return null;
+        }
+        for (String part : parts) {
+            digest.update(String.valueOf(part).getBytes());
+            digest.update((byte) 0);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String hashContents(Context context, Uri uri) {
+        MessageDigest digest = newDigest();
+        if (digest == null) {
+            return null;
+        }
+
+        InputStream in = null;
+        try {
+            in = context.getContentResolver().openInputStream(uri);
+            if (in == null) {
+                return null;
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            return toHex(digest.digest());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        if (index < 0 || cursor.isNull(index)) {
+            return -1;
+        }
+        return cursor.getLong(index);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the key of the file of this cache at {@code uri}, or {@code null} if it is not one.
+     */
+    private String getKey(Uri uri) {
+        if (uri == null || !ContentResolver.SCHEME_FILE.equals(uri.getScheme()) || uri.getPath() == null) {
+            return null;
+        }
+
+        File file = new File(uri.getPath());
+        if (!directory.equals(file.getParentFile())) {
+            return null;
+        }
+        String name = file.getName();
+        int dot = name.indexOf('.');
+        return dot > 0 ? name.substring(0, dot) : null;
+    }
+
+    /**
+     * Records a pin of the entry stored under {@code key}, returning {@code false} if there is no
+     * such entry.
+     */
+    private boolean addPin(String owner, String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return false;
+        }
+        Set<String> keys = pins.get(owner);
+        if (keys == null) {
+            keys = new HashSet<>();
+            pins.put(owner, keys);
+        }
+        if (keys.add(key)) {
+            entry.pins++;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the pins stored by an earlier ResizeCache, one {@code key<TAB>owner} line per pin.
+     * Pins of files that no longer exist are dropped.
+     */
+    private void loadPins() {
+        File pinsFile = new File(directory, PINS_FILE_NAME);
+        if (!pinsFile.isFile()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(pinsFile), CHARSET));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    addPin(line.substring(tab + 1), line.substring(0, tab));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the pins to a temporary file and moves it into place, so a crash part way through
+     * never loses the pins that were already stored.
+     */
+    private void savePins() {
+        File pinsFile = new File(directory, PINS_FILE_NAME);
+        if (pins.isEmpty()) {
+            pinsFile.delete();
+            return;
+        }
+
+        File tempFile = new File(directory, PINS_FILE_NAME + TEMP_SUFFIX);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), CHARSET);
+            for (Map.Entry<String, Set<String>> pin : pins.entrySet()) {
+                for (String key : pin.getValue()) {
+                    writer.write(key + "\t" + pin.getKey() + "\n");
+                }
+            }
+            writer.close();
+            writer = null;
+            if (!tempFile.renameTo(pinsFile)) {
+                throw new IOException("Unable to move " + tempFile + " to " + pinsFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts unleased, unpinned entries, least recently used first, until the cache is within its
+     * size limit. {@code keep} is never evicted.
+     */
+    private void trimToSize(Entry keep) {
+        List<String> evicted = new ArrayList<>();
+        long bytes = currentBytes;
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            if (bytes <= maxBytes) {
+                break;
+            }
+            Entry entry = mapEntry.getValue();
+            if (entry.isEvictable() && entry != keep) {
+                evicted.add(mapEntry.getKey());
+                bytes -= entry.bytes;
+            }
+        }
+        for (String key : evicted) {
+            delete(entries.remove(key));
+        }
+    }
+
+    /**
+     * Queues a sweep on a background thread if one has not run within the sweep interval.
+     */
+    private void scheduleSweep() {
+        long now = System.currentTimeMillis();
+        if (maxAge <= 0 || now - lastSweep < SWEEP_INTERVAL) {
+            return;
+        }
+
+        // Only one sweep is queued per interval
+        lastSweep = now;
+        try {
+            ResizeScheduler.getDefault().submit(new Runnable() {
+                @Override
+                public void run() {
+                    sweep();
+                }
+            }, ResizeScheduler.PRIORITY_LOW);
+        } catch (RejectedExecutionException e) {
+            // The scheduler is saturated, so try again after the next write
+            lastSweep = 0;
+        }
+    }
+
+    private void delete(Entry entry) {
+        currentBytes -= entry.bytes;
+        entry.file.delete();
+    }
+
+    private synchronized void release(Entry entry) {
+        if (entry.leases > 0) {
+            entry.leases--;
+        }
+        if (entry.leases == 0) {
+            trimToSize(null);
+        }
+    }
+
+    private static class Entry {
+        final File file;
+        final long bytes;
+        int leases = 0;
+        // The number of owners that have pinned this entry
+        int pins = 0;
+        long lastUsed;
+
+        Entry(File file) {
+            this.file = file;
+            this.bytes = file.length();
+            this.lastUsed = file.lastModified();
+        }
+
+        /**
+         * Marks this entry as used now. The time is only kept in memory: the modification time of
+         * the file is part of its source key (see {@link ResizeCache#getSourceKey}), so changing
+         * it would make a leased {@link MediaPicker} copy look like a new source.
+         */
+        void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+
+        boolean isEvictable() {
+            return leases == 0 && pins == 0;
+        }
+    }
+
+    /**
+     * Protects a cached file from eviction until {@link Lease#release()} is called.
+     *
+     * @see ResizeCache#lease(Uri)
+     */
+    public final class Lease {
+        private final Entry entry;
+        private boolean released = false;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * Returns the {@link Uri} of the leased file.
+         *
+         * @return A {@code file://} {@link Uri}
+         */
+        public Uri getUri() {
+            return Uri.fromFile(entry.file);
+        }
+
+        /**
+         * Releases this lease. The file may be evicted once all leases on it are released. Calling
+         * this method more than once has no effect.
+         */
+        public void release() {
+            synchronized (ResizeCache.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                ResizeCache.this.release(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.isbx.androidtools.media;
+
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A handle to an asynchronous resize operation started with
+ * {@link ImageResizer#resizeImage(Uri, ImageSizeSet, ImageResizer.ImageResizeResultCallback)}.
+ *
+ * <p>
+ * A job can be cancelled at any point, for example when the screen that requested it is closed.
+ * A queued job is removed from the queue. A running job stops at the next stage boundary (between
+ * decoding, scaling, encoding and writing each output), and an in-progress decode is asked to
+ * stop early. The callback of a cancelled job is not invoked, and any outputs it had not finished
+ * are discarded.
+ * </p>
+ */
+public class ResizeJob {
+
+    private final Uri sourceUri;
+    private final List<String> names;
+    private final ImageResizer.ImageResizeProgressCallback progressCallback;
+    private final AtomicInteger completedCount = new AtomicInteger();
+
+    private volatile boolean cancelled = false;
+    private volatile ResizeScheduler.Handle handle;
+    private volatile BitmapFactory.Options decodeOptions;
+    private volatile ImageResizeResult result;
+
+    ResizeJob(Uri sourceUri, List<String> names, ImageResizer.ImageResizeProgressCallback progressCallback) {
+        this.sourceUri = sourceUri;
+        this.names = names;
+        this.progressCallback = progressCallback;
+    }
+
+    /**
+     * Returns the {@link Uri} of the image being resized.
+     *
+     * @return The source {@link Uri}
+     */
+    public Uri getSourceUri() {
+        return sourceUri;
+    }
+
+    /**
+     * Cancels this job. Has no effect if the job has already completed.
+     *
+     * <p>
+     * On API 24 and above the platform no longer supports cancelling a decode that has already
+     * started, so a job cancelled mid-decode stops once that decode returns.
+     * </p>
+     *
+     * @return {@code false} if the job could not be cancelled because it had already completed,
+     *         {@code true} otherwise
+     */
+    public boolean cancel() {
+        if (isDone()) {
+            return false;
+        }
+
+        cancelled = true;
+        BitmapFactory.Options options = decodeOptions;
+        if (options != null) {
+            options.requestCancelDecode();
+        }
+        ResizeScheduler.Handle handle = this.handle;
+        if (handle != null) {
+            handle.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether {@link ResizeJob#cancel()} has been called on this job.
+     *
+     * @return {@code true} if this job was cancelled, {@code false} otherwise
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns whether this job has finished, either by completing, failing or being cancelled.
+     *
+     * @return {@code true} if this job has finished, {@code false} otherwise
+     */
+    public boolean isDone() {
+        ResizeScheduler.Handle handle = this.handle;
+        return cancelled || (handle != null && handle.isDone());
+    }
+
+    /**
+     * Returns the number of outputs that have been written or have failed so far.
+     *
+     * @return The number of finished outputs
+     */
+    public int getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Returns the number of outputs this job will produce.
+     *
+     * @return The number of requested outputs
+     */
+    public int getTotalCount() {
+        return names.size();
+    }
+
+    /**
+     * Returns the fraction of outputs that have finished.
+     *
+     * @return The progress of this job, from 0 to 1
+     */
+    public float getProgress() {
+        return names.isEmpty() ? 1 : Math.min(1, completedCount.get() / (float) names.size());
+    }
+
+    /**
+     * Waits for this job to complete and returns its result. The outputs of the result are only
+     * leased until the job's callback returns; lease them with {@link ResizeCache#lease(Uri)}
+     * from the callback to keep using them.
+     *
+     * @return The {@link ImageResizeResult} of the job
+     * @throws CancellationException if the job was cancelled
+     * @throws ExecutionException if the job failed with an exception
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public ImageResizeResult get() throws InterruptedException, ExecutionException {
+        try {
+            handle.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+        return getResult();
+    }
+
+    /**
+     * Waits up to {@code timeout} for this job to complete and returns its result. The outputs of the result are only
+     * leased until the job's callback returns; lease them with {@link ResizeCache#lease(Uri)}
+     * from the callback to keep using them.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The {@link TimeUnit} of {@code timeout}
+     * @return The {@link ImageResizeResult} of the job
+     * @throws CancellationException if the job was cancelled
+     * @throws ExecutionException if the job failed with an exception
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     * @throws TimeoutException if the job did not complete in time
+     */
+    public ImageResizeResult get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            handle.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+        return getResult();
+    }
+
+    private ImageResizeResult getResult() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        return result;
+    }
+
+    private static ExecutionException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof CancellationException) {
+            // The job noticed its cancellation while running
+            throw (CancellationException) e.getCause();
+        }
+        return e;
+    }
+
+    void setHandle(ResizeScheduler.Handle handle) {
+        this.handle = handle;
+        if (cancelled) {
+            handle.cancel();
+        }
+    }
+
+    void setResult(ImageResizeResult result) {
+        this.result = result;
+    }
+
+    /**
+     * Registers the options of the decode in progress, so it can be stopped early if this job is
+     * cancelled. Pass {@code null} once the decode has returned.
+     */
+    void setDecodeOptions(BitmapFactory.Options options) {
+        decodeOptions = options;
+        if (cancelled && options != null) {
+            options.requestCancelDecode();
+        }
+    }
+
+    /**
+     * Stops the calling resize operation if this job has been cancelled.
+     *
+     * @throws CancellationException if this job has been cancelled
+     */
+    void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Resize of " + sourceUri + " was cancelled");
+        }
+    }
+
+    /**
+     * Records that the output at {@code index} has finished, with a {@code null} {@code uri} if
+     * it failed.
+     */
+    void onOutputComplete(int index, Uri uri) {
+        completedCount.incrementAndGet();
+        if (progressCallback != null && !cancelled) {
+            progressCallback.onOutputComplete(this, names.get(index), uri);
+        }
+    }
+}
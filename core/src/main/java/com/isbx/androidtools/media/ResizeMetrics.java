@@ -0,0 +1,222 @@
+package com.isbx.androidtools.media;
+
+import android.net.Uri;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measurements of a single resize operation, reported to an
+ * {@link ImageResizer.ResizeMetricsListener} once the operation completes.
+ *
+ * <p>
+ * Stage times are summed across threads. Since outputs are encoded in parallel, the encode time
+ * of an operation with several outputs can exceed its total time.
+ * </p>
+ *
+ * @see ImageResizer#setMetricsListener(ImageResizer.ResizeMetricsListener)
+ * @see ResizeMetricsHistogram
+ */
+public class ResizeMetrics {
+
+    private final Uri sourceUri;
+    private final long startNanos = System.nanoTime();
+
+    private long totalNanos;
+    private long bytesRead;
+    private long decodeNanos;
+    private int sampleSize;
+    private boolean tiled;
+    private long scaleNanos;
+    private long encodeNanos;
+    private long outputBytes;
+    private long bitmapBytes;
+    private long peakBitmapBytes;
+    private int outputCount;
+    private int cacheHitCount;
+    private int failedCount;
+
+    ResizeMetrics(Uri sourceUri) {
+        this.sourceUri = sourceUri;
+    }
+
+    /**
+     * Returns the {@link Uri} of the image that was resized.
+     *
+     * @return The source {@link Uri}
+     */
+    public Uri getSourceUri() {
+        return sourceUri;
+    }
+
+    /**
+     * Returns the wall clock time of the whole operation, including cache lookups.
+     *
+     * @return The total time in milliseconds
+     */
+    public synchronized long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    /**
+     * Returns the number of bytes of the source read while decoding it. Headers already read by
+     * {@link ImageProbe} are not included.
+     *
+     * @return The number of source bytes read, or {@code 0} if every output was cached
+     */
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the time spent decoding the source, including reading it.
+     *
+     * @return The decode time in milliseconds
+     */
+    public synchronized long getDecodeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(decodeNanos);
+    }
+
+    /**
+     * Returns the sample size the source was decoded at. A sample size of {@code n} decodes one
+     * pixel for every {@code n} x {@code n} block of the source.
+     *
+     * @return The sample size, or {@code 0} if the source was not decoded
+     */
+    public synchronized int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Returns whether the source was decoded in strips because it was too large to decode whole
+     * within the memory budget.
+     *
+     * @return {@code true} if the source was decoded in strips, {@code false} otherwise
+     */
+    public synchronized boolean isTiled() {
+        return tiled;
+    }
+
+    /**
+     * Returns the time spent scaling and orienting the decoded source to each output size.
+     *
+     * @return The scale time in milliseconds
+     */
+    public synchronized long getScaleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(scaleNanos);
+    }
+
+    /**
+     * Returns the time spent compressing the outputs and writing them to disk, summed across all
+     * outputs.
+     *
+     * @return The encode time in milliseconds
+     */
+    public synchronized long getEncodeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(encodeNanos);
+    }
+
+    /**
+     * Returns the total size of the outputs written by this operation. Outputs found in the cache
+     * are not included.
+     *
+     * @return The number of bytes written
+     */
+    public synchronized long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * Returns the largest number of bytes held by the decoded source and scaled outputs at any one
+     * time during this operation.
+     *
+     * @return The peak bitmap memory in bytes
+     */
+    public synchronized long getPeakBitmapBytes() {
+        return peakBitmapBytes;
+    }
+
+    /**
+     * Returns the number of outputs produced, including those found in the cache.
+     *
+     * @return The number of successful outputs
+     */
+    public synchronized int getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * Returns the number of outputs found in the cache.
+     *
+     * @return The number of cached outputs
+     */
+    public synchronized int getCacheHitCount() {
+        return cacheHitCount;
+    }
+
+    /**
+     * Returns the number of requested outputs that could not be produced.
+     *
+     * @return The number of failed outputs
+     */
+    public synchronized int getFailedCount() {
+        return failedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "ResizeMetrics{total=%dms, read=%d, decode=%dms, sampleSize=%d%s, "
+                + "scale=%dms, encode=%dms, written=%d, peakBitmap=%d, outputs=%d, cached=%d, failed=%d}",
+            getTotalMillis(), bytesRead, getDecodeMillis(), sampleSize, tiled ? " (tiled)" : "",
+            getScaleMillis(), getEncodeMillis(), outputBytes, peakBitmapBytes, outputCount,
+            cacheHitCount, failedCount);
+    }
+
+    synchronized void addBytesRead(long bytes) {
+        bytesRead += bytes;
+    }
+
+    synchronized void addDecodeTime(long nanos) {
+        decodeNanos += nanos;
+    }
+
+    synchronized void setSampleSize(int sampleSize, boolean tiled) {
+        this.sampleSize = sampleSize;
+        this.tiled = tiled;
+    }
+
+    synchronized void addScaleTime(long nanos) {
+        scaleNanos += nanos;
+    }
+
+    synchronized void addEncodeTime(long nanos) {
+        encodeNanos += nanos;
+    }
+
+    synchronized void addOutput(long bytes) {
+        outputBytes += bytes;
+        outputCount++;
+    }
+
+    synchronized void addCacheHit() {
+        cacheHitCount++;
+        outputCount++;
+    }
+
+    synchronized void addFailure() {
+        failedCount++;
+    }
+
+    synchronized void allocateBitmap(long bytes) {
+        bitmapBytes += bytes;
+        peakBitmapBytes = Math.max(peakBitmapBytes, bitmapBytes);
+    }
+
+    synchronized void releaseBitmap(long bytes) {
+        bitmapBytes -= bytes;
+    }
+
+    synchronized void finish() {
+        totalNanos = System.nanoTime() - startNanos;
+    }
+}
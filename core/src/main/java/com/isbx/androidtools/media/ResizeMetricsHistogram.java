@@ -0,0 +1,186 @@
+package com.isbx.androidtools.media;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A {@link ImageResizer.ResizeMetricsListener} that aggregates the metrics of many resize
+ * operations into histograms, so percentiles can be reported from the field without keeping every
+ * measurement.
+ *
+ * <p>
+ * Values are counted in buckets whose width grows with their magnitude, which keeps the memory of
+ * each histogram fixed at under 4KB while bounding the error of any percentile to about 12%.
+ * Minimum, maximum and mean values are exact.
+ * </p>
+ *
+ * <pre>{@code
+ * ResizeMetricsHistogram histogram = new ResizeMetricsHistogram();
+ * imageResizer.setMetricsListener(histogram);
+ * ...
+ * long p95 = histogram.getPercentile(ResizeMetricsHistogram.Metric.DECODE_MILLIS, 95);
+ * }</pre>
+ *
+ * @see ImageResizer#setMetricsListener(ImageResizer.ResizeMetricsListener)
+ */
+public class ResizeMetricsHistogram implements ImageResizer.ResizeMetricsListener {
+
+    // Each power of two is split into this many linear sub-buckets
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[][] buckets = new long[Metric.values().length][BUCKET_COUNT];
+    private final long[] sums = new long[Metric.values().length];
+    private final long[] mins = new long[Metric.values().length];
+    private final long[] maxes = new long[Metric.values().length];
+    private long count = 0;
+
+    /**
+     * The measurements aggregated by a ResizeMetricsHistogram, one for each value of
+     * {@link ResizeMetrics}.
+     */
+    public enum Metric {
+        TOTAL_MILLIS,
+        BYTES_READ,
+        DECODE_MILLIS,
+        SAMPLE_SIZE,
+        SCALE_MILLIS,
+        ENCODE_MILLIS,
+        OUTPUT_BYTES,
+        PEAK_BITMAP_BYTES
+    }
+
+    @Override
+    public synchronized void onResizeMetrics(ResizeMetrics metrics) {
+        record(Metric.TOTAL_MILLIS, metrics.getTotalMillis());
+        record(Metric.BYTES_READ, metrics.getBytesRead());
+        record(Metric.DECODE_MILLIS, metrics.getDecodeMillis());
+        record(Metric.SAMPLE_SIZE, metrics.getSampleSize());
+        record(Metric.SCALE_MILLIS, metrics.getScaleMillis());
+        record(Metric.ENCODE_MILLIS, metrics.getEncodeMillis());
+        record(Metric.OUTPUT_BYTES, metrics.getOutputBytes());
+        record(Metric.PEAK_BITMAP_BYTES, metrics.getPeakBitmapBytes());
+        count++;
+    }
+
+    /**
+     * Returns the number of resize operations recorded.
+     *
+     * @return The number of operations
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest recorded value of {@code metric}.
+     *
+     * @param metric The {@link Metric} to query
+     * @return The minimum value, or {@code 0} if nothing has been recorded
+     */
+    public synchronized long getMin(Metric metric) {
+        return count == 0 ? 0 : mins[metric.ordinal()];
+    }
+
+    /**
+     * Returns the largest recorded value of {@code metric}.
+     *
+     * @param metric The {@link Metric} to query
+     * @return The maximum value, or {@code 0} if nothing has been recorded
+     */
+    public synchronized long getMax(Metric metric) {
+        return count == 0 ? 0 : maxes[metric.ordinal()];
+    }
+
+    /**
+     * Returns the mean of the recorded values of {@code metric}.
+     *
+     * @param metric The {@link Metric} to query
+     * @return The mean value, or {@code 0} if nothing has been recorded
+     */
+    public synchronized double getMean(Metric metric) {
+        return count == 0 ? 0 : sums[metric.ordinal()] / (double) count;
+    }
+
+    /**
+     * Returns an estimate of the given percentile of the recorded values of {@code metric}.
+     *
+     * @param metric The {@link Metric} to query
+     * @param percentile The percentile, from 0 to 100, such as {@code 50} for the median
+     * @return The estimated value, or {@code 0} if nothing has been recorded
+     */
+    public synchronized long getPercentile(Metric metric, double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        long[] histogram = buckets[metric.ordinal()];
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                // Report the middle of the bucket, clamped to the exact range
+                long value = getBucketStart(i) + (getBucketStart(i + 1) - getBucketStart(i)) / 2;
+                return Math.min(maxes[metric.ordinal()], Math.max(mins[metric.ordinal()], value));
+            }
+        }
+        return maxes[metric.ordinal()];
+    }
+
+    /**
+     * Discards everything recorded so far.
+     */
+    public synchronized void reset() {
+        for (long[] histogram : buckets) {
+            Arrays.fill(histogram, 0);
+        }
+        Arrays.fill(sums, 0);
+        count = 0;
+    }
+
+    /**
+     * Returns the median, 95th percentile and maximum of every metric, for logging.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("ResizeMetricsHistogram{count=").append(count);
+        for (Metric metric : Metric.values()) {
+            builder.append(String.format(Locale.US, ", %s=[p50=%d, p95=%d, max=%d]",
+                metric.name().toLowerCase(Locale.US), getPercentile(metric, 50),
+                getPercentile(metric, 95), getMax(metric)));
+        }
+        return builder.append('}').toString();
+    }
+
+    private void record(Metric metric, long value) {
+        int index = metric.ordinal();
+        value = Math.max(0, value);
+        buckets[index][getBucket(value)]++;
+        sums[index] += value;
+        mins[index] = count == 0 ? value : Math.min(mins[index], value);
+        maxes[index] = count == 0 ? value : Math.max(maxes[index], value);
+    }
+
+    private static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getBucketStart(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        if (bucket >= BUCKET_COUNT) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return (1L << exponent) + ((long) subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+}
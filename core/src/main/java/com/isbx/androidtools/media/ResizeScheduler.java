@@ -0,0 +1,320 @@
+package com.isbx.androidtools.media;
+
+import android.os.Process;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded worker pool for running image resize jobs in the background.
+ *
+ * <p>
+ * Decoding a full resolution photo can easily take tens of megabytes of memory, so running an
+ * unbounded number of resize operations at the same time will quickly exhaust the heap. A
+ * ResizeScheduler runs at most {@code parallelism} jobs at once and holds the rest in a queue.
+ * Queued jobs are started in order of their priority, and in submission order for jobs with the
+ * same priority.
+ * </p>
+ *
+ * <p>
+ * The queue itself is also bounded. Once {@code maxQueuedJobs} jobs are waiting, further calls to
+ * {@link ResizeScheduler#submit(Runnable, int)} will be rejected with a
+ * {@link RejectedExecutionException} until the backlog has drained.
+ * </p>
+ *
+ * <p>
+ * In addition to limiting the number of running jobs, a scheduler limits the total memory held by
+ * decoded source bitmaps across its jobs (see {@link ResizeScheduler#setMemoryLimit(long)}). A job
+ * whose decode would push the total over the limit waits until other jobs release their memory.
+ * </p>
+ *
+ * <p>
+ * All {@link ImageResizer} instances share {@link ResizeScheduler#getDefault()} unless configured
+ * otherwise with {@link ImageResizer#setScheduler(ResizeScheduler)}.
+ * </p>
+ *
+ * @see ImageResizer#resizeImage(android.net.Uri, ImageResizer.ImageResizeCallback)
+ */
+public class ResizeScheduler {
+
+    /**
+     * Priority for jobs that should only run once all other work is complete, such as prefetching.
+     */
+    public static final int PRIORITY_LOW = -10;
+    /**
+     * The default job priority.
+     */
+    public static final int PRIORITY_NORMAL = 0;
+    /**
+     * Priority for jobs whose results are needed immediately, such as images currently on screen.
+     */
+    public static final int PRIORITY_HIGH = 10;
+
+    private static final int MAX_DEFAULT_PARALLELISM = 4;
+    private static final int DEFAULT_MAX_QUEUED_JOBS = 128;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final int DEFAULT_MEMORY_LIMIT_HEAP_DIVISOR = 4;
+
+    private static ResizeScheduler defaultScheduler;
+
+    private final ThreadPoolExecutor executor;
+    private final int parallelism;
+    private final int maxQueuedJobs;
+    private final AtomicLong sequence = new AtomicLong();
+    // Submitted jobs that have not started running, reserved by submit() before queuing
+    private final AtomicInteger queuedJobs = new AtomicInteger();
+
+    private final Object memoryLock = new Object();
+    private long memoryLimit = Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_LIMIT_HEAP_DIVISOR;
+    private long memoryInUse = 0;
+
+    /**
+     * Returns the shared scheduler used by {@link ImageResizer} by default. Its parallelism is
+     * equal to the number of available processors, up to a maximum of 4.
+     *
+     * @return The shared ResizeScheduler instance
+     */
+    public static synchronized ResizeScheduler getDefault() {
+        if (defaultScheduler == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            int parallelism = Math.max(1, Math.min(cores, MAX_DEFAULT_PARALLELISM));
+            defaultScheduler = new ResizeScheduler(parallelism, DEFAULT_MAX_QUEUED_JOBS);
+        }
+
+        return defaultScheduler;
+    }
+
+    /**
+     * Creates a new ResizeScheduler that will run at most {@code parallelism} jobs at once.
+     *
+     * @param parallelism The maximum number of jobs that may run concurrently
+     * @param maxQueuedJobs The maximum number of jobs that may be waiting to run before new
+     *                      submissions are rejected
+     */
+    public ResizeScheduler(int parallelism, int maxQueuedJobs) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        if (maxQueuedJobs < 0) {
+            throw new IllegalArgumentException("maxQueuedJobs cannot be negative");
+        }
+
+        this.parallelism = parallelism;
+        this.maxQueuedJobs = maxQueuedJobs;
+        executor = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the maximum number of jobs this scheduler will run concurrently.
+     *
+     * @return The parallelism of this scheduler
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the number of jobs that have been submitted but have not yet started running.
+     *
+     * @return The current queue length
+     */
+    public int getQueuedJobCount() {
+        return queuedJobs.get();
+    }
+
+    /**
+     * Returns whether the queue is full, in which case the next call to
+     * {@link ResizeScheduler#submit(Runnable, int)} will be rejected. Jobs submitted from other
+     * threads can fill the queue at any time, so callers that must not lose a job should still be
+     * prepared for {@link ResizeScheduler#submit(Runnable, int)} to reject it.
+     *
+     * @return {@code true} if no more jobs can be queued, {@code false} otherwise
+     */
+    public boolean isSaturated() {
+        return queuedJobs.get() >= maxQueuedJobs;
+    }
+
+    /**
+     * Returns the maximum number of bytes that decoded bitmaps may occupy across all jobs running
+     * on this scheduler.
+     *
+     * @return The memory limit in bytes
+     *
+     * @see ResizeScheduler#setMemoryLimit(long)
+     */
+    public long getMemoryLimit() {
+        synchronized (memoryLock) {
+            return memoryLimit;
+        }
+    }
+
+    /**
+     * Sets the maximum number of bytes that decoded bitmaps may occupy across all jobs running on
+     * this scheduler. Defaults to one quarter of the maximum heap size. A single decode larger
+     * than the limit is still allowed to run, but only once no other decode is in progress.
+     *
+     * @param memoryLimit The memory limit in bytes
+     *
+     * @see ResizeScheduler#getMemoryLimit()
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        synchronized (memoryLock) {
+            this.memoryLimit = memoryLimit;
+            memoryLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until {@code bytes} can be reserved without exceeding the memory limit, then reserves
+     * them. Every successful call must be paired with a call to
+     * {@link ResizeScheduler#releaseMemory(long)}.
+     */
+    void acquireMemory(long bytes) throws InterruptedException {
+        synchronized (memoryLock) {
+            while (memoryInUse > 0 && memoryInUse + bytes > memoryLimit) {
+                memoryLock.wait();
+            }
+            memoryInUse += bytes;
+        }
+    }
+
+    /**
+     * Releases memory previously reserved with {@link ResizeScheduler#acquireMemory(long)}.
+     */
+    void releaseMemory(long bytes) {
+        synchronized (memoryLock) {
+            memoryInUse -= bytes;
+            memoryLock.notifyAll();
+        }
+    }
+
+    /**
+     * Queues {@code job} to be run on one of this scheduler's worker threads.
+     *
+     * @param job The work to run
+     * @param priority The priority of the job, such as {@link ResizeScheduler#PRIORITY_NORMAL}.
+     *                 Jobs with a higher priority are started first.
+     * @return A {@link Handle} that can be used to cancel the job
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public Handle submit(Runnable job, int priority) {
+        // Reserve a place in the queue before queuing, so concurrent submissions can't overfill it
+        int queued;
+        do {
+            queued = queuedJobs.get();
+            if (queued >= maxQueuedJobs) {
+                throw new RejectedExecutionException("Resize queue is full (" + maxQueuedJobs + " jobs)");
+            }
+        } while (!queuedJobs.compareAndSet(queued, queued + 1));
+
+        Handle handle = new Handle(job, priority, sequence.getAndIncrement(), true);
+        try {
+            executor.execute(handle);
+        } catch (RuntimeException e) {
+            handle.leaveQueue();
+            throw e;
+        }
+        return handle;
+    }
+
+    /**
+     * Queues {@code job} with {@link ResizeScheduler#PRIORITY_NORMAL}.
+     *
+     * @param job The work to run
+     * @return A {@link Handle} that can be used to cancel the job
+     * @throws RejectedExecutionException if the queue is full
+     *
+     * @see ResizeScheduler#submit(Runnable, int)
+     */
+    public Handle submit(Runnable job) {
+        return submit(job, PRIORITY_NORMAL);
+    }
+
+    /**
+     * Runs {@code task} on a worker thread ahead of all queued jobs, without counting towards the
+     * queue limit. Used by a running job to hand part of its work to idle workers. Since every
+     * worker may be busy, the job must be able to run {@code task} itself rather than only wait
+     * for it.
+     */
+    void fork(Runnable task) {
+        executor.execute(new Handle(task, Integer.MAX_VALUE, sequence.getAndIncrement(), false));
+    }
+
+    /**
+     * A handle to a job that has been submitted to a {@link ResizeScheduler}.
+     */
+    public final class Handle extends FutureTask<Object> implements Comparable<Handle> {
+        private final int priority;
+        private final long order;
+        // Whether the job still holds a place in the queue limit
+        private final AtomicBoolean queued;
+
+        private Handle(Runnable job, int priority, long order, boolean queued) {
+            super(job, null);
+            this.priority = priority;
+            this.order = order;
+            this.queued = new AtomicBoolean(queued);
+        }
+
+        @Override
+        public void run() {
+            leaveQueue();
+            super.run();
+        }
+
+        /**
+         * Cancels the job. If the job is still queued it will be removed and never run. A job that
+         * is already running is allowed to finish, but its thread will be interrupted.
+         *
+         * @return {@code false} if the job could not be cancelled because it had already
+         *         completed, {@code true} otherwise
+         */
+        public boolean cancel() {
+            boolean cancelled = cancel(true);
+            executor.remove(this);
+            // A cancelled job never runs, so it gives up its place whether or not it was removed
+            leaveQueue();
+            return cancelled;
+        }
+
+        private void leaveQueue() {
+            if (queued.compareAndSet(true, false)) {
+                queuedJobs.decrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(Handle other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "ImageResizer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
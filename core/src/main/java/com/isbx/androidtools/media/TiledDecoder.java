@@ -0,0 +1,158 @@
+package com.isbx.androidtools.media;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Downscales very large images by decoding them in horizontal strips with a
+ * {@link BitmapRegionDecoder} and drawing each strip into the output bitmap.
+ *
+ * <p>
+ * A regular decode has to hold the whole sampled image in memory at once, which for a 100MP+
+ * panorama or scan may not fit in the heap even at a large sample size. Decoding in strips keeps
+ * peak memory close to the size of the output bitmap plus a single strip, regardless of the size
+ * of the source.
+ * </p>
+ */
+class TiledDecoder {
+
+    private static final long MIN_STRIP_BYTES = 1024 * 1024;
+
+    private final Context context;
+    private final BitmapPool bitmapPool;
+
+    TiledDecoder(Context context, BitmapPool bitmapPool) {
+        this.context = context;
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * Returns whether images of the given mime type can be decoded by {@link BitmapRegionDecoder}.
+     */
+    static boolean supports(String mimeType) {
+        return "image/jpeg".equals(mimeType) || "image/png".equals(mimeType)
+            || "image/webp".equals(mimeType);
+    }
+
+    /**
+     * Returns the maximum size of a single decoded strip when producing an output of
+     * {@code outputBytes}.
+     */
+    static long getStripBytes(long outputBytes) {
+        return Math.max(MIN_STRIP_BYTES, outputBytes / 2);
+    }
+
+    /**
+     * Decodes {@code sourceUri} directly to a bitmap of {@code width} x {@code height} pixels.
+     *
+     * @param sourceUri The {@link Uri} of the image to decode
+     * @param srcWidth The width of the source image
+     * @param srcHeight The height of the source image
+     * @param width The width of the output bitmap
+     * @param height The height of the output bitmap
+     * @param config The pixel format of the output bitmap
+     * @param job The job to check for cancellation between strips, or {@code null}
+     * @param metrics The metrics to add the bytes read to
+     * @return The decoded bitmap, or {@code null} if the source could not be decoded
+     * @throws IOException if the source could not be read
+     * @throws java.util.concurrent.CancellationException if {@code job} is cancelled
+     */
+    Bitmap decode(Uri sourceUri, int srcWidth, int srcHeight, int width, int height,
+                  Bitmap.Config config, ResizeJob job, ResizeMetrics metrics) throws IOException {
+        BitmapRegionDecoder decoder = null;
+        ParcelFileDescriptor fd = null;
+        CountingInputStream in = null;
+        Bitmap out = null;
+        try {
+            // Prefer a file descriptor, since the stream variant buffers the whole encoded file
+            try {
+                fd = context.getContentResolver().openFileDescriptor(sourceUri, "r");
+            } catch (FileNotFoundException e) {
+                fd = null;
+            }
+            if (fd != null) {
+                decoder = BitmapRegionDecoder.newInstance(fd.getFileDescriptor(), false);
+            } else {
+                InputStream stream = context.getContentResolver().openInputStream(sourceUri);
+                if (stream == null) {
+                    throw new FileNotFoundException("Unable to open " + sourceUri);
+                }
+                in = new CountingInputStream(stream);
+                decoder = BitmapRegionDecoder.newInstance(in, false);
+            }
+
+            int sampleSize = ImageGeometry.calculateInSampleSize(srcWidth, srcHeight, width, height);
+            int sampledWidth = (srcWidth + sampleSize - 1) / sampleSize;
+            long stripBytes = getStripBytes((long) width * height * DecodePlanner.bytesPerPixel(config));
+            long sampledRows = stripBytes / ((long) sampledWidth * DecodePlanner.bytesPerPixel(config));
+            int stripHeight = (int) Math.max(1, Math.min(sampledRows, srcHeight)) * sampleSize;
+
+            out = bitmapPool.get(width, height, config);
+            if (out == null) {
+                out = Bitmap.createBitmap(width, height, config);
+            }
+
+            Canvas canvas = new Canvas(out);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            float scale = height / (float) srcHeight;
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+
+            Rect region = new Rect();
+            RectF dst = new RectF();
+            for (int top = 0; top < srcHeight; top += stripHeight) {
+                if (job != null) {
+                    job.throwIfCancelled();
+                }
+
+                int bottom = Math.min(srcHeight, top + stripHeight);
+                region.set(0, top, srcWidth, bottom);
+
+                Bitmap strip = decoder.decodeRegion(region, options);
+                if (strip == null) {
+                    return null;
+                }
+
+                dst.set(0, top * scale, width, bottom * scale);
+                canvas.drawBitmap(strip, null, dst, paint);
+
+                bitmapPool.put(strip);
+            }
+
+            Bitmap result = out;
+            out = null;
+            return result;
+        } finally {
+            if (out != null) {
+                bitmapPool.put(out);
+            }
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            if (fd != null) {
+                // Reads through a descriptor can't be counted, but every strip reads from the
+                // whole file
+                metrics.addBytesRead(Math.max(0, fd.getStatSize()));
+                fd.close();
+            }
+            if (in != null) {
+                metrics.addBytesRead(in.getCount());
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.isbx.androidtools.media;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.webkit.MimeTypeMap;
+
+import java.util.Locale;
+
+/**
+ * Extracts still frames from videos, such as the {@link MediaPicker.MediaType#VIDEO} selections
+ * of a {@link MediaPicker}, at no more than the size they are needed at.
+ *
+ * <p>
+ * On API 27 and above frames are scaled by the platform decoder, so a full resolution frame is
+ * never allocated. Below API 27 the full resolution frame is extracted and then scaled down.
+ * Extracting the keyframe nearest the requested time is much cheaper than extracting the exact
+ * frame, since a keyframe can be decoded without decoding the frames before it.
+ * </p>
+ *
+ * <p>
+ * Every method reads the video on the calling thread, so none should be called from the main
+ * thread. To resize frames to the outputs of an {@link ImageSizeSet}, pass the video to
+ * {@link ImageResizer} instead, which extracts its frame with this class.
+ * </p>
+ *
+ * @see ImageResizeConfig#setVideoFrameTime(long)
+ */
+public class VideoFrameExtractor {
+
+    /**
+     * A frame time that lets the platform choose a representative frame of the video, usually
+     * its first keyframe.
+     */
+    public static final long TIME_REPRESENTATIVE = -1;
+
+    private final Context context;
+    private ResampleFilter resampleFilter = ResampleFilter.PROGRESSIVE_HALVING;
+
+    /**
+     * Creates a new VideoFrameExtractor.
+     *
+     * @param context The {@link Context} to use for reading videos
+     */
+    public VideoFrameExtractor(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Sets the filter used to scale frames below API 27, where the platform can't scale them.
+     * Defaults to {@link ResampleFilter#PROGRESSIVE_HALVING}.
+     *
+     * @param resampleFilter The {@link ResampleFilter} to use for scaling
+     */
+    public void setResampleFilter(ResampleFilter resampleFilter) {
+        this.resampleFilter = resampleFilter;
+    }
+
+    /**
+     * Returns whether {@code uri} refers to a video, judging by the MIME type reported by its
+     * content provider or, for file Uris, by its extension.
+     *
+     * @param context The {@link Context} to use for resolving the type
+     * @param uri The {@link Uri} to check
+     * @return {@code true} if {@code uri} is a video, {@code false} otherwise
+     */
+    public static boolean isVideo(Context context, Uri uri) {
+        String mimeType = null;
+        if (ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            mimeType = context.getContentResolver().getType(uri);
+        }
+        if (mimeType == null) {
+            String extension = MimeTypeMap.getFileExtensionFromUrl(uri.toString());
+            if (extension != null && !extension.isEmpty()) {
+                mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase(Locale.US));
+            }
+        }
+        return mimeType != null && mimeType.startsWith("video/");
+    }
+
+    /**
+     * Returns the duration of the video at {@code uri}.
+     *
+     * @param uri The {@link Uri} of the video
+     * @return The duration in microseconds, or {@code -1} if it could not be read
+     */
+    public long getDuration(Uri uri) {
+        MediaMetadataRetriever retriever = open(uri);
+        if (retriever == null) {
+            return -1;
+        }
+
+        try {
+            return getDuration(retriever);
+        } finally {
+            retriever.release();
+        }
+    }
+
+    /**
+     * Returns the dimensions of the video at {@code uri}, with its rotation applied.
+     *
+     * @param uri The {@link Uri} of the video
+     * @return A two element array containing the width and height, in that order, or
+     * {@code null} if they could not be read
+     */
+    public int[] getVideoSize(Uri uri) {
+        MediaMetadataRetriever retriever = open(uri);
+        if (retriever == null) {
+            return null;
+        }
+
+        try {
+            return getVideoSize(retriever);
+        } finally {
+            retriever.release();
+        }
+    }
+
+    /**
+     * Extracts the frame of the video at {@code uri} at the given time, scaled to fit within
+     * {@code maxWidth} x {@code maxHeight} while maintaining its aspect ratio. Frames are never
+     * scaled up, and the rotation of the video is applied.
+     *
+     * @param uri The {@link Uri} of the video
+     * @param timeUs The time of the frame in microseconds, or {@link #TIME_REPRESENTATIVE}
+     * @param maxWidth The maximum width of the frame
+     * @param maxHeight The maximum height of the frame
+     * @param keyframesOnly {@code true} to extract the keyframe nearest {@code timeUs},
+     *                      {@code false} to extract the exact frame
+     * @return The frame, or {@code null} if it could not be extracted
+     */
+    public Bitmap extractFrame(Uri uri, long timeUs, int maxWidth, int maxHeight, boolean keyframesOnly) {
+        MediaMetadataRetriever retriever = open(uri);
+        if (retriever == null) {
+            return null;
+        }
+
+        try {
+            return extractFrame(retriever, timeUs, maxWidth, maxHeight, keyframesOnly);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    /**
+     * Creates a sprite sheet of {@code frameCount} frames evenly spaced across the video at
+     * {@code uri}, laid out left to right and top to bottom in a grid {@code columns} frames
+     * wide. Each frame is scaled to fit within {@code frameWidth} x {@code frameHeight}, and every
+     * cell of the grid has the size of the first frame. Cells whose frame could not be extracted
+     * are left black.
+     *
+     * @param uri The {@link Uri} of the video
+     * @param frameCount The number of frames to extract
+     * @param columns The number of frames in each row of the grid
+     * @param frameWidth The maximum width of each frame
+     * @param frameHeight The maximum height of each frame
+     * @param keyframesOnly {@code true} to use the keyframe nearest each time, {@code false} to
+     *                      use the exact frame
+     * @return The sprite sheet, or {@code null} if no frames could be extracted
+     */
+    public Bitmap createSprite(Uri uri, int frameCount, int columns, int frameWidth, int frameHeight,
+                               boolean keyframesOnly) {
+        if (frameCount <= 0 || columns <= 0) {
+            throw new IllegalArgumentException("frameCount and columns must be positive");
+        }
+
+        MediaMetadataRetriever retriever = open(uri);
+        if (retriever == null) {
+            return null;
+        }
+
+        Bitmap sprite = null;
+        try {
+            long duration = getDuration(retriever);
+            int rows = (frameCount + columns - 1) / columns;
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            Canvas canvas = null;
+            int cellWidth = 0;
+            int cellHeight = 0;
+
+            for (int i = 0; i < frameCount; i++) {
+                // Sample the middle of each of frameCount equal spans, so the first and last
+                // frames aren't the usual black fades
+                long timeUs = duration > 0 ? duration * (2 * i + 1) / (2 * frameCount) : TIME_REPRESENTATIVE;
+                Bitmap frame = extractFrame(retriever, timeUs, frameWidth, frameHeight, keyframesOnly);
+                if (frame == null) {
+                    continue;
+                }
+
+                if (sprite == null) {
+                    cellWidth = frame.getWidth();
+                    cellHeight = frame.getHeight();
+                    sprite = Bitmap.createBitmap(cellWidth * Math.min(columns, frameCount),
+                        cellHeight * rows, Bitmap.Config.ARGB_8888);
+                    sprite.eraseColor(0xff000000);
+                    canvas = new Canvas(sprite);
+                }
+
+                float left = (i % columns) * cellWidth;
+                float top = (i / columns) * cellHeight;
+                canvas.drawBitmap(frame, null, new RectF(left, top, left + cellWidth, top + cellHeight), paint);
+                frame.recycle();
+            }
+            return sprite;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            if (sprite != null) {
+                sprite.recycle();
+            }
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private Bitmap extractFrame(MediaMetadataRetriever retriever, long timeUs, int maxWidth,
+                                int maxHeight, boolean keyframesOnly) {
+        int option = keyframesOnly
+            ? MediaMetadataRetriever.OPTION_CLOSEST_SYNC : MediaMetadataRetriever.OPTION_CLOSEST;
+
+        // Never scale up past the size of the video itself
+        int width = maxWidth;
+        int height = maxHeight;
+        int[] videoSize = getVideoSize(retriever);
+        if (videoSize != null) {
+            int[] size = ImageGeometry.scaledSize(videoSize[0], videoSize[1], maxWidth, maxHeight);
+            width = Math.min(size[0], videoSize[0]);
+            height = Math.min(size[1], videoSize[1]);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            return retriever.getScaledFrameAtTime(timeUs, option, Math.max(1, width), Math.max(1, height));
+        }
+
+        Bitmap frame = retriever.getFrameAtTime(timeUs, option);
+        if (frame == null || (frame.getWidth() <= width && frame.getHeight() <= height)) {
+            return frame;
+        }
+
+        int[] size = ImageGeometry.scaledSize(frame.getWidth(), frame.getHeight(), width, height);
+        Bitmap scaled = ImageResizer.scaleBitmap(frame, Math.max(1, size[0]), Math.max(1, size[1]),
+            resampleFilter, ExifOrientation.NORMAL, null);
+        if (scaled != frame) {
+            frame.recycle();
+        }
+        return scaled;
+    }
+
+    private MediaMetadataRetriever open(Uri uri) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            return retriever;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            retriever.release();
+            return null;
+        }
+    }
+
+    private static long getDuration(MediaMetadataRetriever retriever) {
+        long durationMs = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+        return durationMs >= 0 ? durationMs * 1000 : -1;
+    }
+
+    /**
+     * Returns the dimensions of the video with its rotation applied, or {@code null} if they are
+     * not known.
+     */
+    private static int[] getVideoSize(MediaMetadataRetriever retriever) {
+        long width = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+        long height = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        long rotation = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            rotation = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+        }
+        if (rotation == 90 || rotation == 270) {
+            return new int[] { (int) height, (int) width };
+        }
+        return new int[] { (int) width, (int) height };
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.isbx.androidtools.networking;
+
+import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+/**
+ * A {@link RequestBody} that reports the bytes of the wrapped body as they are written to the
+ * connection.
+ */
+final class CountingRequestBody extends RequestBody {
+
+    /**
+     * Receives the number of bytes written by a {@link CountingRequestBody}.
+     */
+    interface Listener {
+        /**
+         * Called on the thread writing the request each time bytes of the body are written. If the
+         * body is written again, for example when OkHttp retries the request, the bytes of the
+         * earlier attempt are first taken back with a negative count.
+         *
+         * @param bytes The number of bytes written since the last call
+         */
+        void onBytesWritten(long bytes);
+    }
+
+    private final RequestBody delegate;
+    private final Listener listener;
+    private long bytesWritten = 0;
+
+    CountingRequestBody(RequestBody delegate, Listener listener) {
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        if (bytesWritten > 0) {
+            listener.onBytesWritten(-bytesWritten);
+            bytesWritten = 0;
+        }
+
+        BufferedSink countingSink = Okio.buffer(new ForwardingSink(sink) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                super.write(source, byteCount);
+                bytesWritten += byteCount;
+                listener.onBytesWritten(byteCount);
+            }
+        });
+        delegate.writeTo(countingSink);
+        countingSink.flush();
+    }
+}
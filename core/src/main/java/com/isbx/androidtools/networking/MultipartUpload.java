@@ -0,0 +1,615 @@
+package com.isbx.androidtools.networking;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+/**
+ * Uploads a single file to S3 with the multipart upload API: the upload is initiated, the parts
+ * of the file are uploaded up to {@link MultipartUploadConfig#getMaxConcurrentParts()} at a time,
+ * each retried on its own, and the upload is then completed from the ETags of the parts.
+ *
+ * <p>
+ * The progress of the upload is reported through a {@link Listener} as a {@link State}, which can
+ * be passed back to {@link MultipartUpload#upload} to resume from the parts already committed. If
+ * S3 no longer knows the upload of a resumed state, for example because it expired, the file is
+ * uploaded again from the start.
+ * </p>
+ *
+ * @see MultipartUploadConfig
+ */
+final class MultipartUpload {
+
+    /**
+     * Receives the progress of a {@link MultipartUpload}, on the threads uploading its parts.
+     */
+    interface Listener {
+        /**
+         * Called as bytes of the file are written to the connection. When a part is retried, or
+         * the upload starts over, the bytes already reported are taken back with a negative count.
+         * The parts already committed by a resumed state are reported when the upload starts.
+         *
+         * @param bytes The number of bytes written since the last call
+         */
+        void onBytesWritten(long bytes);
+
+        /**
+         * Called once the upload has been initiated, and again as each part is committed.
+         *
+         * @param state A copy of the state of the upload, which is not modified afterwards
+         */
+        void onStateChanged(State state);
+    }
+
+    private static final String S3_URL_FORMAT = "https://%s.s3.amazonaws.com";
+    private static final int MAX_PARTS = 10000;
+    private static final long INITIAL_RETRY_DELAY_MS = 1000;
+    private static final MediaType XML = MediaType.parse("application/xml");
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+    private static final Pattern UPLOAD_ID_PATTERN = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+
+    private final OkHttpClient client;
+    private final MultipartUploadConfig config;
+    private final ExecutorService executor;
+    private final Listener listener;
+
+    private final List<Call> activeCalls = new ArrayList<>();
+    private final Object retryLock = new Object();
+    private volatile boolean cancelled = false;
+    private volatile IOException partFailure;
+
+    // Guarded by this
+    private State state;
+    private long reportedBytes = 0;
+
+    /**
+     * Creates a new MultipartUpload.
+     *
+     * @param client The {@link OkHttpClient} to make requests with
+     * @param config The {@link MultipartUploadConfig} to upload with
+     * @param executor The threads to upload parts on, which must allow at least
+     *                 {@link MultipartUploadConfig#getMaxConcurrentParts()} tasks at once
+     * @param listener The {@link Listener} to report progress to, which may be {@code null} if
+     *                 this instance is only used to abort uploads
+     */
+    MultipartUpload(OkHttpClient client, MultipartUploadConfig config, ExecutorService executor,
+                    Listener listener) {
+        this.client = client;
+        this.config = config;
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * Uploads {@code file}, blocking until every part has been uploaded and the upload has been
+     * completed.
+     *
+     * @param file The file to upload
+     * @param bucket The S3 bucket to upload to
+     * @param key The S3 key to upload to
+     * @param contentType The Content-Type of the uploaded object
+     * @param acl The canned ACL of the uploaded object, e.g. {@code public-read}
+     * @param resumeState The state of an earlier attempt at uploading {@code file}, or
+     *                    {@code null}. If it is for a file of the same size, the upload
+     *                    continues it, keeping its bucket and key.
+     * @return The url of the uploaded object
+     * @throws IOException If the upload failed or was cancelled
+     */
+    String upload(File file, String bucket, String key, String contentType, String acl,
+                  State resumeState) throws IOException {
+        long fileLength = file.length();
+        if (resumeState != null && resumeState.uploadId != null && resumeState.fileLength == fileLength) {
+            setState(resumeState.copy());
+            try {
+                return uploadParts(file);
+            } catch (NoSuchUploadException e) {
+                // The upload expired or was aborted on the server, so start over
+                e.printStackTrace();
+                partFailure = null;
+                report(-getReportedBytes());
+            }
+        }
+
+        State initiated = new State();
+        initiated.bucket = bucket;
+        initiated.key = key;
+        initiated.fileLength = fileLength;
+        initiated.partSize = Math.max(config.getPartSize(), (fileLength + MAX_PARTS - 1) / MAX_PARTS);
+        initiated.uploadId = initiate(initiated, contentType, acl);
+        setState(initiated);
+        return uploadParts(file);
+    }
+
+    /**
+     * Returns the key the file is being uploaded to, which is the key of the resumed state when
+     * an upload is resumed.
+     */
+    synchronized String getKey() {
+        return state != null ? state.key : null;
+    }
+
+    /**
+     * Returns the id S3 gave the upload, or {@code null} if it has not been initiated.
+     */
+    synchronized String getUploadId() {
+        return state != null ? state.uploadId : null;
+    }
+
+    /**
+     * Cancels the upload, along with any requests in flight. The upload is left on the server to
+     * be resumed or aborted.
+     */
+    void cancel() {
+        cancelled = true;
+        cancelCalls();
+        synchronized (retryLock) {
+            retryLock.notifyAll();
+        }
+    }
+
+    /**
+     * Aborts the upload on the server, deleting any parts already uploaded, so they aren't stored
+     * until the bucket's lifecycle rules remove them. Failures are ignored.
+     */
+    void abort() {
+        State abortState;
+        synchronized (this) {
+            abortState = state;
+        }
+        if (abortState != null) {
+            abort(abortState);
+        }
+    }
+
+    /**
+     * Aborts the upload of {@code abortState} on the server, such as one recorded by an
+     * {@link UploadJournal} that will never be resumed.
+     *
+     * @return {@code true} if the upload was aborted or S3 no longer knows it, {@code false} if
+     * the request failed and should be tried again later
+     */
+    boolean abort(State abortState) {
+        if (abortState.uploadId == null) {
+            return true;
+        }
+
+        HttpUrl url = getObjectUrl(abortState).newBuilder()
+            .addQueryParameter("uploadId", abortState.uploadId)
+            .build();
+        try {
+            Response response = client.newCall(sign(new Request.Builder().url(url).delete().build())).execute();
+            response.close();
+            return response.isSuccessful() || response.code() == 404;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private String initiate(State state, String contentType, String acl) throws IOException {
+        HttpUrl url = getObjectUrl(state).newBuilder()
+            .addQueryParameter("uploads", null)
+            .build();
+        Request request = new Request.Builder()
+            .url(url)
+            .header("x-amz-acl", acl)
+            .post(RequestBody.create(MediaType.parse(contentType), new byte[0]))
+            .build();
+
+        String body = readBody(execute(request));
+        Matcher matcher = UPLOAD_ID_PATTERN.matcher(body);
+        if (!matcher.find()) {
+            throw new IOException("No UploadId in response: " + body);
+        }
+        return matcher.group(1);
+    }
+
+    private String uploadParts(final File file) throws IOException {
+        final State uploadState;
+        synchronized (this) {
+            uploadState = state;
+        }
+
+        int partCount = (int) Math.max(1, (uploadState.fileLength + uploadState.partSize - 1) / uploadState.partSize);
+        Set<Integer> committed = new HashSet<>();
+        for (Part part : uploadState.parts) {
+            committed.add(part.number);
+        }
+
+        final ConcurrentLinkedQueue<Integer> pending = new ConcurrentLinkedQueue<>();
+        long committedBytes = 0;
+        for (int number = 1; number <= partCount; number++) {
+            if (committed.contains(number)) {
+                committedBytes += getPartLength(uploadState, number);
+            } else {
+                pending.add(number);
+            }
+        }
+        report(committedBytes);
+
+        List<Future<?>> workers = new ArrayList<>();
+        int workerCount = Math.min(config.getMaxConcurrentParts(), pending.size());
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Integer number;
+                    while (!isStopped() && (number = pending.poll()) != null) {
+                        try {
+                            uploadPart(file, uploadState, number);
+                        } catch (IOException e) {
+                            failParts(e);
+                        }
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                cancel();
+                throw new InterruptedIOException("Interrupted waiting for parts");
+            } catch (ExecutionException e) {
+                failParts(new IOException(e.getCause()));
+            }
+        }
+
+        if (partFailure != null) {
+            throw partFailure;
+        }
+        if (cancelled) {
+            throw new InterruptedIOException("Upload cancelled");
+        }
+        return complete(uploadState);
+    }
+
+    private void uploadPart(File file, State uploadState, int number) throws IOException {
+        long offset = (number - 1) * uploadState.partSize;
+        HttpUrl url = getObjectUrl(uploadState).newBuilder()
+            .addQueryParameter("partNumber", String.valueOf(number))
+            .addQueryParameter("uploadId", uploadState.uploadId)
+            .build();
+
+        // The counting body takes back its own bytes when it is rewritten by a retry
+        final long[] written = { 0 };
+        RequestBody body = new CountingRequestBody(
+            new FilePartRequestBody(file, offset, getPartLength(uploadState, number)),
+            new CountingRequestBody.Listener() {
+                @Override
+                public void onBytesWritten(long bytes) {
+                    written[0] += bytes;
+                    report(bytes);
+                }
+            });
+
+        Response response;
+        try {
+            response = execute(new Request.Builder().url(url).put(body).build());
+        } catch (IOException e) {
+            report(-written[0]);
+            throw e;
+        }
+
+        String etag = response.header("ETag");
+        response.close();
+        if (etag == null) {
+            throw new IOException("No ETag in response for part " + number);
+        }
+
+        Part part = new Part();
+        part.number = number;
+        part.etag = etag;
+        synchronized (this) {
+            state.parts.add(part);
+            listener.onStateChanged(state.copy());
+        }
+    }
+
+    private String complete(State uploadState) throws IOException {
+        List<Part> parts = new ArrayList<>(uploadState.parts);
+        Collections.sort(parts, new Comparator<Part>() {
+            @Override
+            public int compare(Part a, Part b) {
+                return a.number < b.number ? -1 : (a.number == b.number ? 0 : 1);
+            }
+        });
+
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (Part part : parts) {
+            xml.append("<Part><PartNumber>").append(part.number).append("</PartNumber><ETag>")
+                .append(escapeXml(part.etag)).append("</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+
+        HttpUrl url = getObjectUrl(uploadState).newBuilder()
+            .addQueryParameter("uploadId", uploadState.uploadId)
+            .build();
+        Request request = new Request.Builder()
+            .url(url)
+            .post(RequestBody.create(XML, xml.toString()))
+            .build();
+
+        // S3 can report a failure to complete in the body of a successful response
+        String body = readBody(execute(request));
+        if (body.contains("<Error>")) {
+            throw new IOException("Failed completing upload: " + body);
+        }
+        return getObjectUrlString(uploadState);
+    }
+
+    /**
+     * Signs and executes {@code request}, retrying network errors and server errors up to
+     * {@link MultipartUploadConfig#getMaxPartAttempts()} times.
+     *
+     * @return The successful response, which the caller must close
+     */
+    private Response execute(Request request) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            if (isStopped()) {
+                throw new InterruptedIOException("Upload stopped");
+            }
+
+            Call call = client.newCall(sign(request));
+            synchronized (activeCalls) {
+                activeCalls.add(call);
+            }
+
+            IOException failure;
+            boolean retryable = true;
+            try {
+                Response response = call.execute();
+                if (response.isSuccessful()) {
+                    return response;
+                }
+
+                int code = response.code();
+                String body = readBody(response);
+                if (code == 404 && body.contains("NoSuchUpload")) {
+                    throw new NoSuchUploadException(body);
+                }
+                failure = new IOException("S3 responded " + code + " to " + request.method() + " " + request.url() + ": " + body);
+                retryable = code >= 500 || code == 408 || code == 429;
+            } catch (NoSuchUploadException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                synchronized (activeCalls) {
+                    activeCalls.remove(call);
+                }
+            }
+
+            if (!retryable || attempt >= config.getMaxPartAttempts() || isStopped()) {
+                throw failure;
+            }
+            failure.printStackTrace();
+            waitBeforeRetry(INITIAL_RETRY_DELAY_MS << (attempt - 1));
+        }
+    }
+
+    private Request sign(Request request) throws IOException {
+        return config.getSigner().sign(request);
+    }
+
+    private void waitBeforeRetry(long delayMs) throws InterruptedIOException {
+        long deadline = System.currentTimeMillis() + delayMs;
+        synchronized (retryLock) {
+            long remaining;
+            while (!isStopped() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    retryLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting to retry");
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the first failure of a part and stops the other parts, since the upload can't be
+     * completed without it.
+     */
+    private void failParts(IOException error) {
+        synchronized (this) {
+            if (partFailure != null) {
+                return;
+            }
+            partFailure = error;
+        }
+        cancelCalls();
+        synchronized (retryLock) {
+            retryLock.notifyAll();
+        }
+    }
+
+    private boolean isStopped() {
+        return cancelled || partFailure != null;
+    }
+
+    private void cancelCalls() {
+        synchronized (activeCalls) {
+            for (Call call : activeCalls) {
+                call.cancel();
+            }
+        }
+    }
+
+    private synchronized void setState(State state) {
+        this.state = state;
+        listener.onStateChanged(state.copy());
+    }
+
+    private synchronized long getReportedBytes() {
+        return reportedBytes;
+    }
+
+    private void report(long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        synchronized (this) {
+            reportedBytes += bytes;
+        }
+        listener.onBytesWritten(bytes);
+    }
+
+    private HttpUrl getObjectUrl(State state) {
+        HttpUrl.Builder builder;
+        if (config.getEndpoint() == null) {
+            builder = HttpUrl.parse(String.format(S3_URL_FORMAT, state.bucket)).newBuilder();
+        } else {
+            HttpUrl endpoint = HttpUrl.parse(config.getEndpoint());
+            if (endpoint == null) {
+                throw new IllegalArgumentException("Invalid endpoint: " + config.getEndpoint());
+            }
+            builder = endpoint.newBuilder().addPathSegment(state.bucket);
+        }
+        return builder.addPathSegments(state.key).build();
+    }
+
+    /**
+     * Returns the url of the uploaded object in the same form as the urls of single POST uploads.
+     */
+    private String getObjectUrlString(State state) {
+        if (config.getEndpoint() == null) {
+            return String.format(S3_URL_FORMAT, state.bucket) + "/" + state.key;
+        }
+        String endpoint = config.getEndpoint();
+        if (endpoint.endsWith("/")) {
+            endpoint = endpoint.substring(0, endpoint.length() - 1);
+        }
+        return endpoint + "/" + state.bucket + "/" + state.key;
+    }
+
+    private static long getPartLength(State state, int number) {
+        long offset = (number - 1) * state.partSize;
+        return Math.min(state.partSize, state.fileLength - offset);
+    }
+
+    private static String readBody(Response response) throws IOException {
+        try {
+            ResponseBody body = response.body();
+            return body != null ? body.string() : "";
+        } finally {
+            response.close();
+        }
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+            .replace("\"", "&quot;");
+    }
+
+    /**
+     * The state of a multipart upload, from which it can be resumed. Serialized with Gson by
+     * {@link UploadJournal}.
+     */
+    static class State {
+        String uploadId;
+        String bucket;
+        String key;
+        long fileLength;
+        long partSize;
+        List<Part> parts = new ArrayList<>();
+
+        State copy() {
+            State copy = new State();
+            copy.uploadId = uploadId;
+            copy.bucket = bucket;
+            copy.key = key;
+            copy.fileLength = fileLength;
+            copy.partSize = partSize;
+            copy.parts = new ArrayList<>(parts);
+            return copy;
+        }
+    }
+
+    /**
+     * A part of a multipart upload that S3 has acknowledged.
+     */
+    static class Part {
+        int number;
+        String etag;
+    }
+
+    /**
+     * Thrown when S3 doesn't know the upload a request refers to.
+     */
+    private static class NoSuchUploadException extends IOException {
+        NoSuchUploadException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A {@link RequestBody} of a range of a file, read only as it is written.
+     */
+    private static class FilePartRequestBody extends RequestBody {
+        private static final int BUFFER_SIZE = 8192;
+
+        private final File file;
+        private final long offset;
+        private final long length;
+
+        FilePartRequestBody(File file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return OCTET_STREAM;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                in.seek(offset);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = length;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        throw new IOException("Unexpected end of " + file);
+                    }
+                    sink.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.isbx.androidtools.networking;
+
+import com.isbx.androidtools.networking.s3.S3RequestSigner;
+
+/**
+ * A configuration class for how {@link UploadManager} uploads large files with the S3 multipart
+ * upload API.
+ *
+ * <p>
+ * Files of at least {@link MultipartUploadConfig#getThreshold()} bytes are split into parts of
+ * {@link MultipartUploadConfig#getPartSize()} bytes, which are uploaded several at a time and
+ * retried individually, so a dropped connection only costs the part in flight rather than the
+ * whole file. If the {@link UploadManager} has an {@link UploadJournal}, each part is recorded as
+ * S3 acknowledges it, and a resumed upload continues from the parts already sent.
+ * </p>
+ *
+ * <p>
+ * A failed upload is aborted, deleting its parts, unless it is journaled. A journaled upload is
+ * aborted once the journal gives up on it, because a file ran out of attempts or the journal was
+ * cleared, by the next request of an {@link UploadManager} with this configuration. Uploads left
+ * behind by an app that is never launched again are only removed by a lifecycle rule of the
+ * bucket, such as {@code AbortIncompleteMultipartUpload}.
+ * </p>
+ *
+ * <p>
+ * Every request of a multipart upload is authenticated by the {@link S3RequestSigner} of the
+ * configuration. The bucket and key prefix still come from the {@link UploadManager}'s
+ * {@link com.isbx.androidtools.networking.s3.S3CredentialsProvider}.
+ * </p>
+ *
+ * <p>
+ * By default requests are sent to {@code https://{bucket}.s3.amazonaws.com}. To test against a
+ * local S3 stand-in, set its url with {@link MultipartUploadConfig#setEndpoint(String)} and a
+ * threshold of {@code 0}, so that every file is uploaded to it.
+ * </p>
+ *
+ * @see UploadManager#setMultipartUploadConfig(MultipartUploadConfig)
+ */
+public class MultipartUploadConfig {
+
+    /**
+     * The smallest part size S3 accepts, 5MB. Only the last part of a file may be smaller.
+     */
+    public static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private static final long DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    private static final long DEFAULT_THRESHOLD = 16 * 1024 * 1024;
+    private static final int DEFAULT_MAX_CONCURRENT_PARTS = 3;
+    private static final int DEFAULT_MAX_PART_ATTEMPTS = 4;
+
+    private final S3RequestSigner signer;
+    private String endpoint;
+    private long partSize = DEFAULT_PART_SIZE;
+    private long threshold = DEFAULT_THRESHOLD;
+    private int maxConcurrentParts = DEFAULT_MAX_CONCURRENT_PARTS;
+    private int maxPartAttempts = DEFAULT_MAX_PART_ATTEMPTS;
+
+    /**
+     * Creates a new MultipartUploadConfig whose requests are authenticated by {@code signer}.
+     *
+     * @param signer The {@link S3RequestSigner} to sign every request with
+     */
+    public MultipartUploadConfig(S3RequestSigner signer) {
+        if (signer == null) {
+            throw new IllegalArgumentException("signer cannot be null");
+        }
+        this.signer = signer;
+    }
+
+    /**
+     * Returns the signer that authenticates every request of a multipart upload.
+     *
+     * @return The {@link S3RequestSigner} of this configuration
+     */
+    public S3RequestSigner getSigner() {
+        return signer;
+    }
+
+    /**
+     * Returns the url of the S3 compatible server to upload to, or {@code null} to upload to
+     * Amazon S3.
+     *
+     * @return The endpoint url
+     *
+     * @see MultipartUploadConfig#setEndpoint(String)
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Sets the url of an S3 compatible server to upload to instead of Amazon S3, such as
+     * {@code http://10.0.2.2:9000} for a local stand-in reached from the emulator. Objects are
+     * addressed path style, as {@code {endpoint}/{bucket}/{key}}, which such servers support
+     * without any DNS setup. Defaults to {@code null}, which uploads to
+     * {@code https://{bucket}.s3.amazonaws.com/{key}}.
+     *
+     * @param endpoint The endpoint url, or {@code null} for Amazon S3
+     * @return This MultipartUploadConfig
+     */
+    public MultipartUploadConfig setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+        return this;
+    }
+
+    /**
+     * Returns the size of each part of a multipart upload in bytes.
+     *
+     * @return The part size
+     */
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Sets the size of each part of a multipart upload in bytes. Defaults to 8MB. Larger parts
+     * make fewer requests, while smaller parts lose less progress when a part fails. S3 allows at
+     * most 10,000 parts, so the part size is raised for files too large to upload in 10,000 parts.
+     *
+     * @param partSize The part size, at least {@link MultipartUploadConfig#MIN_PART_SIZE}
+     * @return This MultipartUploadConfig
+     */
+    public MultipartUploadConfig setPartSize(long partSize) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("partSize must be at least " + MIN_PART_SIZE);
+        }
+        this.partSize = partSize;
+        return this;
+    }
+
+    /**
+     * Returns the size in bytes at which files are uploaded in parts.
+     *
+     * @return The multipart threshold
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the size in bytes at which files are uploaded in parts, rather than in a single POST.
+     * Defaults to 16MB.
+     *
+     * @param threshold The multipart threshold, or {@code 0} to upload every file in parts
+     * @return This MultipartUploadConfig
+     */
+    public MultipartUploadConfig setThreshold(long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold cannot be negative");
+        }
+        this.threshold = threshold;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of parts of a single file that are uploaded at the same time.
+     *
+     * @return The maximum number of concurrent parts
+     */
+    public int getMaxConcurrentParts() {
+        return maxConcurrentParts;
+    }
+
+    /**
+     * Sets the maximum number of parts of a single file that are uploaded at the same time.
+     * Defaults to {@code 3}.
+     *
+     * @param maxConcurrentParts The maximum number of concurrent parts, at least {@code 1}
+     * @return This MultipartUploadConfig
+     */
+    public MultipartUploadConfig setMaxConcurrentParts(int maxConcurrentParts) {
+        if (maxConcurrentParts < 1) {
+            throw new IllegalArgumentException("maxConcurrentParts must be at least 1");
+        }
+        this.maxConcurrentParts = maxConcurrentParts;
+        return this;
+    }
+
+    /**
+     * Returns the number of times each part is attempted before the upload fails.
+     *
+     * @return The maximum number of attempts per part
+     */
+    public int getMaxPartAttempts() {
+        return maxPartAttempts;
+    }
+
+    /**
+     * Sets the number of times each part is attempted before the upload fails. Parts are retried
+     * after network errors and server errors, waiting twice as long before each retry, starting
+     * from one second. Defaults to {@code 4}.
+     *
+     * @param maxPartAttempts The maximum number of attempts per part, at least {@code 1}
+     * @return This MultipartUploadConfig
+     */
+    public MultipartUploadConfig setMaxPartAttempts(int maxPartAttempts) {
+        if (maxPartAttempts < 1) {
+            throw new IllegalArgumentException("maxPartAttempts must be at least 1");
+        }
+        this.maxPartAttempts = maxPartAttempts;
+        return this;
+    }
+}
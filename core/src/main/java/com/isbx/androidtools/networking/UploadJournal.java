@@ -0,0 +1,489 @@
+package com.isbx.androidtools.networking;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.isbx.androidtools.media.ResizeCache;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A small on-disk journal of the upload requests of an {@link UploadManager} that have not yet
+ * finished, so they can be resumed after the app is killed part way through a batch.
+ *
+ * <p>
+ * Each request is recorded before its first file is uploaded, along with the ACL, suffix and
+ * attempt count of every file. The url of each file is recorded as soon as it has been uploaded,
+ * so a resumed request never sends a finished file again. Files uploaded in parts also record
+ * each part as it is committed, so they resume from the next part rather than from the start.
+ * A request is removed from the journal once all of its files have been uploaded, or once a file
+ * has failed {@link UploadJournal#MAX_ATTEMPTS} times. The multipart uploads of a request that is
+ * given up on are remembered until an {@link UploadManager} using the journal has aborted them,
+ * so their parts don't stay stored in the bucket.
+ * </p>
+ *
+ * <p>
+ * The journal is rewritten in full on every change, so it is only suited to the handful of
+ * requests an app has in flight at once. Files must still be readable when a request is resumed,
+ * so journaled uploads should use file Uris, such as those of {@link com.isbx.androidtools.media.ImageResizer}
+ * outputs, rather than content Uris whose permissions expire with the process.
+ * </p>
+ *
+ * <p>
+ * Files of the {@link ResizeCache}s given to the journal, by default those of
+ * {@link ResizeCache#getDefault(Context)} and {@link ResizeCache#getMediaPickerCache(Context)},
+ * are pinned from the time their request is recorded until it is removed from the journal, so
+ * they can't be evicted before a request left over from an earlier launch is resumed.
+ * </p>
+ *
+ * @see UploadManager#setJournal(UploadJournal)
+ * @see UploadManager#resumePendingUploads(UploadManager.UploadListener)
+ */
+public class UploadJournal {
+
+    /**
+     * The number of times a file is attempted across resumes before its request is abandoned.
+     */
+    public static final int MAX_ATTEMPTS = 5;
+
+    private static final String FILE_NAME = "upload_journal.json";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CHARSET = "UTF-8";
+    private static final String PIN_OWNER_PREFIX = "upload_journal:";
+
+    private static UploadJournal defaultJournal;
+
+    private final File file;
+    private final ResizeCache[] pinnedCaches;
+    // Identifies the pins of this journal, followed by the id of the request holding each pin
+    private final String pinOwnerPrefix;
+    private final Gson gson = new Gson();
+    private List<Batch> batches;
+    // Multipart uploads of abandoned requests, kept until they have been aborted
+    private List<MultipartUpload.State> abandonedUploads;
+    // The requests being uploaded by this process, which must not be resumed or reused
+    private final Set<Batch> activeBatches = new HashSet<>();
+
+    /**
+     * Returns the journal stored in the app's internal private storage.
+     *
+     * @param context Any {@link Context} of the app
+     * @return The default UploadJournal
+     */
+    public static synchronized UploadJournal getDefault(Context context) {
+        if (defaultJournal == null) {
+            Context appContext = context.getApplicationContext();
+            defaultJournal = new UploadJournal(new File(appContext.getFilesDir(), FILE_NAME),
+                ResizeCache.getDefault(appContext), ResizeCache.getMediaPickerCache(appContext));
+        }
+        return defaultJournal;
+    }
+
+    /**
+     * Creates an UploadJournal stored in {@code file}. The file is not read until the journal is
+     * first used.
+     *
+     * @param file The file to store the journal in
+     * @param pinnedCaches The {@link ResizeCache}s whose files are pinned while they are queued
+     */
+    public UploadJournal(File file, ResizeCache... pinnedCaches) {
+        this.file = file;
+        this.pinnedCaches = pinnedCaches;
+        pinOwnerPrefix = PIN_OWNER_PREFIX + file.getAbsolutePath() + ":";
+    }
+
+    /**
+     * Returns the number of upload requests that have not finished.
+     *
+     * @return The number of pending requests
+     */
+    public synchronized int getPendingCount() {
+        return load().size();
+    }
+
+    /**
+     * Forgets every pending upload request, so none of them will be resumed. Requests already
+     * being uploaded are not stopped. The multipart uploads of the forgotten requests are aborted
+     * by the next request of an {@link UploadManager} using this journal.
+     */
+    public synchronized void clear() {
+        for (Batch batch : load()) {
+            if (!activeBatches.contains(batch)) {
+                abandon(batch);
+                unpin(batch);
+            }
+        }
+        // Requests in progress are abandoned by end() if they don't finish
+        load().clear();
+        save();
+    }
+
+    /**
+     * Records a new upload request and marks it as in progress. If a pending request for the same
+     * files, suffixes and ACL was left over from an earlier launch, it is returned instead, so
+     * a request repeated after a crash resumes rather than uploading its files twice.
+     */
+    synchronized Batch begin(Uri[] uris, UploadManager.SuffixRule suffixRule, String acl) {
+        String[] uriStrings = new String[uris.length];
+        String[] suffixes = new String[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            uriStrings[i] = String.valueOf(uris[i]);
+            suffixes[i] = suffixRule.getSuffix(uris[i], i);
+        }
+
+        for (Batch batch : load()) {
+            if (!activeBatches.contains(batch) && batch.matches(uriStrings, suffixes, acl)) {
+                activeBatches.add(batch);
+                return batch;
+            }
+        }
+
+        Batch batch = new Batch();
+        batch.id = UUID.randomUUID().toString();
+        batch.acl = acl;
+        batch.createdAt = System.currentTimeMillis();
+        batch.items = new ArrayList<>();
+        for (int i = 0; i < uris.length; i++) {
+            Item item = new Item();
+            item.uri = uriStrings[i];
+            item.suffix = suffixes[i];
+            batch.items.add(item);
+        }
+        // Pin before saving, so a recorded request never has unpinned files
+        pin(batch);
+        load().add(batch);
+        activeBatches.add(batch);
+        save();
+        return batch;
+    }
+
+    /**
+     * Marks every pending request that is not already in progress as in progress, and returns
+     * them.
+     */
+    synchronized List<Batch> beginPending() {
+        List<Batch> pending = new ArrayList<>();
+        for (Batch batch : load()) {
+            if (activeBatches.add(batch)) {
+                pending.add(batch);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Marks a request as no longer in progress. It is removed from the journal if every file has
+     * been uploaded, or if a file has run out of attempts; otherwise it is left to be resumed.
+     * The multipart uploads of a request that is given up on, or that was cleared while in
+     * progress, are queued to be aborted.
+     */
+    synchronized void end(Batch batch) {
+        activeBatches.remove(batch);
+
+        boolean finished = true;
+        boolean exhausted = false;
+        for (Item item : batch.items) {
+            if (item.url == null) {
+                finished = false;
+                exhausted |= item.attempts >= MAX_ATTEMPTS;
+            }
+        }
+        boolean pending = load().contains(batch);
+        if (finished || exhausted || !pending) {
+            load().remove(batch);
+            abandon(batch);
+            save();
+            unpin(batch);
+        }
+    }
+
+    /**
+     * Returns the multipart uploads of abandoned requests that have not yet been aborted.
+     */
+    synchronized List<MultipartUpload.State> getAbandonedUploads() {
+        return new ArrayList<>(loadAbandoned());
+    }
+
+    /**
+     * Forgets an abandoned multipart upload once it has been aborted.
+     */
+    synchronized void removeAbandonedUpload(MultipartUpload.State state) {
+        if (loadAbandoned().remove(state)) {
+            save();
+        }
+    }
+
+    /**
+     * Returns the url a file of {@code batch} was uploaded to, or {@code null} if it has not been
+     * uploaded.
+     */
+    synchronized String getUrl(Batch batch, int index) {
+        return batch.items.get(index).url;
+    }
+
+    /**
+     * Records an attempt to upload a file of {@code batch}.
+     *
+     * @return {@code false} if the file has already been attempted {@link #MAX_ATTEMPTS} times, in
+     * which case nothing is recorded
+     */
+    synchronized boolean recordAttempt(Batch batch, int index) {
+        Item item = batch.items.get(index);
+        if (item.attempts >= MAX_ATTEMPTS) {
+            return false;
+        }
+        item.attempts++;
+        save();
+        return true;
+    }
+
+    /**
+     * Records that a file of {@code batch} has been uploaded. A multipart upload recorded for the
+     * file other than the one that completed it, {@code uploadId}, is queued to be aborted.
+     */
+    synchronized void recordFinished(Batch batch, int index, String key, String url, String uploadId) {
+        Item item = batch.items.get(index);
+        if (item.multipart != null && item.multipart.uploadId != null
+            && !item.multipart.uploadId.equals(uploadId)) {
+            loadAbandoned().add(item.multipart);
+        }
+        item.key = key;
+        item.url = url;
+        item.multipart = null;
+        save();
+    }
+
+    /**
+     * Returns the state of the multipart upload of a file of {@code batch}, or {@code null} if it
+     * is not being uploaded in parts.
+     */
+    synchronized MultipartUpload.State getMultipartState(Batch batch, int index) {
+        return batch.items.get(index).multipart;
+    }
+
+    /**
+     * Records the state of the multipart upload of a file of {@code batch}, so it can resume from
+     * the parts already committed.
+     */
+    synchronized void recordMultipartState(Batch batch, int index, MultipartUpload.State state) {
+        batch.items.get(index).multipart = state;
+        save();
+    }
+
+    /**
+     * Queues the multipart uploads of the unfinished files of {@code batch} to be aborted, since
+     * nothing will resume them.
+     */
+    private void abandon(Batch batch) {
+        for (Item item : batch.items) {
+            if (item.url == null && item.multipart != null && item.multipart.uploadId != null) {
+                loadAbandoned().add(item.multipart);
+                item.multipart = null;
+            }
+        }
+    }
+
+    /**
+     * Pins the files of {@code batch} that have not been uploaded in every pinned cache that holds
+     * them.
+     */
+    private void pin(Batch batch) {
+        for (ResizeCache cache : pinnedCaches) {
+            for (Item item : batch.items) {
+                if (item.uri != null && item.url == null) {
+                    cache.pin(Uri.parse(item.uri), pinOwnerPrefix + batch.id);
+                }
+            }
+        }
+    }
+
+    private void unpin(Batch batch) {
+        for (ResizeCache cache : pinnedCaches) {
+            cache.unpin(pinOwnerPrefix + batch.id);
+        }
+    }
+
+    /**
+     * Brings the pins of this journal in line with the requests read from the file, since the app
+     * may have been killed between recording a change and pinning or unpinning its files.
+     */
+    private void reconcilePins() {
+        Set<String> owners = new HashSet<>();
+        for (Batch batch : batches) {
+            owners.add(pinOwnerPrefix + batch.id);
+            pin(batch);
+        }
+        for (ResizeCache cache : pinnedCaches) {
+            for (String owner : cache.getPinOwners()) {
+                if (owner.startsWith(pinOwnerPrefix) && !owners.contains(owner)) {
+                    cache.unpin(owner);
+                }
+            }
+        }
+    }
+
+    private List<MultipartUpload.State> loadAbandoned() {
+        load();
+        return abandonedUploads;
+    }
+
+    private List<Batch> load() {
+        if (batches != null) {
+            return batches;
+        }
+
+        batches = new ArrayList<>();
+        abandonedUploads = new ArrayList<>();
+        if (!file.isFile()) {
+            reconcilePins();
+            return batches;
+        }
+
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), CHARSET);
+            JournalFile journalFile = gson.fromJson(reader, JournalFile.class);
+            if (journalFile != null && journalFile.batches != null) {
+                for (Batch batch : journalFile.batches) {
+                    if (batch != null && batch.items != null) {
+                        batches.add(batch);
+                    }
+                }
+            }
+            if (journalFile != null && journalFile.abandonedUploads != null) {
+                for (MultipartUpload.State state : journalFile.abandonedUploads) {
+                    if (state != null) {
+                        abandonedUploads.add(state);
+                    }
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            // A corrupt journal can't be resumed, so start over rather than fail every upload
+            e.printStackTrace();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        reconcilePins();
+        return batches;
+    }
+
+    /**
+     * Writes the journal to a temporary file and moves it into place, so a crash part way through
+     * never leaves a truncated journal.
+     */
+    private void save() {
+        if (batches.isEmpty() && abandonedUploads.isEmpty()) {
+            file.delete();
+            return;
+        }
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) {
+            parent.mkdirs();
+        }
+
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        Writer writer = null;
+        try {
+            JournalFile journalFile = new JournalFile();
+            journalFile.batches = batches;
+            journalFile.abandonedUploads = abandonedUploads;
+            writer = new OutputStreamWriter(new FileOutputStream(tempFile), CHARSET);
+            gson.toJson(journalFile, writer);
+            writer.close();
+            writer = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to move " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * The root object of the journal file.
+     */
+    private static class JournalFile {
+        int version = 1;
+        List<Batch> batches;
+        List<MultipartUpload.State> abandonedUploads;
+    }
+
+    /**
+     * A pending upload request.
+     */
+    static class Batch {
+        String id;
+        String acl;
+        long createdAt;
+        List<Item> items;
+
+        Uri[] getUris() {
+            Uri[] uris = new Uri[items.size()];
+            for (int i = 0; i < uris.length; i++) {
+                uris[i] = items.get(i).uri != null ? Uri.parse(items.get(i).uri) : null;
+            }
+            return uris;
+        }
+
+        String getSuffix(int index) {
+            return items.get(index).suffix;
+        }
+
+        boolean matches(String[] uris, String[] suffixes, String acl) {
+            if (items.size() != uris.length || !String.valueOf(this.acl).equals(String.valueOf(acl))) {
+                return false;
+            }
+            String[] itemUris = new String[uris.length];
+            String[] itemSuffixes = new String[uris.length];
+            for (int i = 0; i < uris.length; i++) {
+                itemUris[i] = items.get(i).uri;
+                itemSuffixes[i] = items.get(i).suffix;
+            }
+            return Arrays.equals(itemUris, uris) && Arrays.equals(itemSuffixes, suffixes);
+        }
+    }
+
+    /**
+     * A single file of a pending upload request.
+     */
+    static class Item {
+        String uri;
+        String suffix;
+        int attempts;
+        // Set once the file has been uploaded
+        String key;
+        String url;
+        // Set while the file is uploaded in parts
+        MultipartUpload.State multipart;
+    }
+}
@@ -8,6 +8,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.webkit.MimeTypeMap;
 
+import com.isbx.androidtools.media.ResizeCache;
 import com.isbx.androidtools.networking.s3.S3Credentials;
 import com.isbx.androidtools.networking.s3.S3CredentialsProvider;
 import com.isbx.androidtools.networking.s3.S3Service;
@@ -16,7 +17,19 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import okhttp3.ConnectionPool;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
@@ -45,6 +58,27 @@ import retrofit2.converter.gson.GsonConverterFactory;
  *
  * <code>https://{credentials.getBucket()}.s3.amazonaws.com/{credentials.getUniqueFilePrefix()}{suffixRule.getSuffix()}.jpg</code>
  *
+ * <p>
+ * All uploads share one long-lived {@link OkHttpClient}, and one {@link S3Service} per bucket, so
+ * successive uploads to the same bucket reuse a warm, already authenticated TLS connection instead
+ * of opening a new one. By default every UploadManager shares
+ * {@link UploadManager#getDefaultClient()}.
+ * </p>
+ *
+ * <p>
+ * Uploads are lost if the app is killed before they finish, unless an {@link UploadJournal} is
+ * set with {@link UploadManager#setJournal(UploadJournal)}. Journaled requests that did not
+ * finish can then be resumed on the next launch with
+ * {@link UploadManager#resumePendingUploads(UploadListener)}, skipping the files that were
+ * already uploaded.
+ * </p>
+ *
+ * <p>
+ * Large files, such as videos, can be uploaded in parts with the S3 multipart upload API by
+ * setting a {@link MultipartUploadConfig} with
+ * {@link UploadManager#setMultipartUploadConfig(MultipartUploadConfig)}.
+ * </p>
+ *
  * @see S3CredentialsProvider
  * @see S3Credentials
  */
@@ -54,6 +88,14 @@ public class UploadManager {
     private static final String DEFAULT_ACL = "public-read";
     private static final int DEFAULT_SUCCESS_STATUS = 201;
     private static final int UPLOAD_TIMEOUT_MS = 60000;
+    // Enough idle connections for several buckets, kept long enough to span a batch of uploads
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static OkHttpClient defaultClient;
+    private static S3ServiceCache defaultServices;
+    private static ExecutorService uploadExecutor;
 
     /**
      * A convenience implementation of {@link SuffixRule} that will return a numerical suffix based
@@ -74,6 +116,52 @@ public class UploadManager {
 
     private Context context;
     private S3CredentialsProvider credentialsProvider;
+    private S3ServiceCache services;
+    private int maxConcurrentUploads = 1;
+    private UploadJournal journal;
+    private MultipartUploadConfig multipartUploadConfig;
+
+    /**
+     * Returns the {@link OkHttpClient} shared by all UploadManager instances created without a
+     * client of their own. Its connection pool keeps up to 8 idle connections alive for 5 minutes.
+     *
+     * <p>
+     * To customize the client, for example to add logging, derive a new one from this client with
+     * {@link OkHttpClient#newBuilder()} so that it shares the same connection pool, and pass it to
+     * {@link UploadManager#UploadManager(Context, S3CredentialsProvider, OkHttpClient)}.
+     * </p>
+     *
+     * @return The default {@link OkHttpClient}
+     */
+    public static synchronized OkHttpClient getDefaultClient() {
+        if (defaultClient == null) {
+            defaultClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .connectTimeout(1, TimeUnit.MINUTES)
+                .writeTimeout(5, TimeUnit.MINUTES)
+                .readTimeout(3, TimeUnit.MINUTES)
+                .build();
+        }
+        return defaultClient;
+    }
+
+    /**
+     * Returns the threads that uploads run on. The number of uploads in flight is limited by each
+     * {@link UploadTask}, so the pool itself is unbounded.
+     */
+    private static synchronized ExecutorService getUploadExecutor() {
+        if (uploadExecutor == null) {
+            uploadExecutor = Executors.newCachedThreadPool();
+        }
+        return uploadExecutor;
+    }
+
+    private static synchronized S3ServiceCache getDefaultServices() {
+        if (defaultServices == null) {
+            defaultServices = new S3ServiceCache(getDefaultClient());
+        }
+        return defaultServices;
+    }
 
     /**
      * Creates a new UploadManager instance with the given {@link S3CredentialsProvider} to
@@ -87,22 +175,197 @@ public class UploadManager {
     public UploadManager(Context context, S3CredentialsProvider credentialsProvider) {
         this.context = context;
         this.credentialsProvider = credentialsProvider;
+        this.services = getDefaultServices();
     }
 
     /**
-     * Uploads an array of images to S3 in the background in series.
+     * Creates a new UploadManager instance that makes its upload requests with the given
+     * {@link OkHttpClient}.
+     *
+     * @param context The current {@link Context}
+     * @param credentialsProvider An {@link S3CredentialsProvider} that will be used for
+     *                            authentication and configuration for each upload request made
+     *                            through this instance
+     * @param client The {@link OkHttpClient} to upload with. It should be reused for as long as
+     *               possible, so that its connections are reused.
+     *
+     * @see UploadManager#getDefaultClient()
+     */
+    public UploadManager(Context context, S3CredentialsProvider credentialsProvider, OkHttpClient client) {
+        this.context = context;
+        this.credentialsProvider = credentialsProvider;
+        this.services = new S3ServiceCache(client);
+    }
+
+    /**
+     * Returns the maximum number of files of a single upload request that are uploaded at the
+     * same time.
+     *
+     * @return The maximum number of concurrent uploads
+     *
+     * @see UploadManager#setMaxConcurrentUploads(int)
+     */
+    public int getMaxConcurrentUploads() {
+        return maxConcurrentUploads;
+    }
+
+    /**
+     * Sets the maximum number of files of a single upload request that are uploaded at the same
+     * time. Defaults to {@code 1}, which uploads files in series. On a fast network, uploading
+     * several small files at once hides the latency of each request, while on a slow network it
+     * only splits the same bandwidth between them.
+     *
+     * <p>
+     * Regardless of the order uploads finish in, the urls passed to
+     * {@link UploadListener#onUploadComplete(String[])} are in the same order as the files. To be
+     * notified as each file finishes, use an {@link UploadProgressListener}.
+     * </p>
+     *
+     * @param maxConcurrentUploads The maximum number of concurrent uploads, at least {@code 1}
+     *
+     * @see UploadManager#getMaxConcurrentUploads()
+     */
+    public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        if (maxConcurrentUploads < 1) {
+            throw new IllegalArgumentException("maxConcurrentUploads must be at least 1");
+        }
+        this.maxConcurrentUploads = maxConcurrentUploads;
+    }
+
+    /**
+     * Returns the journal that upload requests are recorded in, or {@code null} if they are not
+     * recorded.
+     *
+     * @return The {@link UploadJournal} of this instance
+     *
+     * @see UploadManager#setJournal(UploadJournal)
+     */
+    public UploadJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Sets the journal that upload requests made through this instance are recorded in, so they
+     * can be resumed with {@link UploadManager#resumePendingUploads(UploadListener)} if the app is
+     * killed before they finish. Defaults to {@code null}, which doesn't record them.
+     *
+     * <p>
+     * A request is recorded in the background before its first file is uploaded, and each file
+     * is recorded as it finishes. A request that fails is left in the journal to be resumed,
+     * until one of its files has failed {@link UploadJournal#MAX_ATTEMPTS} times.
+     * </p>
+     *
+     * @param journal The {@link UploadJournal} to record requests in, usually
+     *                {@link UploadJournal#getDefault(Context)}
+     */
+    public void setJournal(UploadJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Resumes every request in the journal that did not finish and is not already being uploaded,
+     * such as those interrupted when the app was last killed. Files that were already uploaded are
+     * not sent again, but their urls are still passed to
+     * {@link UploadListener#onUploadComplete(String[])}. The journal is read in the background, and
+     * {@code listener} is notified separately for each resumed request.
+     *
+     * <p>
+     * Each request is resumed with the same suffixes and ACL it was made with, under new
+     * credentials from the {@link S3CredentialsProvider} of this instance.
+     * </p>
+     *
+     * @param listener An {@link UploadListener} that will be notified of the completion, error,
+     *                 and progress events of each resumed request
+     *
+     * @see UploadManager#setJournal(UploadJournal)
+     */
+    public void resumePendingUploads(final UploadListener listener) {
+        final UploadJournal journal = this.journal;
+        if (journal == null) {
+            throw new IllegalStateException("No journal has been set");
+        }
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<UploadJournal.Batch> batches = journal.beginPending();
+                if (batches.isEmpty()) {
+                    return;
+                }
+
+                // AsyncTasks must be started from the main thread
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (UploadJournal.Batch batch : batches) {
+                            UploadTask uploadTask = newUploadTask(listener);
+                            uploadTask.journal = journal;
+                            uploadTask.batch = batch;
+                            uploadTask.acl = batch.acl;
+                            uploadTask.execute(batch.getUris());
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the configuration that large files are uploaded in parts with, or {@code null} if
+     * every file is uploaded in a single request.
+     *
+     * @return The {@link MultipartUploadConfig} of this instance
+     *
+     * @see UploadManager#setMultipartUploadConfig(MultipartUploadConfig)
+     */
+    public MultipartUploadConfig getMultipartUploadConfig() {
+        return multipartUploadConfig;
+    }
+
+    /**
+     * Sets the configuration that files of at least {@link MultipartUploadConfig#getThreshold()}
+     * bytes are uploaded in parts with, using the S3 multipart upload API. Defaults to
+     * {@code null}, which uploads every file in a single POST authenticated by the
+     * {@link S3Credentials} policy.
+     *
+     * <p>
+     * A file uploaded in parts counts as one file towards
+     * {@link UploadManager#getMaxConcurrentUploads()}, but uploads up to
+     * {@link MultipartUploadConfig#getMaxConcurrentParts()} parts at once.
+     * </p>
+     *
+     * @param multipartUploadConfig The {@link MultipartUploadConfig} to upload large files with,
+     *                              or {@code null} to upload every file in a single request
+     */
+    public void setMultipartUploadConfig(MultipartUploadConfig multipartUploadConfig) {
+        this.multipartUploadConfig = multipartUploadConfig;
+    }
+
+    private UploadTask newUploadTask(UploadListener listener) {
+        UploadTask uploadTask = new UploadTask(context, credentialsProvider, services, listener);
+        uploadTask.maxConcurrentUploads = maxConcurrentUploads;
+        uploadTask.journal = journal;
+        uploadTask.multipartUploadConfig = multipartUploadConfig;
+        return uploadTask;
+    }
+
+    /**
+     * Uploads an array of images to S3 in the background, up to
+     * {@link UploadManager#getMaxConcurrentUploads()} at a time.
      *
      * @param imageUris An array {@link Uri}s representing the images to be uploaded
      * @param listener An {@link UploadListener} that will be notified of upload completion, error,
      *                 and progress events
      */
     public void uploadImages(Uri[] imageUris, UploadListener listener) {
-        UploadTask uploadTask = new UploadTask(context, credentialsProvider, listener);
+        UploadTask uploadTask = newUploadTask(listener);
         uploadTask.execute(imageUris);
     }
 
     /**
-     * Uploads an array of images to S3 in the background in series using the given
+     * Uploads an array of images to S3 in the background, up to
+     * {@link UploadManager#getMaxConcurrentUploads()} at a time, using the given
      * {@link SuffixRule} to configure the uploaded S3 keys.
      *
      * @param imageUris An array {@link Uri}s representing the images to be uploaded
@@ -112,13 +375,14 @@ public class UploadManager {
      *                 and progress events
      */
     public void uploadImages(Uri[] imageUris, SuffixRule suffixRule, UploadListener listener) {
-        UploadTask uploadTask = new UploadTask(context, credentialsProvider, listener);
+        UploadTask uploadTask = newUploadTask(listener);
         uploadTask.suffixRule = suffixRule;
         uploadTask.execute(imageUris);
     }
 
     /**
-     * Uploads an array of images to S3 in the background in series using the given
+     * Uploads an array of images to S3 in the background, up to
+     * {@link UploadManager#getMaxConcurrentUploads()} at a time, using the given
      * {@link SuffixRule} to configure the uploaded S3 keys with the ACL parameter (private/public).
      *
      * @param imageUris An array {@link Uri}s representing the images to be uploaded
@@ -129,7 +393,7 @@ public class UploadManager {
      *                 and progress events
      */
     public void uploadImages(Uri[] imageUris, SuffixRule suffixRule, String acl, UploadListener listener) {
-        UploadTask uploadTask = new UploadTask(context, credentialsProvider, listener);
+        UploadTask uploadTask = newUploadTask(listener);
         uploadTask.suffixRule = suffixRule;
         uploadTask.acl = acl;
         uploadTask.execute(imageUris);
@@ -143,7 +407,7 @@ public class UploadManager {
      *                 and progress events
      */
     public void upload(Uri mediaUri, UploadListener listener) {
-        UploadTask uploadTask = new UploadTask(context, credentialsProvider, listener);
+        UploadTask uploadTask = newUploadTask(listener);
         uploadTask.execute(mediaUri);
     }
 
@@ -158,7 +422,7 @@ public class UploadManager {
      *                 and progress events
      */
     public void upload(Uri mediaUri, SuffixRule suffixRule, UploadListener listener) {
-        UploadTask uploadTask = new UploadTask(context, credentialsProvider, listener);
+        UploadTask uploadTask = newUploadTask(listener);
         uploadTask.suffixRule = suffixRule;
         uploadTask.execute(mediaUri);
     }
@@ -175,7 +439,7 @@ public class UploadManager {
      *                 and progress events
      */
     public void upload(Uri mediaUri, SuffixRule suffixRule, String acl, UploadListener listener) {
-        UploadTask uploadTask = new UploadTask(context, credentialsProvider, listener);
+        UploadTask uploadTask = newUploadTask(listener);
         uploadTask.suffixRule = suffixRule;
         uploadTask.acl = acl;
         uploadTask.execute(mediaUri);
@@ -184,7 +448,7 @@ public class UploadManager {
 
     /**
      * Implementation of {@link AsyncTask} that uploads an arbitrary number of {@link Uri}s to
-     * S3 in series. The configuration specifying how the file should be uploaded (bucket name,
+     * S3, up to {@code maxConcurrentUploads} at a time. The configuration specifying how the file should be uploaded (bucket name,
      * key, authentication, etc) is determined by an {@link S3CredentialsProvider} passed in to the
      * task.
      *
@@ -195,16 +459,42 @@ public class UploadManager {
      * </p>
      *
      * <p>
-     * If a single upload fails, the task will be cancelled and the remaining files will not be
-     * uploaded.
+     * If a single upload fails, the task will be cancelled, any uploads in flight will be
+     * cancelled, and the remaining files will not be uploaded.
+     * </p>
+     *
+     * <p>
+     * If the task has an {@link UploadJournal}, the request is recorded in it as a batch before
+     * any file is uploaded, unless the task is resuming a batch already recorded. Files the batch
+     * records as uploaded are skipped.
      * </p>
      */
     private static class UploadTask extends AsyncTask<Uri, Integer, String[]> {
         private WeakReference<Context> context;
         private S3CredentialsProvider credentialsProvider;
+        private S3ServiceCache services;
         private UploadListener listener;
         private SuffixRule suffixRule = SUFFIX_INCREMENTAL;
         private String acl = DEFAULT_ACL;
+        private int maxConcurrentUploads = 1;
+        private UploadJournal journal;
+        private UploadJournal.Batch batch;
+        private MultipartUploadConfig multipartUploadConfig;
+
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+        private final AtomicBoolean failed = new AtomicBoolean();
+        // Guarded by activeCalls
+        private final List<Call<ResponseBody>> activeCalls = new ArrayList<>();
+        private final List<MultipartUpload> activeMultipartUploads = new ArrayList<>();
+
+        // Progress state, guarded by this task
+        private final List<FileProgress> activeFiles = new ArrayList<>();
+        private int fileCount = 0;
+        private int completedCount = 0;
+        private long totalBytes = 0;
+        private long bytesSent = 0;
+        private int lastProgress = 0;
+        private long lastProgressNanos = 0;
 
         /**
          * Creates a new UploadTask instance. The instance will use {@code credentialsProvider}
@@ -213,18 +503,59 @@ public class UploadManager {
          * @param context The current {@link Context}
          * @param credentialsProvider An {@link S3CredentialsProvider} that will provide
          *                            authentication and configuration information for each upload
+         * @param services The {@link S3ServiceCache} to make upload requests with
          * @param listener A {@link UploadListener} to be notified of completion, error, and
          *                 progress events
          */
-        public UploadTask(Context context, S3CredentialsProvider credentialsProvider, UploadListener listener) {
+        public UploadTask(Context context, S3CredentialsProvider credentialsProvider,
+                          S3ServiceCache services, UploadListener listener) {
             this.context = new WeakReference<>(context);
             this.credentialsProvider = credentialsProvider;
+            this.services = services;
             this.listener = listener;
         }
 
         @Override
         protected String[] doInBackground(Uri... uris) {
-            S3Credentials credentials = credentialsProvider.getCredentials();
+            // Record the request before fetching credentials, so it is resumed even if they can't
+            // be fetched now, such as when the device is offline
+            if (journal != null && batch == null && !Arrays.asList(uris).contains(null)) {
+                batch = journal.begin(uris, suffixRule, acl);
+            }
+
+            try {
+                return uploadFiles(uris);
+            } finally {
+                if (batch != null) {
+                    journal.end(batch);
+                }
+                if (journal != null) {
+                    abortAbandonedUploads();
+                }
+            }
+        }
+
+        /**
+         * Aborts the multipart uploads the journal has given up on, keeping any that can't be
+         * aborted now to try again after the next request.
+         */
+        private void abortAbandonedUploads() {
+            List<MultipartUpload.State> abandoned = journal.getAbandonedUploads();
+            if (abandoned.isEmpty() || multipartUploadConfig == null) {
+                return;
+            }
+
+            MultipartUpload aborter = new MultipartUpload(services.client, multipartUploadConfig,
+                getUploadExecutor(), null);
+            for (MultipartUpload.State state : abandoned) {
+                if (aborter.abort(state)) {
+                    journal.removeAbandonedUpload(state);
+                }
+            }
+        }
+
+        private String[] uploadFiles(Uri... uris) {
+            final S3Credentials credentials = credentialsProvider.getCredentials();
             if (credentials == null) {
                 publishFailure(new IOException("Failed retrieving S3 credentials from provider"), 0);
                 cancel(true);
@@ -232,94 +563,373 @@ public class UploadManager {
             }
 
             final String[] result = new String[uris.length];
+            final Semaphore slots = new Semaphore(maxConcurrentUploads);
+            synchronized (this) {
+                fileCount = uris.length;
+                for (int i = 0; i < uris.length; i++) {
+                    Uri uri = uris[i];
+                    boolean uploaded = batch != null && journal.getUrl(batch, i) != null;
+                    if (uri != null && uri.getPath() != null && !uploaded) {
+                        totalBytes += new File(uri.getPath()).length();
+                    }
+                }
+            }
+            List<Future<?>> uploads = new ArrayList<>();
 
             for (int i = 0; i < uris.length; i++) {
                 if (isCancelled()) {
                     break;
                 }
 
-                Uri uri = uris[i];
+                final Uri uri = uris[i];
                 if (uri == null) {
-                    publishFailure(new IllegalArgumentException("Uri cannot be null"), i);
-                    cancel(true);
+                    fail(new IllegalArgumentException("Uri cannot be null"), i);
                     break;
                 }
 
-                Context ctx = context.get();
+                // Skip files uploaded before the request was interrupted
+                String uploadedUrl = batch != null ? journal.getUrl(batch, i) : null;
+                if (uploadedUrl != null) {
+                    result[i] = uploadedUrl;
+                    publishFileUploaded(uploadedUrl, i);
+                    continue;
+                }
+
+                final Context ctx = context.get();
                 if (ctx == null) {
-                    publishFailure(new IllegalStateException("Context is dead"), i);
-                    cancel(true);
+                    fail(new IllegalStateException("Context is dead"), i);
                     break;
                 }
 
-                InputStream in = null;
                 try {
-                    in = ctx.getContentResolver().openInputStream(uri);
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                    publishFailure(e, i);
-                    cancel(true);
+                    slots.acquire();
+                } catch (InterruptedException e) {
+                    // Interrupted by cancel(true)
+                    break;
+                }
+                if (isCancelled()) {
+                    slots.release();
                     break;
                 }
 
-                String extension;
-                if (uri.getScheme().equals(ContentResolver.SCHEME_CONTENT)) {
-                    String mimeType = ctx.getContentResolver().getType(uri);
-                    extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType);
-                } else {
-                    extension = MimeTypeMap.getFileExtensionFromUrl(String.valueOf(Uri.fromFile(new File(uri.getPath()))));
+                final int index = i;
+                uploads.add(getUploadExecutor().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            String url = uploadFile(ctx, credentials, uri, index);
+                            if (url != null) {
+                                result[index] = url;
+                                publishFileUploaded(url, index);
+                            }
+                        } catch (RuntimeException e) {
+                            // Such as a malformed endpoint or a failing signer, which would
+                            // otherwise only surface as a null url in the result
+                            e.printStackTrace();
+                            fail(e, index);
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                }));
+            }
+
+            // Wait for the uploads in flight, so every url is in the result before it is returned
+            boolean interrupted = false;
+            for (Future<?> upload : uploads) {
+                while (true) {
+                    try {
+                        upload.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        e.printStackTrace();
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            return result;
+        }
+
+        /**
+         * Uploads a single file, returning its url, or {@code null} if the upload failed or the
+         * task was cancelled. A file of the default {@link ResizeCache}s is leased while it is
+         * uploaded, so a resize running at the same time can't evict it.
+         */
+        private String uploadFile(Context ctx, S3Credentials credentials, Uri uri, int index) {
+            ResizeCache.Lease resizeLease = ResizeCache.getDefault(ctx).lease(uri);
+            ResizeCache.Lease copyLease = ResizeCache.getMediaPickerCache(ctx).lease(uri);
+            try {
+                return uploadLeasedFile(ctx, credentials, uri, index);
+            } finally {
+                if (resizeLease != null) {
+                    resizeLease.release();
+                }
+                if (copyLease != null) {
+                    copyLease.release();
                 }
+            }
+        }
 
+        private String uploadLeasedFile(Context ctx, S3Credentials credentials, Uri uri, int index) {
+            // Count the attempt before anything can fail, so a file that can never be uploaded
+            // runs out of attempts instead of being resumed forever
+            if (batch != null && !journal.recordAttempt(batch, index)) {
+                fail(new IOException("Gave up uploading " + uri + " after "
+                    + UploadJournal.MAX_ATTEMPTS + " attempts"), index);
+                return null;
+            }
+
+            InputStream in = null;
+            try {
+                in = ctx.getContentResolver().openInputStream(uri);
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+                fail(e, index);
+                return null;
+            } finally {
                 if (in != null) {
-                    final String key = credentials.getUniqueFilePrefix()+suffixRule.getSuffix(uri, i)+"."+extension;
-                    final int index = i;
-                    final String url = String.format(S3_URL_FORMAT, credentials.getBucket());
-                    File file = new File(uri.getPath());
-                    MultipartBody.Part filePart = MultipartBody.Part
-                            .createFormData("file", file.getName(), RequestBody.create(MediaType.parse(credentials.getContentType()), file));
-                    OkHttpClient okHttpClient = new OkHttpClient.Builder()
-                            .connectTimeout(1, TimeUnit.MINUTES)
-                            .writeTimeout(5, TimeUnit.MINUTES)
-                            .readTimeout(3, TimeUnit.MINUTES)
-                            .build();
-                    S3Service service = new Retrofit.Builder()
-                            .baseUrl(url)
-                            .addConverterFactory(GsonConverterFactory.create())
-                            .client(okHttpClient)
-                            .build()
-                            .create(S3Service.class);
-                    Call<ResponseBody> request = service.uploadFile(
-                        RequestBody.create(MultipartBody.FORM, key),
-                        RequestBody.create(MultipartBody.FORM, credentials.getAWSAccessKeyId()),
-                        RequestBody.create(MultipartBody.FORM, credentials.getPolicy()),
-                        RequestBody.create(MultipartBody.FORM, credentials.getSignature()),
-                        RequestBody.create(MultipartBody.FORM, DEFAULT_SUCCESS_STATUS + ""),
-                        RequestBody.create(MultipartBody.FORM, acl),
-                        RequestBody.create(MultipartBody.FORM, credentials.getContentType()),
-                        filePart
-                    );
                     try {
-                        Response<ResponseBody> response = request.execute();
-                        if (response.isSuccessful()) {
-                            result[index] = url + "/" + key;
-                            publishProgress((int) (index /(float) result.length * 100));
-                        } else {
-                            publishFailure(new Exception(), index);
-                            cancel(true);
-                        }
+                        in.close();
                     } catch (IOException e) {
                         e.printStackTrace();
-                        publishFailure(e, index);
-                        cancel(true);
                     }
                 }
             }
+            if (in == null) {
+                return null;
+            }
 
-            return result;
+            String extension;
+            if (uri.getScheme().equals(ContentResolver.SCHEME_CONTENT)) {
+                String mimeType = ctx.getContentResolver().getType(uri);
+                extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(mimeType);
+            } else {
+                extension = MimeTypeMap.getFileExtensionFromUrl(String.valueOf(Uri.fromFile(new File(uri.getPath()))));
+            }
+
+            String suffix = batch != null ? batch.getSuffix(index) : suffixRule.getSuffix(uri, index);
+            final String key = credentials.getUniqueFilePrefix()+suffix+"."+extension;
+            final String url = String.format(S3_URL_FORMAT, credentials.getBucket());
+
+            File file = new File(uri.getPath());
+            final FileProgress progress = new FileProgress(index, file.length());
+            if (multipartUploadConfig != null && file.length() >= multipartUploadConfig.getThreshold()) {
+                return uploadMultipart(credentials, file, key, progress);
+            }
+
+            RequestBody fileBody = new CountingRequestBody(
+                RequestBody.create(MediaType.parse(credentials.getContentType()), file),
+                new CountingRequestBody.Listener() {
+                    @Override
+                    public void onBytesWritten(long bytes) {
+                        publishBytesSent(progress, bytes);
+                    }
+                });
+            MultipartBody.Part filePart = MultipartBody.Part
+                    .createFormData("file", file.getName(), fileBody);
+            S3Service service = services.get(url);
+            Call<ResponseBody> request = service.uploadFile(
+                RequestBody.create(MultipartBody.FORM, key),
+                RequestBody.create(MultipartBody.FORM, credentials.getAWSAccessKeyId()),
+                RequestBody.create(MultipartBody.FORM, credentials.getPolicy()),
+                RequestBody.create(MultipartBody.FORM, credentials.getSignature()),
+                RequestBody.create(MultipartBody.FORM, DEFAULT_SUCCESS_STATUS + ""),
+                RequestBody.create(MultipartBody.FORM, acl),
+                RequestBody.create(MultipartBody.FORM, credentials.getContentType()),
+                filePart
+            );
+
+            synchronized (activeCalls) {
+                if (failed.get()) {
+                    return null;
+                }
+                activeCalls.add(request);
+            }
+            synchronized (this) {
+                activeFiles.add(progress);
+            }
+            try {
+                Response<ResponseBody> response = request.execute();
+                if (response.isSuccessful()) {
+                    if (batch != null) {
+                        journal.recordFinished(batch, index, key, url + "/" + key, null);
+                    }
+                    return url + "/" + key;
+                }
+                fail(new Exception(), index);
+            } catch (IOException e) {
+                e.printStackTrace();
+                fail(e, index);
+            } finally {
+                synchronized (activeCalls) {
+                    activeCalls.remove(request);
+                }
+                synchronized (this) {
+                    activeFiles.remove(progress);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Uploads a single file in parts, resuming the multipart upload recorded in the journal if
+         * there is one, and returns its url, or {@code null} if the upload failed or the task was
+         * cancelled.
+         */
+        private String uploadMultipart(S3Credentials credentials, File file, String key,
+                                       final FileProgress progress) {
+            final int index = progress.index;
+            MultipartUpload upload = new MultipartUpload(services.client, multipartUploadConfig,
+                getUploadExecutor(), new MultipartUpload.Listener() {
+                    @Override
+                    public void onBytesWritten(long bytes) {
+                        publishBytesSent(progress, bytes);
+                    }
+
+                    @Override
+                    public void onStateChanged(MultipartUpload.State state) {
+                        if (batch != null) {
+                            journal.recordMultipartState(batch, index, state);
+                        }
+                    }
+                });
+            MultipartUpload.State resumeState = batch != null ? journal.getMultipartState(batch, index) : null;
+
+            synchronized (activeCalls) {
+                if (failed.get()) {
+                    return null;
+                }
+                activeMultipartUploads.add(upload);
+            }
+            synchronized (this) {
+                activeFiles.add(progress);
+            }
+            try {
+                String url = upload.upload(file, credentials.getBucket(), key,
+                    credentials.getContentType(), acl, resumeState);
+                if (batch != null) {
+                    journal.recordFinished(batch, index, upload.getKey(), url, upload.getUploadId());
+                }
+                return url;
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (batch == null) {
+                    // Nothing will resume the upload, so don't leave its parts stored
+                    upload.abort();
+                }
+                fail(e, index);
+            } finally {
+                synchronized (activeCalls) {
+                    activeMultipartUploads.remove(upload);
+                }
+                synchronized (this) {
+                    activeFiles.remove(progress);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reports the first failure of the task and cancels it, along with any uploads in flight.
+         * Later failures, such as those caused by the cancellation, are not reported.
+         */
+        private void fail(Throwable error, int fileIndex) {
+            if (!failed.compareAndSet(false, true)) {
+                return;
+            }
+
+            publishFailure(error, fileIndex);
+            cancel(true);
+            synchronized (activeCalls) {
+                for (Call<ResponseBody> call : activeCalls) {
+                    call.cancel();
+                }
+                for (MultipartUpload upload : activeMultipartUploads) {
+                    upload.cancel();
+                }
+            }
+        }
+
+        private synchronized void publishFileUploaded(final String url, final int fileIndex) {
+            if (listener instanceof UploadProgressListener) {
+                final UploadProgressListener progressListener = (UploadProgressListener) listener;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressListener.onFileUploaded(url, fileIndex);
+                    }
+                });
+            }
+
+            completedCount++;
+            updateProgress();
+        }
+
+        /**
+         * Records bytes of a file written to the connection, publishing the progress of the
+         * request and of each file in flight if it has not been published within the progress
+         * interval.
+         */
+        private synchronized void publishBytesSent(FileProgress file, long bytes) {
+            if (file.startNanos == 0) {
+                file.startNanos = System.nanoTime();
+            }
+            file.bytesSent += bytes;
+            bytesSent += bytes;
+
+            long now = System.nanoTime();
+            if (now - lastProgressNanos < PROGRESS_INTERVAL_NANOS) {
+                return;
+            }
+            lastProgressNanos = now;
+            updateProgress();
+
+            if (listener instanceof UploadProgressListener) {
+                final UploadProgressListener progressListener = (UploadProgressListener) listener;
+                for (FileProgress active : activeFiles) {
+                    final int index = active.index;
+                    final long sent = active.bytesSent;
+                    final long total = active.totalBytes;
+                    final long bytesPerSecond = active.getBytesPerSecond(now);
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            progressListener.onFileProgress(index, sent, total, bytesPerSecond);
+                        }
+                    });
+                }
+            }
+        }
+
+        /**
+         * Publishes the percentage of the bytes of all files sent so far, if it has changed. It is
+         * held below 100 until every file has finished, since the last bytes are written before
+         * S3 has responded. Posted under the lock, so progress is delivered in increasing order.
+         */
+        private void updateProgress() {
+            int progress;
+            if (completedCount == fileCount) {
+                progress = 100;
+            } else if (totalBytes > 0) {
+                progress = (int) Math.min(99, Math.max(0, bytesSent * 100 / totalBytes));
+            } else {
+                progress = (int) (completedCount / (float) fileCount * 100);
+            }
+
+            if (progress > lastProgress) {
+                lastProgress = progress;
+                publishProgress(progress);
+            }
         }
 
         private void publishFailure(final Throwable error, final int fileIndex) {
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
+            mainHandler.post(new Runnable() {
                 @Override
                 public void run() {
                     if (listener != null) {
@@ -345,6 +955,55 @@ public class UploadManager {
     }
 
 
+    /**
+     * The upload progress of a single file.
+     */
+    private static class FileProgress {
+        final int index;
+        final long totalBytes;
+        long bytesSent = 0;
+        // The time the first byte was written, or 0 if none has been
+        long startNanos = 0;
+
+        FileProgress(int index, long totalBytes) {
+            this.index = index;
+            this.totalBytes = totalBytes;
+        }
+
+        long getBytesPerSecond(long nowNanos) {
+            long elapsed = nowNanos - startNanos;
+            return startNanos == 0 || elapsed <= 0 ? 0 : bytesSent * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+    }
+
+    /**
+     * The {@link S3Service} of each bucket url, all sharing one {@link OkHttpClient}. Creating a
+     * Retrofit service parses the annotations of {@link S3Service}, so services are created once
+     * and reused.
+     */
+    private static class S3ServiceCache {
+        private final OkHttpClient client;
+        private final Map<String, S3Service> services = new HashMap<>();
+
+        S3ServiceCache(OkHttpClient client) {
+            this.client = client;
+        }
+
+        synchronized S3Service get(String url) {
+            S3Service service = services.get(url);
+            if (service == null) {
+                service = new Retrofit.Builder()
+                        .baseUrl(url)
+                        .addConverterFactory(GsonConverterFactory.create())
+                        .client(client)
+                        .build()
+                        .create(S3Service.class);
+                services.put(url, service);
+            }
+            return service;
+        }
+    }
+
     /**
      * A listener interface to receive completion, error, and progress events during an upload
      * request
@@ -352,18 +1011,18 @@ public class UploadManager {
     public interface UploadListener {
         /**
          * <p>
-         * This method is invoked whenever an individual file has finished uploading. The progress
-         * is an integer representation from 1 - 100 of how many files have been uploaded using the
+         * This method is invoked on the main thread as the files of the current request are
+         * uploaded, at most every 100ms and whenever a file finishes uploading. The progress is
+         * an integer representation from 1 - 100 of how many bytes have been sent, using the
          * following formula:
          * </p>
          *
          * <pre>
-         * <code>progress = numberOfFilesUploaded / totalNumberOfFiles * 100;</code>
+         * <code>progress = bytesSent / totalBytesOfAllFiles * 100;</code>
          * </pre>
          *
          * <p>
-         * If only one file is being uploaded, this will only be called once with a
-         * {@code progress} of 100.
+         * The progress only increases, and is only 100 once every file has finished uploading.
          * </p>
          *
          * @param progress The completion progress of the current upload request, as an integer in
@@ -391,6 +1050,34 @@ public class UploadManager {
         void onUploadFailed(Throwable error, int failureIndex);
     }
 
+    /**
+     * An {@link UploadListener} that is also notified of the progress and throughput of each
+     * individual file, and as each file finishes uploading, in the order the uploads finish.
+     *
+     * @see UploadManager#setMaxConcurrentUploads(int)
+     */
+    public interface UploadProgressListener extends UploadListener {
+        /**
+         * This method is invoked on the main thread, at most every 100ms, with the progress of
+         * each file currently uploading.
+         *
+         * @param index The index of the file in the current upload request
+         * @param bytesSent The number of bytes of the file sent so far
+         * @param totalBytes The size of the file in bytes
+         * @param bytesPerSecond The average upload rate of the file since its first byte was sent
+         */
+        void onFileProgress(int index, long bytesSent, long totalBytes, long bytesPerSecond);
+
+        /**
+         * This method is invoked on the main thread whenever an individual file has finished
+         * uploading, before the corresponding call to {@link UploadListener#onProgress(int)}.
+         *
+         * @param url The S3 url of the uploaded file
+         * @param index The index of the file in the current upload request
+         */
+        void onFileUploaded(String url, int index);
+    }
+
     /**
      * An interface for generating a string suffix to be appended to an uploaded file name given a
      * {@link Uri} for the original file and an index for the file's position in the current
@@ -0,0 +1,247 @@
+package com.isbx.androidtools.networking.s3;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+/**
+ * An {@link S3RequestSigner} that signs requests with AWS Signature Version 4, using an access key
+ * pair held on the device.
+ *
+ * <p>
+ * The key pair should be temporary credentials scoped to the upload bucket, such as those issued
+ * by AWS STS or Cognito, and never the long-lived keys of an IAM user. Request bodies larger than
+ * 64KB, such as the parts of a multipart upload, are sent with an unsigned payload rather than
+ * hashed, which S3 permits over HTTPS.
+ * </p>
+ *
+ * <p>
+ * S3 compatible servers, such as a local stand-in used for testing, accept the same signatures;
+ * pass the region they are configured with, usually {@code us-east-1}.
+ * </p>
+ *
+ * <p>
+ * For more information on Signature Version 4, see
+ * <a href="https://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-authenticating-requests.html">
+ * https://docs.aws.amazon.com/AmazonS3/latest/API/sig-v4-authenticating-requests.html</a>
+ * </p>
+ */
+public class AwsV4Signer implements S3RequestSigner {
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String SERVICE = "s3";
+    private static final String TERMINATOR = "aws4_request";
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final long MAX_HASHED_BODY_BYTES = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final String accessKeyId;
+    private final String secretKey;
+    private final String sessionToken;
+    private final String region;
+
+    /**
+     * Creates a new AwsV4Signer with a permanent access key pair.
+     *
+     * @param accessKeyId The AWS access key id
+     * @param secretKey The AWS secret access key
+     * @param region The region of the bucket, e.g. {@code us-west-2}
+     */
+    public AwsV4Signer(String accessKeyId, String secretKey, String region) {
+        this(accessKeyId, secretKey, null, region);
+    }
+
+    /**
+     * Creates a new AwsV4Signer with a temporary access key pair and its session token.
+     *
+     * @param accessKeyId The AWS access key id
+     * @param secretKey The AWS secret access key
+     * @param sessionToken The session token of the temporary credentials, or {@code null}
+     * @param region The region of the bucket, e.g. {@code us-west-2}
+     */
+    public AwsV4Signer(String accessKeyId, String secretKey, String sessionToken, String region) {
+        this.accessKeyId = accessKeyId;
+        this.secretKey = secretKey;
+        this.sessionToken = sessionToken;
+        this.region = region;
+    }
+
+    @Override
+    public Request sign(Request request) throws IOException {
+        Date now = new Date();
+        String amzDate = formatDate("yyyyMMdd'T'HHmmss'Z'", now);
+        String date = amzDate.substring(0, 8);
+        HttpUrl url = request.url();
+
+        Request.Builder builder = request.newBuilder()
+            .header("Host", getHost(url))
+            .header("x-amz-date", amzDate)
+            .header("x-amz-content-sha256", getPayloadHash(request.body()));
+        if (sessionToken != null) {
+            builder.header("x-amz-security-token", sessionToken);
+        }
+        Request unsigned = builder.build();
+
+        // Sign the host and every x-amz-* header, as S3 requires
+        Map<String, String> headers = new TreeMap<>();
+        for (String name : unsigned.headers().names()) {
+            String lowerName = name.toLowerCase(Locale.US);
+            if (lowerName.equals("host") || lowerName.startsWith("x-amz-")) {
+                headers.put(lowerName, unsigned.header(name).trim());
+            }
+        }
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringBuilder signedHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue()).append('\n');
+            if (signedHeaders.length() > 0) {
+                signedHeaders.append(';');
+            }
+            signedHeaders.append(header.getKey());
+        }
+
+        String canonicalRequest = unsigned.method() + "\n"
+            + getCanonicalPath(url) + "\n"
+            + getCanonicalQuery(url) + "\n"
+            + canonicalHeaders + "\n"
+            + signedHeaders + "\n"
+            + unsigned.header("x-amz-content-sha256");
+
+        String scope = date + "/" + region + "/" + SERVICE + "/" + TERMINATOR;
+        String stringToSign = ALGORITHM + "\n" + amzDate + "\n" + scope + "\n"
+            + hex(sha256(utf8(canonicalRequest)));
+
+        byte[] key = hmac(utf8("AWS4" + secretKey), date);
+        key = hmac(key, region);
+        key = hmac(key, SERVICE);
+        key = hmac(key, TERMINATOR);
+        String signature = hex(hmac(key, stringToSign));
+
+        return unsigned.newBuilder()
+            .header("Authorization", ALGORITHM + " Credential=" + accessKeyId + "/" + scope
+                + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature)
+            .build();
+    }
+
+    private static String getHost(HttpUrl url) {
+        if (url.port() == HttpUrl.defaultPort(url.scheme())) {
+            return url.host();
+        }
+        return url.host() + ":" + url.port();
+    }
+
+    private static String getPayloadHash(RequestBody body) throws IOException {
+        if (body == null) {
+            return hex(sha256(new byte[0]));
+        }
+
+        long length = body.contentLength();
+        if (length < 0 || length > MAX_HASHED_BODY_BYTES) {
+            return UNSIGNED_PAYLOAD;
+        }
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return hex(sha256(buffer.readByteArray()));
+    }
+
+    private static String getCanonicalPath(HttpUrl url) {
+        StringBuilder path = new StringBuilder();
+        for (String segment : url.pathSegments()) {
+            path.append('/').append(encode(segment));
+        }
+        return path.length() > 0 ? path.toString() : "/";
+    }
+
+    private static String getCanonicalQuery(HttpUrl url) {
+        List<String> parameters = new ArrayList<>();
+        for (int i = 0; i < url.querySize(); i++) {
+            String value = url.queryParameterValue(i);
+            parameters.add(encode(url.queryParameterName(i)) + "=" + encode(value != null ? value : ""));
+        }
+        Collections.sort(parameters);
+
+        StringBuilder query = new StringBuilder();
+        for (String parameter : parameters) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(parameter);
+        }
+        return query.toString();
+    }
+
+    /**
+     * Percent-encodes every byte of {@code value} other than the unreserved characters of RFC 3986.
+     */
+    private static String encode(String value) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : utf8(value)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '~') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(HEX_DIGITS[c >> 4]))
+                    .append(Character.toUpperCase(HEX_DIGITS[c & 0xf]));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String formatDate(String pattern, Date date) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] sha256(byte[] data) throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(utf8(data));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,28 @@
+package com.isbx.androidtools.networking.s3;
+
+import java.io.IOException;
+import okhttp3.Request;
+
+/**
+ * An interface for authenticating the REST requests of an S3 multipart upload. Unlike the single
+ * POST uploads authenticated by {@link S3Credentials}, whose policy only permits form uploads,
+ * every request of a multipart upload must be signed individually.
+ *
+ * <p>
+ * Implementations may sign requests on the device, as {@link AwsV4Signer} does with temporary
+ * credentials, or ask a server to sign them, so that no AWS secret key is shipped with the app.
+ * </p>
+ *
+ * @see AwsV4Signer
+ */
+public interface S3RequestSigner {
+    /**
+     * Returns {@code request} with the headers or query parameters needed to authenticate it with
+     * S3 added. This is called on a background thread, once for every attempt of every request.
+     *
+     * @param request The unsigned request
+     * @return The signed request
+     * @throws IOException If the request could not be signed
+     */
+    Request sign(Request request) throws IOException;
+}